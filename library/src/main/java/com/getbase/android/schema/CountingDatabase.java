@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.getbase.android.schema.driver.Database;
+import com.getbase.android.schema.driver.ForwardingDatabase;
+import com.getbase.android.schema.driver.ForwardingStatement;
+import com.getbase.android.schema.driver.Statement;
+
+import android.database.Cursor;
+
+/**
+ * Counts the statements executed through the wrapped {@link Database}.
+ */
+final class CountingDatabase extends ForwardingDatabase {
+  private long mStatementCount;
+
+  CountingDatabase(Database delegate) {
+    super(delegate);
+  }
+
+  long getStatementCount() {
+    return mStatementCount;
+  }
+
+  /**
+   * Returns the number of rows modified by the last statement, without
+   * counting the query itself.
+   */
+  long changes() {
+    Statement statement = getDelegate().compileStatement("SELECT changes()");
+    try {
+      return statement.simpleQueryForLong();
+    } finally {
+      statement.close();
+    }
+  }
+
+  @Override
+  public void execSQL(String sql) {
+    mStatementCount++;
+    super.execSQL(sql);
+  }
+
+  @Override
+  public void execSQL(String sql, Object[] bindArgs) {
+    mStatementCount++;
+    super.execSQL(sql, bindArgs);
+  }
+
+  @Override
+  public Cursor rawQuery(String sql, String[] selectionArgs) {
+    mStatementCount++;
+    return super.rawQuery(sql, selectionArgs);
+  }
+
+  @Override
+  public Statement compileStatement(String sql) {
+    return new ForwardingStatement(super.compileStatement(sql)) {
+      @Override
+      public void execute() {
+        mStatementCount++;
+        super.execute();
+      }
+
+      @Override
+      public long executeInsert() {
+        mStatementCount++;
+        return super.executeInsert();
+      }
+
+      @Override
+      public long simpleQueryForLong() {
+        mStatementCount++;
+        return super.simpleQueryForLong();
+      }
+
+      @Override
+      public String simpleQueryForString() {
+        mStatementCount++;
+        return super.simpleQueryForString();
+      }
+    };
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.getbase.android.schema.autoindexer.AutoIndexer;
+import com.getbase.android.schema.autoindexer.SQLiteIndex;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+
+/**
+ * Additional DDL executed by {@link Schemas.Schema#createAll}.
+ */
+public final class CreateOptions {
+  public static final CreateOptions DEFAULT = builder().build();
+
+  final ImmutableList<String> mIndexStatements;
+  final ImmutableList<String> mTriggerStatements;
+  final boolean mInTransaction;
+
+  private CreateOptions(ImmutableList<String> indexStatements, ImmutableList<String> triggerStatements, boolean inTransaction) {
+    mIndexStatements = indexStatements;
+    mTriggerStatements = triggerStatements;
+    mInTransaction = inTransaction;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private final ImmutableList.Builder<String> mIndexStatements = ImmutableList.builder();
+    private final ImmutableList.Builder<String> mTriggerStatements = ImmutableList.builder();
+    private boolean mInTransaction = true;
+
+    Builder() {
+    }
+
+    public Builder withIndexes(Iterable<SQLiteIndex> indexes) {
+      for (SQLiteIndex index : indexes) {
+        mIndexStatements.add(AutoIndexer.getCreateStatement(checkNotNull(index)));
+      }
+      return this;
+    }
+
+    public Builder withIndexStatements(String... createIndexStatements) {
+      mIndexStatements.addAll(Arrays.asList(createIndexStatements));
+      return this;
+    }
+
+    public Builder withTriggerStatements(String... createTriggerStatements) {
+      mTriggerStatements.addAll(Arrays.asList(createTriggerStatements));
+      return this;
+    }
+
+    /**
+     * Whether the DDL should be executed in a single transaction; true by default.
+     */
+    public Builder inTransaction(boolean inTransaction) {
+      mInTransaction = inTransaction;
+      return this;
+    }
+
+    public CreateOptions build() {
+      return new CreateOptions(mIndexStatements.build(), mTriggerStatements.build(), mInTransaction);
+    }
+  }
+}
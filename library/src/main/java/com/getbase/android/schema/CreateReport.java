@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary of the {@link Schemas.Schema#createAll} call.
+ */
+public final class CreateReport {
+  private final ImmutableList<String> mTables;
+  private final int mIndexCount;
+  private final int mTriggerCount;
+  private final long mTablesNanos;
+  private final long mIndexesNanos;
+  private final long mTriggersNanos;
+  private final long mTotalNanos;
+
+  CreateReport(ImmutableList<String> tables, int indexCount, int triggerCount, long tablesNanos, long indexesNanos, long triggersNanos, long totalNanos) {
+    mTables = tables;
+    mIndexCount = indexCount;
+    mTriggerCount = triggerCount;
+    mTablesNanos = tablesNanos;
+    mIndexesNanos = indexesNanos;
+    mTriggersNanos = triggersNanos;
+    mTotalNanos = totalNanos;
+  }
+
+  /**
+   * Tables in the order they were created.
+   */
+  public ImmutableList<String> getTables() {
+    return mTables;
+  }
+
+  public int getIndexCount() {
+    return mIndexCount;
+  }
+
+  public int getTriggerCount() {
+    return mTriggerCount;
+  }
+
+  public long getTablesTime(TimeUnit unit) {
+    return unit.convert(mTablesNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public long getIndexesTime(TimeUnit unit) {
+    return unit.convert(mIndexesNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public long getTriggersTime(TimeUnit unit) {
+    return unit.convert(mTriggersNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Total time, including the transaction commit.
+   */
+  public long getTotalTime(TimeUnit unit) {
+    return unit.convert(mTotalNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("tables", mTables.size())
+        .add("indexes", mIndexCount)
+        .add("triggers", mTriggerCount)
+        .add("tablesMs", getTablesTime(TimeUnit.MILLISECONDS))
+        .add("indexesMs", getIndexesTime(TimeUnit.MILLISECONDS))
+        .add("triggersMs", getTriggersTime(TimeUnit.MILLISECONDS))
+        .add("totalMs", getTotalTime(TimeUnit.MILLISECONDS))
+        .toString();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.io.ByteSource;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Installs the database file generated by {@link DatabaseImageGenerator}.
+ * Call {@link #install(Context, String, ByteSource)} before the
+ * SQLiteOpenHelper opens the database; the installed file has the current
+ * schema revision as its version, so the SQLiteOpenHelper calls neither
+ * onCreate nor onUpgrade.
+ */
+public final class DatabaseImage {
+  private static final String TAG = DatabaseImage.class.getSimpleName();
+  private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
+  private DatabaseImage() {
+  }
+
+  /**
+   * Copies the database image into place, unless the database already exists.
+   *
+   * @return true if the image was installed, false if the database already exists
+   */
+  public static boolean install(Context context, String databaseName, ByteSource image) throws IOException {
+    checkNotNull(image);
+
+    File database = context.getDatabasePath(databaseName);
+    if (database.exists()) {
+      return false;
+    }
+
+    File directory = database.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create directory " + directory);
+    }
+
+    File tempFile = new File(directory, databaseName + ".image");
+    try {
+      long size = copy(image, tempFile);
+      if (!tempFile.renameTo(database)) {
+        throw new IOException("Cannot rename " + tempFile + " to " + database);
+      }
+      Log.d(TAG, "Installed " + size + " bytes database image as " + database);
+    } finally {
+      if (tempFile.exists() && !tempFile.delete()) {
+        Log.w(TAG, "Cannot delete " + tempFile);
+      }
+    }
+
+    return true;
+  }
+
+  private static long copy(ByteSource image, File output) throws IOException {
+    InputStream inputStream = image.openStream();
+    try {
+      FileOutputStream outputStream = new FileOutputStream(output);
+      try {
+        ReadableByteChannel source = Channels.newChannel(inputStream);
+        FileChannel destination = outputStream.getChannel();
+
+        long position = 0;
+        long transferred;
+        while ((transferred = destination.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+          position += transferred;
+        }
+
+        outputStream.getFD().sync();
+        return position;
+      } finally {
+        outputStream.close();
+      }
+    } finally {
+      inputStream.close();
+    }
+  }
+}
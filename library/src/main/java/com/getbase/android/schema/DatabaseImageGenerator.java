@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Supplier;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * Build time entry point for generating an empty database file with the
+ * current schema, which can be installed with {@link DatabaseImage}. Usage:
+ *
+ * <pre>
+ * DatabaseImageGenerator &lt;class name&gt; &lt;schemas field or method name&gt; &lt;output file&gt; [&lt;create options field or method name&gt;]
+ * </pre>
+ *
+ * The members have to be static and have to be either {@link Schemas} and
+ * {@link CreateOptions}, or {@link Supplier Suppliers} of them. The page size
+ * and auto_vacuum declared in the {@link DatabaseSettings} of the current
+ * schema are set before the first table is created. The file is
+ * created using the SQLite JDBC driver, which has to be on the classpath,
+ * e.g. org.xerial:sqlite-jdbc.
+ */
+public final class DatabaseImageGenerator {
+  private DatabaseImageGenerator() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    checkArgument(args.length == 3 || args.length == 4, "Usage: DatabaseImageGenerator <class name> <schemas field or method name> <output file> [<create options field or method name>]");
+
+    Class<?> klass = Class.forName(args[0]);
+    Schemas schemas = SchemaSnapshotGenerator.getSchemas(klass, args[1]);
+    CreateOptions options = CreateOptions.DEFAULT;
+    if (args.length == 4) {
+      Object value = SchemaSnapshotGenerator.getStaticMember(klass, args[3]);
+      if (!(value instanceof CreateOptions)) {
+        throw new IllegalArgumentException(klass.getName() + "." + args[3] + " is not a CreateOptions instance");
+      }
+      options = (CreateOptions) value;
+    }
+
+    write(schemas, options, new File(args[2]));
+  }
+
+  public static void write(Schemas schemas, CreateOptions options, File output) throws IOException {
+    File parent = output.getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Cannot create directory " + parent);
+    }
+    if (output.exists() && !output.delete()) {
+      throw new IOException("Cannot delete " + output);
+    }
+
+    try {
+      Connection connection = DriverManager.getConnection("jdbc:sqlite:" + output.getAbsolutePath());
+      try {
+        Statement statement = connection.createStatement();
+        try {
+          writeSchema(statement, schemas, options);
+        } finally {
+          statement.close();
+        }
+      } finally {
+        connection.close();
+      }
+    } catch (SQLException e) {
+      throw new IOException("Cannot write database image " + output, e);
+    }
+  }
+
+  private static void writeSchema(Statement statement, Schemas schemas, CreateOptions options) throws SQLException {
+    Schemas.Schema schema = schemas.getCurrentSchema();
+
+    // the page size and auto_vacuum of the empty file don't need VACUUM
+    DatabaseSettings settings = schema.getSettings();
+    if (settings.getPageSize() != null) {
+      statement.execute("PRAGMA page_size=" + settings.getPageSize());
+    }
+    if (settings.getAutoVacuum() != null) {
+      statement.execute("PRAGMA auto_vacuum=" + settings.getAutoVacuum().ordinal());
+    }
+
+    Map<String, String> createTableStatements = schema.getCreateTableStatements();
+    statement.execute("BEGIN");
+    for (String table : TableDependencies.sortByDependencies(createTableStatements)) {
+      statement.execute(createTableStatements.get(table));
+    }
+    for (String createIndexStatement : options.mIndexStatements) {
+      statement.execute(createIndexStatement);
+    }
+    for (String createTriggerStatement : options.mTriggerStatements) {
+      statement.execute(createTriggerStatement);
+    }
+    statement.execute("PRAGMA user_version = " + schemas.getCurrentRevisionNumber());
+    statement.execute("COMMIT");
+
+    // VACUUM can't run inside the transaction
+    statement.execute("VACUUM");
+  }
+}
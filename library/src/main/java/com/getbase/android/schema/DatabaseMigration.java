@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.getbase.android.schema.driver.Database;
+
+import android.content.Context;
+
+/**
+ * {@link Migration} which can be applied to any {@link Database}, not only to
+ * the framework's SQLiteDatabase. Extend {@link AbstractDatabaseMigration} to
+ * get the SQLiteDatabase variant for free.
+ */
+public interface DatabaseMigration extends Migration {
+  void apply(int version, Database database, Schemas schemas, Context context);
+}
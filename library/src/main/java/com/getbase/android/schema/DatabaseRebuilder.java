@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Upgrades the database by building a fresh database file with the current
+ * schema and copying the data from the old file, instead of rebuilding the
+ * modified tables one by one. The result is compact and defragmented, which
+ * pays off when the upgrade modifies most of the tables, e.g. when the app
+ * wasn't updated for a long time.
+ * <p>
+ * The rebuild is equivalent to the upgrade only if all revisions in the
+ * upgrade range use the automatic migration, so it's not performed if any of
+ * them defines a custom migration, or if the database contains virtual
+ * tables. Call {@link #rebuild(Context, String, Schemas, float)} before the
+ * SQLiteOpenHelper opens the database; the rebuilt file has the current
+ * schema revision as its version, so the SQLiteOpenHelper doesn't call
+ * onUpgrade.
+ */
+public final class DatabaseRebuilder {
+  private static final String TAG = DatabaseRebuilder.class.getSimpleName();
+
+  private static final String OLD_DATABASE = "old";
+  private static final String ROW_ID = "_rowid_";
+  private static final ImmutableSet<String> ROW_ID_ALIASES = ImmutableSet.of("ROWID", "_ROWID_", "OID");
+  private static final String REBUILD_SUFFIX = ".rebuild";
+  private static final ImmutableList<String> SIDECAR_SUFFIXES = ImmutableList.of("-journal", "-wal", "-shm");
+  private static final ImmutableList<String> COPIED_SCHEMA_PARTS = ImmutableList.of("index", "view", "trigger");
+
+  private DatabaseRebuilder() {
+  }
+
+  public static boolean rebuild(Context context, String databaseName, Schemas schemas, float modifiedTablesThreshold) throws IOException {
+    return rebuild(context.getDatabasePath(databaseName), schemas, modifiedTablesThreshold);
+  }
+
+  /**
+   * Rebuilds the database if at least the given fraction of the tables in
+   * the current schema is modified between the database version and the
+   * current schema revision. The database must not be opened by anyone else.
+   *
+   * @return true if the database was rebuilt, false if it doesn't exist, is
+   * up to date or the rebuild is not worthwhile or not possible
+   */
+  public static boolean rebuild(File databaseFile, Schemas schemas, float modifiedTablesThreshold) throws IOException {
+    checkNotNull(schemas);
+    checkArgument(modifiedTablesThreshold >= 0 && modifiedTablesThreshold <= 1, "Modified tables threshold must be between 0 and 1");
+
+    if (!databaseFile.exists()) {
+      return false;
+    }
+
+    int toVersion = schemas.getCurrentRevisionNumber();
+    int fromVersion;
+    long pageSize;
+    long autoVacuum;
+    Map<String, String> oldTables;
+
+    SQLiteDatabase database = SQLiteDatabase.openDatabase(databaseFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+    try {
+      fromVersion = database.getVersion();
+      if (fromVersion <= 0 || fromVersion >= toVersion) {
+        return false;
+      }
+
+      oldTables = getTables(database, "main");
+      for (String createTableStatement : oldTables.values()) {
+        if (createTableStatement.toUpperCase(Locale.US).startsWith("CREATE VIRTUAL")) {
+          Log.d(TAG, "Cannot rebuild " + databaseFile + " with virtual tables");
+          return false;
+        }
+      }
+
+      pageSize = queryLong(database, "PRAGMA page_size");
+      autoVacuum = queryLong(database, "PRAGMA auto_vacuum");
+      queryLong(database, "PRAGMA wal_checkpoint(TRUNCATE)");
+    } finally {
+      database.close();
+    }
+
+    schemas.beginUpgrade();
+    try {
+      Set<String> modifiedTables = getModifiedTables(schemas, fromVersion, toVersion, modifiedTablesThreshold);
+      if (modifiedTables == null) {
+        return false;
+      }
+
+      // the fresh file is built with the declared settings, so they don't need VACUUM later
+      DatabaseSettings settings = schemas.getSettings(toVersion);
+      if (settings.getPageSize() != null) {
+        pageSize = settings.getPageSize();
+      }
+      if (settings.getAutoVacuum() != null) {
+        autoVacuum = settings.getAutoVacuum().ordinal();
+      }
+
+      long start = System.nanoTime();
+      File tempFile = new File(databaseFile.getPath() + REBUILD_SUFFIX);
+      deleteWithSidecars(tempFile);
+      try {
+        build(tempFile, databaseFile, schemas, fromVersion, toVersion, oldTables, modifiedTables, pageSize, autoVacuum);
+        swap(tempFile, databaseFile);
+      } finally {
+        deleteWithSidecars(tempFile);
+      }
+
+      Log.d(TAG, "Rebuilt " + databaseFile + " from version " + fromVersion + " to " + toVersion + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+      return true;
+    } finally {
+      schemas.endUpgrade();
+    }
+  }
+
+  /**
+   * Returns the tables of the current schema modified in the upgrade range,
+   * or null if the database should not be rebuilt.
+   */
+  private static Set<String> getModifiedTables(Schemas schemas, int fromVersion, int toVersion, float modifiedTablesThreshold) {
+    Set<String> modifiedTables = Sets.newTreeSet(String.CASE_INSENSITIVE_ORDER);
+    for (int version = fromVersion + 1; version <= toVersion; version++) {
+      for (Migration migration : schemas.to(version)) {
+        if (migration != Schemas.AUTO_MIGRATION) {
+          Log.d(TAG, "Cannot rebuild the database, revision " + version + " has custom migration " + migration);
+          return null;
+        }
+      }
+      modifiedTables.addAll(schemas.getTablesModifiedInRevision(version));
+    }
+
+    ImmutableSet<String> currentTables = schemas.getCurrentSchema().getTables();
+    int modifiedCurrentTables = 0;
+    for (String table : currentTables) {
+      if (modifiedTables.contains(table)) {
+        modifiedCurrentTables++;
+      }
+    }
+
+    if (currentTables.isEmpty() || (float) modifiedCurrentTables / currentTables.size() < modifiedTablesThreshold) {
+      return null;
+    }
+    return modifiedTables;
+  }
+
+  private static void build(File tempFile, File databaseFile, Schemas schemas, int fromVersion, int toVersion, Map<String, String> oldTables, Set<String> modifiedTables, long pageSize, long autoVacuum) {
+    SQLiteDatabase database = SQLiteDatabase.openDatabase(tempFile.getPath(), null, SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+    try {
+      database.execSQL("PRAGMA page_size=" + pageSize);
+      database.execSQL("PRAGMA auto_vacuum=" + autoVacuum);
+      // the file is discarded if the rebuild fails, so it doesn't need the journal
+      queryLong(database, "PRAGMA journal_mode=OFF");
+      database.execSQL("PRAGMA synchronous=OFF");
+
+      database.execSQL("ATTACH DATABASE ? AS " + OLD_DATABASE, new Object[] { databaseFile.getPath() });
+      try {
+        database.beginTransaction();
+        try {
+          Map<String, String> createTableStatements = getCreateTableStatements(schemas, fromVersion, toVersion, oldTables, modifiedTables);
+          for (String table : TableDependencies.sortByDependencies(createTableStatements)) {
+            database.execSQL(createTableStatements.get(table));
+            if (oldTables.containsKey(table)) {
+              copyRows(database, table, oldTables.get(table), createTableStatements.get(table));
+            }
+          }
+
+          copySchemaParts(database, createTableStatements.keySet(), modifiedTables);
+          copySequences(database);
+
+          database.setVersion(toVersion);
+          database.setTransactionSuccessful();
+        } finally {
+          database.endTransaction();
+        }
+      } finally {
+        database.execSQL("DETACH DATABASE " + OLD_DATABASE);
+      }
+    } finally {
+      database.close();
+    }
+  }
+
+  /**
+   * The modified and the added tables get the definition from the current
+   * schema, the other tables, including the tables unknown to the schema,
+   * keep their current definition.
+   */
+  private static Map<String, String> getCreateTableStatements(Schemas schemas, int fromVersion, int toVersion, Map<String, String> oldTables, Set<String> modifiedTables) {
+    Map<String, String> createTableStatements = Maps.newTreeMap(String.CASE_INSENSITIVE_ORDER);
+
+    Schemas.Schema currentSchema = schemas.getSchema(toVersion);
+    for (String table : currentSchema.getTables()) {
+      String oldStatement = oldTables.get(table);
+      createTableStatements.put(table, oldStatement != null && !modifiedTables.contains(table)
+          ? oldStatement
+          : currentSchema.getCreateTableStatement(table));
+    }
+
+    Set<String> oldSchemaTables = Sets.newTreeSet(String.CASE_INSENSITIVE_ORDER);
+    oldSchemaTables.addAll(schemas.getSchema(fromVersion).getTables());
+    for (Map.Entry<String, String> oldTable : oldTables.entrySet()) {
+      if (!oldSchemaTables.contains(oldTable.getKey()) && !createTableStatements.containsKey(oldTable.getKey())) {
+        createTableStatements.put(oldTable.getKey(), oldTable.getValue());
+      }
+    }
+
+    return createTableStatements;
+  }
+
+  /**
+   * Copies the rows in the order of the new table's key, so its B-tree is
+   * built by appending. The rowids are preserved unless the new table has
+   * the rowid alias, which is copied as a regular column.
+   */
+  private static void copyRows(SQLiteDatabase database, String table, String oldStatement, String newStatement) {
+    List<String> columns = Lists.newArrayList();
+    Set<String> oldColumns = getColumns(database, OLD_DATABASE, table);
+    for (String column : getColumns(database, "main", table)) {
+      if (oldColumns.contains(column)) {
+        columns.add(column);
+      }
+    }
+
+    List<String> keyColumns = Lists.newArrayList();
+    boolean integerKey = false;
+    boolean shadowsRowId = false;
+    Cursor cursor = database.rawQuery("PRAGMA main.table_info(" + table + ")", null);
+    try {
+      while (cursor.moveToNext()) {
+        String name = cursor.getString(cursor.getColumnIndexOrThrow("name"));
+        if (cursor.getInt(cursor.getColumnIndexOrThrow("pk")) > 0) {
+          keyColumns.add(name);
+          integerKey = "INTEGER".equalsIgnoreCase(cursor.getString(cursor.getColumnIndexOrThrow("type")));
+        }
+        shadowsRowId |= ROW_ID_ALIASES.contains(name.toUpperCase(Locale.US));
+      }
+    } finally {
+      cursor.close();
+    }
+    boolean rowIdAlias = shadowsRowId || (integerKey && keyColumns.size() == 1);
+
+    String orderBy = "";
+    if (!rowIdAlias && !MigrationsHelper.isWithoutRowId(oldStatement) && !MigrationsHelper.isWithoutRowId(newStatement)) {
+      columns.add(0, ROW_ID);
+      orderBy = " ORDER BY " + ROW_ID;
+    } else if (!keyColumns.isEmpty() && columns.containsAll(keyColumns)) {
+      orderBy = " ORDER BY " + Joiner.on(", ").join(keyColumns);
+    }
+
+    String columnsString = Joiner.on(", ").join(columns);
+    database.execSQL("INSERT INTO main." + table + " (" + columnsString + ") SELECT " + columnsString + " FROM " + OLD_DATABASE + "." + table + orderBy);
+  }
+
+  /**
+   * Copies the indexes, views and triggers after the data is copied. Like the
+   * table rebuild done by the {@link MigrationsHelper}, the indexes and the
+   * triggers of the modified tables are dropped.
+   */
+  private static void copySchemaParts(SQLiteDatabase database, Set<String> tables, Set<String> modifiedTables) {
+    Set<String> views = Sets.newTreeSet(String.CASE_INSENSITIVE_ORDER);
+    for (String type : COPIED_SCHEMA_PARTS) {
+      Cursor cursor = database.rawQuery("SELECT name, tbl_name, sql FROM " + OLD_DATABASE + ".sqlite_master WHERE type=? AND sql IS NOT NULL", new String[] { type });
+      try {
+        while (cursor.moveToNext()) {
+          String name = cursor.getString(0);
+          String table = cursor.getString(1);
+          if (type.equals("view")) {
+            views.add(name);
+            database.execSQL(cursor.getString(2));
+          } else if (views.contains(table) || (tables.contains(table) && !modifiedTables.contains(table))) {
+            database.execSQL(cursor.getString(2));
+          } else {
+            Log.d(TAG, "Dropping " + type + " " + name + " of the modified table " + table);
+          }
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+  }
+
+  private static void copySequences(SQLiteDatabase database) {
+    if (hasSequences(database, "main") && hasSequences(database, OLD_DATABASE)) {
+      database.execSQL("DELETE FROM main.sqlite_sequence");
+      database.execSQL("INSERT INTO main.sqlite_sequence (name, seq) " +
+          "SELECT name, seq FROM " + OLD_DATABASE + ".sqlite_sequence " +
+          "WHERE name IN (SELECT name FROM main.sqlite_master WHERE type='table')");
+    }
+  }
+
+  /**
+   * Replaces the database file with the rebuilt one. The old journal and WAL
+   * are deleted first, so they are never applied to the new file; the old
+   * database is consistent without them, because it was checkpointed and
+   * closed cleanly.
+   */
+  private static void swap(File tempFile, File databaseFile) throws IOException {
+    for (String suffix : SIDECAR_SUFFIXES) {
+      File sidecar = new File(databaseFile.getPath() + suffix);
+      if (sidecar.exists() && !sidecar.delete()) {
+        throw new IOException("Cannot delete " + sidecar);
+      }
+    }
+    if (!tempFile.renameTo(databaseFile)) {
+      throw new IOException("Cannot rename " + tempFile + " to " + databaseFile);
+    }
+  }
+
+  private static void deleteWithSidecars(File file) {
+    List<File> files = Lists.newArrayList(file);
+    for (String suffix : SIDECAR_SUFFIXES) {
+      files.add(new File(file.getPath() + suffix));
+    }
+    for (File f : files) {
+      if (f.exists() && !f.delete()) {
+        Log.w(TAG, "Cannot delete " + f);
+      }
+    }
+  }
+
+  /**
+   * Returns the CREATE TABLE statements of the tables in the given attached
+   * database, except for the internal SQLite tables.
+   */
+  private static Map<String, String> getTables(SQLiteDatabase database, String schemaName) {
+    Map<String, String> tables = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    Cursor cursor = database.rawQuery("SELECT name, sql FROM " + schemaName + ".sqlite_master WHERE type='table' AND name NOT LIKE 'sqlite_%'", null);
+    try {
+      while (cursor.moveToNext()) {
+        tables.put(cursor.getString(0), cursor.getString(1));
+      }
+    } finally {
+      cursor.close();
+    }
+    return tables;
+  }
+
+  private static boolean hasSequences(SQLiteDatabase database, String schemaName) {
+    return queryLong(database, "SELECT COUNT(*) FROM " + schemaName + ".sqlite_master WHERE type='table' AND name='sqlite_sequence'") > 0;
+  }
+
+  private static Set<String> getColumns(SQLiteDatabase database, String schemaName, String table) {
+    Set<String> columns = Sets.newLinkedHashSet();
+    Cursor cursor = database.rawQuery("PRAGMA " + schemaName + ".table_info(" + table + ")", null);
+    try {
+      while (cursor.moveToNext()) {
+        columns.add(cursor.getString(cursor.getColumnIndexOrThrow("name")));
+      }
+    } finally {
+      cursor.close();
+    }
+    return columns;
+  }
+
+  private static long queryLong(SQLiteDatabase database, String sql) {
+    Cursor cursor = database.rawQuery(sql, null);
+    try {
+      return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+    } finally {
+      cursor.close();
+    }
+  }
+}
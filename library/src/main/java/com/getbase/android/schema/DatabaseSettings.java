@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.getbase.android.schema.driver.Database;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * Database-level storage settings declared in the schema history with
+ * {@link Schemas.Builder#currentSchema(int, DatabaseSettings, Schemas.TableDefinition...)}
+ * and {@link Schemas.Builder.OldSchemasBuilder#downgradeTo(int, DatabaseSettings, Schemas.TableDowngrade...)}.
+ * The settings which are not declared are left as they are.
+ * <p>
+ * Changing the page size, or switching the auto_vacuum on or off, requires
+ * rebuilding the database with VACUUM, unless the database is still empty;
+ * {@link Schemas.Schema#createAll} sets them before creating the first table.
+ * The VACUUM and the journal mode change cannot be performed inside a
+ * transaction, so they are skipped in this case and listed in the
+ * {@link Report#getSkippedActions()}.
+ */
+public final class DatabaseSettings {
+  private static final String TAG = DatabaseSettings.class.getSimpleName();
+
+  static final DatabaseSettings NONE = builder().build();
+
+  /**
+   * Values of the PRAGMA auto_vacuum, in the order of their numeric codes.
+   */
+  public enum AutoVacuum {
+    NONE,
+    FULL,
+    INCREMENTAL
+  }
+
+  public enum JournalMode {
+    DELETE,
+    TRUNCATE,
+    PERSIST,
+    MEMORY,
+    WAL,
+    OFF
+  }
+
+  public enum Action {
+    PAGE_SIZE,
+    AUTO_VACUUM,
+    JOURNAL_MODE,
+    VACUUM
+  }
+
+  private final Integer mPageSize;
+  private final AutoVacuum mAutoVacuum;
+  private final JournalMode mJournalMode;
+
+  private DatabaseSettings(Integer pageSize, AutoVacuum autoVacuum, JournalMode journalMode) {
+    mPageSize = pageSize;
+    mAutoVacuum = autoVacuum;
+    mJournalMode = journalMode;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the declared page size or null.
+   */
+  public Integer getPageSize() {
+    return mPageSize;
+  }
+
+  /**
+   * Returns the declared auto_vacuum mode or null.
+   */
+  public AutoVacuum getAutoVacuum() {
+    return mAutoVacuum;
+  }
+
+  /**
+   * Returns the declared journal mode or null.
+   */
+  public JournalMode getJournalMode() {
+    return mJournalMode;
+  }
+
+  /**
+   * Returns the settings declared in the given settings, with the undeclared
+   * ones taken from this instance.
+   */
+  DatabaseSettings overriddenBy(DatabaseSettings settings) {
+    return new DatabaseSettings(
+        settings.mPageSize != null ? settings.mPageSize : mPageSize,
+        settings.mAutoVacuum != null ? settings.mAutoVacuum : mAutoVacuum,
+        settings.mJournalMode != null ? settings.mJournalMode : mJournalMode
+    );
+  }
+
+  public Report apply(SQLiteDatabase db) {
+    return apply(AndroidDatabase.wrap(db));
+  }
+
+  /**
+   * Applies the declared settings which differ from the database state, with
+   * at most one VACUUM. Returns the performed actions and the actions which
+   * were skipped because the database is in a transaction.
+   */
+  public Report apply(Database db) {
+    EnumSet<Action> actions = EnumSet.noneOf(Action.class);
+    EnumSet<Action> skippedActions = EnumSet.noneOf(Action.class);
+    boolean inTransaction = db.inTransaction();
+
+    boolean pageSizeChanged = mPageSize != null && queryLong(db, "PRAGMA page_size") != mPageSize;
+
+    boolean vacuumRequired = pageSizeChanged;
+    boolean autoVacuumChanged = false;
+    if (mAutoVacuum != null) {
+      AutoVacuum autoVacuum = AutoVacuum.values()[(int) queryLong(db, "PRAGMA auto_vacuum")];
+      autoVacuumChanged = autoVacuum != mAutoVacuum;
+      // switching between FULL and INCREMENTAL is stored in the header, but
+      // enabling or disabling auto_vacuum changes the format of the file
+      vacuumRequired |= autoVacuumChanged && (autoVacuum == AutoVacuum.NONE || mAutoVacuum == AutoVacuum.NONE);
+    }
+
+    if (vacuumRequired && inTransaction) {
+      if (pageSizeChanged) {
+        skippedActions.add(Action.PAGE_SIZE);
+      }
+      if (autoVacuumChanged) {
+        skippedActions.add(Action.AUTO_VACUUM);
+      }
+      skippedActions.add(Action.VACUUM);
+    } else {
+      JournalMode journalMode = getJournalMode(db);
+      // the page size of the database in WAL mode cannot be changed
+      if (pageSizeChanged && journalMode == JournalMode.WAL) {
+        setJournalMode(db, JournalMode.DELETE);
+      }
+      if (pageSizeChanged) {
+        db.execSQL("PRAGMA page_size=" + mPageSize);
+      }
+      if (autoVacuumChanged) {
+        db.execSQL("PRAGMA auto_vacuum=" + mAutoVacuum.ordinal());
+        actions.add(Action.AUTO_VACUUM);
+      }
+      if (vacuumRequired) {
+        db.execSQL("VACUUM");
+        actions.add(Action.VACUUM);
+      }
+      // the page size of the in-memory database cannot be changed
+      if (pageSizeChanged && queryLong(db, "PRAGMA page_size") == mPageSize) {
+        actions.add(Action.PAGE_SIZE);
+      }
+
+      JournalMode requestedJournalMode = MoreObjects.firstNonNull(mJournalMode, journalMode);
+      if (getJournalMode(db) != requestedJournalMode) {
+        if (inTransaction) {
+          skippedActions.add(Action.JOURNAL_MODE);
+        } else {
+          setJournalMode(db, requestedJournalMode);
+          if (requestedJournalMode != journalMode && getJournalMode(db) == requestedJournalMode) {
+            actions.add(Action.JOURNAL_MODE);
+          }
+        }
+      }
+    }
+
+    Report report = new Report(ImmutableSet.copyOf(actions), ImmutableSet.copyOf(skippedActions));
+    if (!report.getPerformedActions().isEmpty() || !report.getSkippedActions().isEmpty()) {
+      Log.d(TAG, "Applied " + this + ": " + report);
+    }
+    return report;
+  }
+
+  /**
+   * Sets the declared page size and auto_vacuum of the database without any
+   * tables, so no VACUUM is needed. The android_metadata table created by
+   * Android and the internal sqlite_ tables don't count as tables here, but
+   * SQLite fixes the page size and the auto_vacuum on or off once the
+   * database is written, e.g. when android_metadata is created or when
+   * Android begins the transaction. Returns the actions which took effect.
+   */
+  ImmutableSet<Action> applyToEmptyDatabase(Database db) {
+    EnumSet<Action> actions = EnumSet.noneOf(Action.class);
+    if (queryLong(db, "SELECT COUNT(*) FROM sqlite_master WHERE name NOT IN ('android_metadata') AND name NOT LIKE 'sqlite_%'") > 0) {
+      return ImmutableSet.of();
+    }
+    if (mPageSize != null && queryLong(db, "PRAGMA page_size") != mPageSize) {
+      db.execSQL("PRAGMA page_size=" + mPageSize);
+      // the page size of the in-memory database cannot be changed
+      if (queryLong(db, "PRAGMA page_size") == mPageSize) {
+        actions.add(Action.PAGE_SIZE);
+      }
+    }
+    if (mAutoVacuum != null && queryLong(db, "PRAGMA auto_vacuum") != mAutoVacuum.ordinal()) {
+      db.execSQL("PRAGMA auto_vacuum=" + mAutoVacuum.ordinal());
+      // enabling or disabling the auto_vacuum of the written database requires VACUUM
+      if (queryLong(db, "PRAGMA auto_vacuum") == mAutoVacuum.ordinal()) {
+        actions.add(Action.AUTO_VACUUM);
+      }
+    }
+    return ImmutableSet.copyOf(actions);
+  }
+
+  private static JournalMode getJournalMode(Database db) {
+    Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+    try {
+      return cursor.moveToFirst()
+          ? JournalMode.valueOf(cursor.getString(0).toUpperCase(Locale.US))
+          : JournalMode.DELETE;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Sets the journal mode. The PRAGMA returns the resulting mode, which is
+   * different from the requested one if the change is not possible, e.g. for
+   * the in-memory database.
+   */
+  private static void setJournalMode(Database db, JournalMode journalMode) {
+    Cursor cursor = db.rawQuery("PRAGMA journal_mode=" + journalMode.name(), null);
+    try {
+      cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private static long queryLong(Database db, String sql) {
+    return SpaceReclaimer.queryLong(db, sql);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+
+    DatabaseSettings that = (DatabaseSettings) o;
+    return Objects.equal(mPageSize, that.mPageSize) &&
+        mAutoVacuum == that.mAutoVacuum &&
+        mJournalMode == that.mJournalMode;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(mPageSize, mAutoVacuum, mJournalMode);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .omitNullValues()
+        .add("pageSize", mPageSize)
+        .add("autoVacuum", mAutoVacuum)
+        .add("journalMode", mJournalMode)
+        .toString();
+  }
+
+  /**
+   * Summary of the {@link #apply(Database)} call.
+   */
+  public static final class Report {
+    private final ImmutableSet<Action> mPerformedActions;
+    private final ImmutableSet<Action> mSkippedActions;
+
+    Report(ImmutableSet<Action> performedActions, ImmutableSet<Action> skippedActions) {
+      mPerformedActions = performedActions;
+      mSkippedActions = skippedActions;
+    }
+
+    public ImmutableSet<Action> getPerformedActions() {
+      return mPerformedActions;
+    }
+
+    /**
+     * Actions which cannot be performed inside a transaction. Apply the
+     * settings again outside of the transaction to complete them.
+     */
+    public ImmutableSet<Action> getSkippedActions() {
+      return mSkippedActions;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("performed", mPerformedActions)
+          .add("skipped", mSkippedActions)
+          .toString();
+    }
+  }
+
+  public static class Builder {
+    private Integer mPageSize;
+    private AutoVacuum mAutoVacuum;
+    private JournalMode mJournalMode;
+
+    Builder() {
+    }
+
+    /**
+     * Page size in bytes, a power of two between 512 and 65536.
+     */
+    public Builder pageSize(int pageSize) {
+      checkArgument(pageSize >= 512 && pageSize <= 65536 && Integer.bitCount(pageSize) == 1,
+          "Page size must be a power of two between 512 and 65536, got %s", pageSize);
+      mPageSize = pageSize;
+      return this;
+    }
+
+    public Builder autoVacuum(AutoVacuum autoVacuum) {
+      mAutoVacuum = autoVacuum;
+      return this;
+    }
+
+    /**
+     * Journal mode of the database. Note that on Android the framework sets
+     * the journal mode every time the database is opened, so prefer
+     * {@link SQLiteDatabase#enableWriteAheadLogging()} for the WAL mode.
+     */
+    public Builder journalMode(JournalMode journalMode) {
+      mJournalMode = journalMode;
+      return this;
+    }
+
+    public DatabaseSettings build() {
+      return new DatabaseSettings(mPageSize, mAutoVacuum, mJournalMode);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.getbase.android.schema.driver.Database;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import android.database.Cursor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Suspends the foreign key enforcement for the duration of the migration.
+ * <p>
+ * Outside of the transaction the foreign keys are simply disabled. Inside of
+ * the transaction, which is the case for {@code onUpgrade}, the foreign_keys
+ * pragma is a no-op, so the checks are deferred until the commit instead. See
+ * {@link MigrationsHelper} for how the referenced tables are rebuilt in this
+ * case. The defer_foreign_keys pragma is ignored by SQLite older than 3.8.0,
+ * so on these versions the referenced tables cannot be rebuilt inside of the
+ * transaction with the foreign keys enabled.
+ */
+final class ForeignKeySuspension {
+  private static final ForeignKeySuspension NONE = new ForeignKeySuspension(null, false);
+
+  private final Database mDatabase;
+  private final boolean mInTransaction;
+
+  private ForeignKeySuspension(Database database, boolean inTransaction) {
+    mDatabase = database;
+    mInTransaction = inTransaction;
+  }
+
+  static ForeignKeySuspension begin(Database db) {
+    if (!isEnabled(db)) {
+      return NONE;
+    }
+
+    if (db.inTransaction()) {
+      db.execSQL("PRAGMA defer_foreign_keys=ON");
+      return new ForeignKeySuspension(db, true);
+    }
+
+    db.execSQL("PRAGMA foreign_keys=OFF");
+    return new ForeignKeySuspension(db, false);
+  }
+
+  /**
+   * Restores the foreign key enforcement. The deferred checks are reset by
+   * SQLite at the end of the transaction.
+   */
+  void end() {
+    if (mDatabase != null && !mInTransaction) {
+      mDatabase.execSQL("PRAGMA foreign_keys=ON");
+    }
+  }
+
+  /**
+   * Runs PRAGMA foreign_key_check for the given tables if the foreign keys
+   * are enforced on this database. SQLite older than 3.7.16 doesn't have this
+   * pragma, so the referenced rows are looked up with the queries built from
+   * PRAGMA foreign_key_list instead.
+   *
+   * @throws IllegalStateException if any row violates the foreign key constraint
+   */
+  void check(ImmutableSet<String> tables) {
+    if (mDatabase == null) {
+      return;
+    }
+
+    boolean foreignKeyCheckSupported = SQLiteVersion.isAtLeast(mDatabase, SQLiteVersion.FOREIGN_KEY_CHECK);
+    for (String table : tables) {
+      if (foreignKeyCheckSupported) {
+        checkWithPragma(mDatabase, table);
+      } else {
+        checkWithQueries(mDatabase, table);
+      }
+    }
+  }
+
+  private static void checkWithPragma(Database db, String table) {
+    Cursor cursor = db.rawQuery("PRAGMA foreign_key_check(" + table + ")", null);
+    try {
+      if (cursor.moveToFirst()) {
+        throw violation(cursor.getString(0), cursor.getString(1), cursor.getString(2));
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private static void checkWithQueries(Database db, String table) {
+    for (ForeignKey foreignKey : getForeignKeys(db, table)) {
+      List<String> conditions = Lists.newArrayList();
+      for (String column : foreignKey.mFrom) {
+        conditions.add("c." + column + " IS NOT NULL");
+      }
+
+      String sql;
+      if (!tableExists(db, foreignKey.mParent)) {
+        sql = "SELECT c._rowid_ FROM " + table + " c WHERE " + Joiner.on(" AND ").join(conditions);
+      } else {
+        // the REFERENCES clause without the column list refers to the primary key
+        List<String> referencedColumns = foreignKey.mTo.contains(null)
+            ? getPrimaryKey(db, foreignKey.mParent)
+            : foreignKey.mTo;
+        if (referencedColumns.size() != foreignKey.mFrom.size()) {
+          continue;
+        }
+
+        List<String> joinConditions = Lists.newArrayList();
+        for (int i = 0; i < foreignKey.mFrom.size(); i++) {
+          joinConditions.add("c." + foreignKey.mFrom.get(i) + "=p." + referencedColumns.get(i));
+        }
+        conditions.add("p." + referencedColumns.get(0) + " IS NULL");
+        sql = "SELECT c._rowid_ FROM " + table + " c LEFT JOIN " + foreignKey.mParent + " p ON " + Joiner.on(" AND ").join(joinConditions) +
+            " WHERE " + Joiner.on(" AND ").join(conditions);
+      }
+
+      Cursor cursor = db.rawQuery(sql + " LIMIT 1", null);
+      try {
+        if (cursor.moveToFirst()) {
+          throw violation(table, cursor.getString(0), foreignKey.mParent);
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+  }
+
+  private static IllegalStateException violation(String table, String row, String parent) {
+    return new IllegalStateException("Foreign key violation in table " + table + ", row " + row + " references missing row in " + parent);
+  }
+
+  private static List<ForeignKey> getForeignKeys(Database db, String table) {
+    Map<Integer, ForeignKey> foreignKeys = Maps.newLinkedHashMap();
+    Cursor cursor = db.rawQuery("PRAGMA foreign_key_list(" + table + ")", null);
+    try {
+      while (cursor.moveToNext()) {
+        int id = cursor.getInt(cursor.getColumnIndexOrThrow("id"));
+        ForeignKey foreignKey = foreignKeys.get(id);
+        if (foreignKey == null) {
+          foreignKey = new ForeignKey(cursor.getString(cursor.getColumnIndexOrThrow("table")));
+          foreignKeys.put(id, foreignKey);
+        }
+        foreignKey.mFrom.add(cursor.getString(cursor.getColumnIndexOrThrow("from")));
+        foreignKey.mTo.add(cursor.getString(cursor.getColumnIndexOrThrow("to")));
+      }
+    } finally {
+      cursor.close();
+    }
+    return Lists.newArrayList(foreignKeys.values());
+  }
+
+  private static List<String> getPrimaryKey(Database db, String table) {
+    List<String> columns = Lists.newArrayList();
+    Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+    try {
+      while (cursor.moveToNext()) {
+        if (cursor.getInt(cursor.getColumnIndexOrThrow("pk")) > 0) {
+          columns.add(cursor.getString(cursor.getColumnIndexOrThrow("name")));
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    return columns;
+  }
+
+  private static boolean tableExists(Database db, String table) {
+    Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type='table' AND name=?", new String[] { table });
+    try {
+      return cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Single, possibly compound, foreign key constraint of the child table.
+   */
+  private static class ForeignKey {
+    final String mParent;
+    final List<String> mFrom = Lists.newArrayList();
+    final List<String> mTo = Lists.newArrayList();
+
+    ForeignKey(String parent) {
+      mParent = parent;
+    }
+  }
+
+  static boolean isEnabled(Database db) {
+    Cursor cursor = db.rawQuery("PRAGMA foreign_keys", null);
+    try {
+      return cursor.moveToFirst() && cursor.getInt(0) != 0;
+    } finally {
+      cursor.close();
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Change of the table definition which doesn't affect the on-disk format of
+ * the table and its indexes: added or removed NOT NULL and CHECK constraints
+ * and changed declared types with the same type affinity. Such change can be
+ * applied by rewriting the CREATE TABLE statement stored in sqlite_master, as
+ * described in the "Making Other Kinds Of Table Schema Changes" section of
+ * https://www.sqlite.org/lang_altertable.html, provided that the existing rows
+ * satisfy the added constraints.
+ * <p>
+ * Changing the declared type affinity is not treated as compatible, because
+ * rebuilding the table would convert the copied values to the new affinity.
+ * Changing the DEFAULT clause is not treated as compatible either: the rows
+ * inserted before the column was added with ALTER TABLE ADD COLUMN don't
+ * store the column at all, and SQLite reads the DEFAULT from the schema for
+ * them, so rewriting the schema would change their values.
+ */
+final class FormatCompatibleChange {
+  private static final ImmutableSet<String> COLUMN_CONSTRAINT_KEYWORDS = ImmutableSet.of(
+      "CONSTRAINT", "PRIMARY", "NOT", "NULL", "UNIQUE", "CHECK", "DEFAULT", "COLLATE", "REFERENCES", "GENERATED", "AS"
+  );
+
+  private final ImmutableList<String> mViolationConditions;
+
+  private FormatCompatibleChange(ImmutableList<String> violationConditions) {
+    mViolationConditions = violationConditions;
+  }
+
+  /**
+   * Returns the query which returns 1 if any row of the table violates the
+   * added constraints, or null if no constraints were added.
+   */
+  String getViolationsQuery(String table) {
+    if (mViolationConditions.isEmpty()) {
+      return null;
+    }
+    return "SELECT EXISTS(SELECT 1 FROM " + table + " WHERE " + Joiner.on(" OR ").join(mViolationConditions) + ")";
+  }
+
+  /**
+   * Returns the change between the normalized CREATE TABLE statements, or
+   * null if the change affects the on-disk format.
+   */
+  static FormatCompatibleChange of(String currentStatement, String requestedStatement) {
+    ParsedTable current = ParsedTable.parse(currentStatement);
+    ParsedTable requested = ParsedTable.parse(requestedStatement);
+    if (current == null || requested == null) {
+      return null;
+    }
+
+    if (!current.mHead.equalsIgnoreCase(requested.mHead) ||
+        !current.mTail.equalsIgnoreCase(requested.mTail) ||
+        !equalsIgnoreCase(current.mOtherConstraints, requested.mOtherConstraints) ||
+        current.mColumns.size() != requested.mColumns.size()) {
+      return null;
+    }
+
+    ImmutableList.Builder<String> violationConditions = ImmutableList.builder();
+    for (int i = 0; i < current.mColumns.size(); i++) {
+      ParsedColumn currentColumn = current.mColumns.get(i);
+      ParsedColumn requestedColumn = requested.mColumns.get(i);
+
+      if (!currentColumn.mName.equalsIgnoreCase(requestedColumn.mName) ||
+          !equalsIgnoreCase(currentColumn.mStructure, requestedColumn.mStructure) ||
+          !Objects.equal(currentColumn.mDefault, requestedColumn.mDefault)) {
+        return null;
+      }
+
+      if (!currentColumn.mType.equalsIgnoreCase(requestedColumn.mType)) {
+        boolean primaryKey = false;
+        for (String token : requestedColumn.mStructure) {
+          primaryKey |= token.equalsIgnoreCase("PRIMARY");
+        }
+        if (primaryKey || !getAffinity(currentColumn.mType).equals(getAffinity(requestedColumn.mType))) {
+          return null;
+        }
+      }
+
+      if (requestedColumn.mNotNull && !currentColumn.mNotNull) {
+        violationConditions.add(requestedColumn.mName + " IS NULL");
+      }
+      for (String check : requestedColumn.mChecks) {
+        if (!currentColumn.mChecks.contains(check)) {
+          violationConditions.add("NOT (" + check + ")");
+        }
+      }
+    }
+
+    for (String check : requested.mChecks) {
+      if (!current.mChecks.contains(check)) {
+        violationConditions.add("NOT (" + check + ")");
+      }
+    }
+
+    return new FormatCompatibleChange(violationConditions.build());
+  }
+
+  /**
+   * Type affinity of the declared type, see https://www.sqlite.org/datatype3.html.
+   */
+  static String getAffinity(String declaredType) {
+    String type = declaredType.toUpperCase(Locale.US);
+    if (type.contains("INT")) {
+      return "INTEGER";
+    } else if (type.contains("CHAR") || type.contains("CLOB") || type.contains("TEXT")) {
+      return "TEXT";
+    } else if (type.contains("BLOB") || type.isEmpty()) {
+      return "BLOB";
+    } else if (type.contains("REAL") || type.contains("FLOA") || type.contains("DOUB")) {
+      return "REAL";
+    }
+    return "NUMERIC";
+  }
+
+  private static boolean equalsIgnoreCase(List<String> a, List<String> b) {
+    if (a.size() != b.size()) {
+      return false;
+    }
+    for (int i = 0; i < a.size(); i++) {
+      if (!a.get(i).equalsIgnoreCase(b.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String getKeyword(String token) {
+    int parenthesis = token.indexOf('(');
+    return (parenthesis >= 0 ? token.substring(0, parenthesis) : token).toUpperCase(Locale.US);
+  }
+
+  private static String getParenthesizedContent(String token) {
+    return token.substring(token.indexOf('(') + 1, token.lastIndexOf(')'));
+  }
+
+  private static class ParsedTable {
+    String mHead;
+    String mTail;
+    final List<ParsedColumn> mColumns = Lists.newArrayList();
+    final List<String> mChecks = Lists.newArrayList();
+    final List<String> mOtherConstraints = Lists.newArrayList();
+
+    static ParsedTable parse(String statement) {
+      int open = -1;
+      int close = -1;
+      int depth = 0;
+      char quote = 0;
+      for (int i = 0; i < statement.length() && close < 0; i++) {
+        char c = statement.charAt(i);
+        if (quote != 0) {
+          if (c == quote) {
+            quote = 0;
+          }
+        } else if (c == '\'' || c == '"' || c == '`') {
+          quote = c;
+        } else if (c == '[') {
+          quote = ']';
+        } else if (c == '(') {
+          if (depth++ == 0) {
+            open = i;
+          }
+        } else if (c == ')') {
+          if (--depth == 0) {
+            close = i;
+          }
+        }
+      }
+      if (open < 0 || close < 0) {
+        return null;
+      }
+
+      ParsedTable table = new ParsedTable();
+      table.mHead = statement.substring(0, open);
+      table.mTail = statement.substring(close + 1);
+      for (String definition : MigrationsHelper.splitTopLevel(statement.substring(open + 1, close), ',')) {
+        List<String> tokens = MigrationsHelper.splitTopLevel(definition, ' ');
+        if (MigrationsHelper.TABLE_CONSTRAINT_KEYWORDS.contains(getKeyword(tokens.get(0)))) {
+          if (getKeyword(tokens.get(0)).equals("CONSTRAINT") && tokens.size() > 2) {
+            tokens = tokens.subList(2, tokens.size());
+          }
+          if (getKeyword(tokens.get(0)).equals("CHECK")) {
+            table.mChecks.add(getParenthesizedContent(Joiner.on(' ').join(tokens)));
+          } else {
+            table.mOtherConstraints.add(definition);
+          }
+        } else {
+          table.mColumns.add(ParsedColumn.parse(tokens));
+        }
+      }
+      return table;
+    }
+  }
+
+  private static class ParsedColumn {
+    String mName;
+    String mType;
+    boolean mNotNull;
+    String mDefault;
+    final List<String> mChecks = Lists.newArrayList();
+    final List<String> mStructure = Lists.newArrayList();
+
+    static ParsedColumn parse(List<String> tokens) {
+      ParsedColumn column = new ParsedColumn();
+      column.mName = tokens.get(0);
+
+      int i = 1;
+      List<String> typeTokens = Lists.newArrayList();
+      while (i < tokens.size() && !COLUMN_CONSTRAINT_KEYWORDS.contains(getKeyword(tokens.get(i)))) {
+        typeTokens.add(tokens.get(i++));
+      }
+      column.mType = Joiner.on(' ').join(typeTokens);
+
+      while (i < tokens.size()) {
+        String token = tokens.get(i);
+        String keyword = getKeyword(token);
+        if (keyword.equals("CONSTRAINT")) {
+          i += 2;
+        } else if (keyword.equals("NOT") && i + 1 < tokens.size() && getKeyword(tokens.get(i + 1)).equals("NULL")) {
+          column.mNotNull = true;
+          i = skipConflictClause(tokens, i + 2);
+        } else if (keyword.equals("NULL")) {
+          i = skipConflictClause(tokens, i + 1);
+        } else if (keyword.equals("DEFAULT")) {
+          if (token.equalsIgnoreCase("DEFAULT")) {
+            column.mDefault = i + 1 < tokens.size() ? tokens.get(i + 1) : "";
+            i += 2;
+          } else {
+            column.mDefault = token.substring("DEFAULT".length());
+            i++;
+          }
+        } else if (keyword.equals("CHECK")) {
+          column.mChecks.add(getParenthesizedContent(token));
+          i++;
+        } else {
+          column.mStructure.add(token);
+          i++;
+        }
+      }
+      return column;
+    }
+
+    private static int skipConflictClause(List<String> tokens, int i) {
+      if (i + 2 < tokens.size() && tokens.get(i).equalsIgnoreCase("ON") && tokens.get(i + 1).equalsIgnoreCase("CONFLICT")) {
+        return i + 3;
+      }
+      return i;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+/**
+ * Receives the timing and volume metrics of the upgrade registered with
+ * {@link UpgradeOptions.Builder#migrationListener(MigrationListener)} or of
+ * the {@link MigrationsHelper} created with
+ * {@link MigrationsHelper.Builder#listener(MigrationListener)}. The
+ * statement counts include only the statements executed through the
+ * {@link com.getbase.android.schema.driver.Database}, i.e. the statements of
+ * the plain {@link Migration}s executed directly on the SQLiteDatabase are
+ * not counted. The statement count of such migration, and of the revision it
+ * belongs to, is reported as {@link #UNKNOWN_STATEMENT_COUNT}. The finished
+ * callbacks are not invoked if the migration fails.
+ *
+ * @see MigrationReport
+ */
+public interface MigrationListener {
+  long UNKNOWN_STATEMENT_COUNT = -1;
+
+  void onRevisionStarted(int revision);
+
+  void onRevisionFinished(int revision, long durationNanos, long statementCount);
+
+  void onMigrationStarted(int revision, Migration migration);
+
+  void onMigrationFinished(int revision, Migration migration, long durationNanos, long statementCount);
+
+  void onTableMigrationStarted(String table);
+
+  /**
+   * @param rowCount number of rows copied to the new table; 0 unless the table
+   * was rebuilt.
+   */
+  void onTableMigrationFinished(String table, TableMigrationStrategy strategy, long durationNanos, long rowCount, long statementCount);
+}
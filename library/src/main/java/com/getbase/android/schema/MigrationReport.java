@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link MigrationListener} which aggregates the metrics of a single upgrade
+ * into the JSON report: the timings of every revision, migration and table
+ * migration, and the totals per table.
+ */
+public class MigrationReport implements MigrationListener {
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private final List<JSONObject> mRevisions = Lists.newArrayList();
+  private final List<JSONObject> mStandaloneTableMigrations = Lists.newArrayList();
+  private final Map<String, TableTotals> mTableTotals = Maps.newTreeMap();
+  private long mTotalNanos;
+
+  private JSONArray mCurrentMigrations;
+  private JSONArray mCurrentTableMigrations;
+
+  @Override
+  public synchronized void onRevisionStarted(int revision) {
+    mCurrentMigrations = new JSONArray();
+    mCurrentTableMigrations = new JSONArray();
+  }
+
+  @Override
+  public synchronized void onRevisionFinished(int revision, long durationNanos, long statementCount) {
+    mTotalNanos += durationNanos;
+    mRevisions.add(newObject()
+        .put("revision", revision)
+        .put("durationMs", durationNanos / NANOS_PER_MILLI)
+        .put("statements", statementCount)
+        .put("migrations", mCurrentMigrations != null ? mCurrentMigrations : new JSONArray())
+        .put("tables", mCurrentTableMigrations != null ? mCurrentTableMigrations : new JSONArray())
+        .build());
+    mCurrentMigrations = null;
+    mCurrentTableMigrations = null;
+  }
+
+  @Override
+  public synchronized void onMigrationStarted(int revision, Migration migration) {
+  }
+
+  @Override
+  public synchronized void onMigrationFinished(int revision, Migration migration, long durationNanos, long statementCount) {
+    if (mCurrentMigrations != null) {
+      mCurrentMigrations.put(newObject()
+          .put("migration", String.valueOf(migration))
+          .put("durationMs", durationNanos / NANOS_PER_MILLI)
+          .put("statements", statementCount)
+          .build());
+    }
+  }
+
+  @Override
+  public synchronized void onTableMigrationStarted(String table) {
+  }
+
+  @Override
+  public synchronized void onTableMigrationFinished(String table, TableMigrationStrategy strategy, long durationNanos, long rowCount, long statementCount) {
+    JSONObject tableMigration = newObject()
+        .put("table", table)
+        .put("strategy", strategy.name())
+        .put("durationMs", durationNanos / NANOS_PER_MILLI)
+        .put("rows", rowCount)
+        .put("statements", statementCount)
+        .build();
+    if (mCurrentTableMigrations != null) {
+      mCurrentTableMigrations.put(tableMigration);
+    } else {
+      mStandaloneTableMigrations.add(tableMigration);
+    }
+
+    TableTotals totals = mTableTotals.get(table);
+    if (totals == null) {
+      totals = new TableTotals();
+      mTableTotals.put(table, totals);
+    }
+    totals.mMigrations++;
+    totals.mNanos += durationNanos;
+    totals.mRows += rowCount;
+    totals.mStatements += statementCount;
+  }
+
+  public synchronized JSONObject toJson() {
+    JsonBuilder tables = newObject();
+    for (Map.Entry<String, TableTotals> entry : mTableTotals.entrySet()) {
+      TableTotals totals = entry.getValue();
+      tables.put(entry.getKey(), newObject()
+          .put("migrations", totals.mMigrations)
+          .put("durationMs", totals.mNanos / NANOS_PER_MILLI)
+          .put("rows", totals.mRows)
+          .put("statements", totals.mStatements)
+          .build());
+    }
+
+    return newObject()
+        .put("durationMs", mTotalNanos / NANOS_PER_MILLI)
+        .put("revisions", new JSONArray(mRevisions))
+        .put("tableMigrations", new JSONArray(mStandaloneTableMigrations))
+        .put("tables", tables.build())
+        .build();
+  }
+
+  public void writeTo(File file) throws IOException {
+    try {
+      Files.write(toJson().toString(2), file, Charsets.UTF_8);
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return toJson().toString();
+  }
+
+  private static JsonBuilder newObject() {
+    return new JsonBuilder();
+  }
+
+  private static class TableTotals {
+    int mMigrations;
+    long mNanos;
+    long mRows;
+    long mStatements;
+  }
+
+  /**
+   * JSONObject with the checked exceptions turned into the unchecked ones; the
+   * keys are never null and the values are always valid, so they are never
+   * thrown.
+   */
+  private static class JsonBuilder {
+    private final JSONObject mObject = new JSONObject();
+
+    JsonBuilder put(String key, Object value) {
+      try {
+        mObject.put(key, value);
+      } catch (JSONException e) {
+        throw new IllegalStateException(e);
+      }
+      return this;
+    }
+
+    JSONObject build() {
+      return mObject;
+    }
+  }
+}
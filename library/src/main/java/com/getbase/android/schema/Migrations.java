@@ -18,8 +18,9 @@ package com.getbase.android.schema;
 
 import com.getbase.android.schema.Schemas.Schema;
 
+import com.getbase.android.schema.driver.Database;
+
 import android.content.Context;
-import android.database.sqlite.SQLiteDatabase;
 
 import java.util.Arrays;
 
@@ -32,29 +33,61 @@ public final class Migrations {
   }
 
   public static Migration drop(final String... tables) {
-    return drop(Arrays.asList(tables));
+    return dropTables(tables);
   }
 
   public static Migration drop(final Iterable<String> tables) {
-    return new SimpleMigration() {
+    return dropTables(tables);
+  }
+
+  private static Migration create(final String... tables) {
+    return createTables(tables);
+  }
+
+  public static Migration create(final Iterable<String> tables) {
+    return createTables(tables);
+  }
+
+  public static Migration recreate(final String... tables) {
+    return recreateTables(tables);
+  }
+
+  /**
+   * Same as {@link #drop(String...)}, but can be applied to any {@link Database}.
+   */
+  public static DatabaseMigration dropTables(final String... tables) {
+    return dropTables(Arrays.asList(tables));
+  }
+
+  /**
+   * Same as {@link #drop(Iterable)}, but can be applied to any {@link Database}.
+   */
+  public static DatabaseMigration dropTables(final Iterable<String> tables) {
+    return new AbstractDatabaseMigration() {
       @Override
-      public void apply(SQLiteDatabase db, Schema schema) {
+      public void apply(int version, Database database, Schemas schemas, Context context) {
         for (String table : tables) {
-          db.execSQL("DROP TABLE IF EXISTS " + table);
+          database.execSQL("DROP TABLE IF EXISTS " + table);
         }
       }
     };
   }
 
-  private static Migration create(final String... tables) {
-    return create(Arrays.asList(tables));
+  /**
+   * Same as {@link #create(Iterable)}, but can be applied to any {@link Database}.
+   */
+  public static DatabaseMigration createTables(final String... tables) {
+    return createTables(Arrays.asList(tables));
   }
 
-  public static Migration create(final Iterable<String> tables) {
-    return new Migration() {
+  /**
+   * Same as {@link #create(Iterable)}, but can be applied to any {@link Database}.
+   */
+  public static DatabaseMigration createTables(final Iterable<String> tables) {
+    return new AbstractDatabaseMigration() {
 
       @Override
-      public void apply(int version, SQLiteDatabase database, Schemas schemas, Context context) {
+      public void apply(int version, Database database, Schemas schemas, Context context) {
         Schema schema = schemas.getSchema(version);
 
         for (String table : tables) {
@@ -64,12 +97,15 @@ public final class Migrations {
     };
   }
 
-  public static Migration recreate(final String... tables) {
-    return new Migration() {
+  /**
+   * Same as {@link #recreate(String...)}, but can be applied to any {@link Database}.
+   */
+  public static DatabaseMigration recreateTables(final String... tables) {
+    return new AbstractDatabaseMigration() {
 
       @Override
-      public void apply(int version, SQLiteDatabase database, Schemas schemas, Context context) {
-        for (Migration migration : new Migration[] { drop(tables), create(tables) }) {
+      public void apply(int version, Database database, Schemas schemas, Context context) {
+        for (DatabaseMigration migration : new DatabaseMigration[] { dropTables(tables), createTables(tables) }) {
           migration.apply(version, database, schemas, context);
         }
       }
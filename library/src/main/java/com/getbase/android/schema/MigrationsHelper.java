@@ -16,71 +16,720 @@
 
 package com.getbase.android.schema;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.getbase.android.schema.driver.Database;
+import com.getbase.android.schema.driver.DatabaseException;
+import com.getbase.android.schema.driver.Statement;
+import com.getbase.android.sqlitemaster.SQLiteMaster;
+import com.getbase.android.sqlitemaster.SQLiteSchemaPart;
+import com.getbase.android.sqlitemaster.SQLiteSchemaPartType;
 import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.util.Log;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class MigrationsHelper {
   private static final String TAG = MigrationsHelper.class.getSimpleName();
 
-  private static int tempTableIndex = 0;
+  private static final String OLD_TABLE_PREFIX = "_migration_old_";
+  private static final String NEW_TABLE_PREFIX = "_migration_new_";
+  private static final String ROW_ID_COLUMN = "_migration_rowid";
+  private static final String ROW_ID = "_rowid_";
+  private static final ImmutableSet<String> ROW_ID_ALIASES = ImmutableSet.of("ROWID", "_ROWID_", "OID");
+  private static final Pattern WITHOUT_ROWID = Pattern.compile("\\bWITHOUT\\s+ROWID\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern STORED_GENERATED_COLUMN = Pattern.compile("\\)\\s*STORED\\b", Pattern.CASE_INSENSITIVE);
+  // values of the hidden column of PRAGMA table_xinfo
+  private static final int GENERATED_VIRTUAL = 2;
+  private static final int GENERATED_STORED = 3;
+  static final int DEFAULT_BATCH_SIZE = 500;
+
+  private static final String PROBE_TABLE_PREFIX = "_migration_probe_";
+  private static final String RELOAD_TABLE_PREFIX = "_migration_reload_";
+  static final ImmutableSet<String> TABLE_CONSTRAINT_KEYWORDS = ImmutableSet.of("CONSTRAINT", "PRIMARY", "UNIQUE", "CHECK", "FOREIGN");
+
+  private final MigrationListener mListener;
+  private final boolean mInPlaceMigrations;
+
+  public MigrationsHelper() {
+    this(null, false);
+  }
+
+  private MigrationsHelper(MigrationListener listener, boolean inPlaceMigrations) {
+    mListener = listener;
+    mInPlaceMigrations = inPlaceMigrations;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
 
   public void performMigrations(SQLiteDatabase db, TableMigration... migrations) {
+    performMigrations(AndroidDatabase.wrap(db), migrations);
+  }
+
+  public void performMigrations(Database db, TableMigration... migrations) {
+    UpgradeTracker tracker = UpgradeTracker.current();
+    boolean inPlaceMigrations = mInPlaceMigrations || tracker.isInPlaceMigrations();
+
     for (TableMigration migration : migrations) {
-      final String tempTable = "tmp_" + tempTableIndex++;
-      db.execSQL("ALTER TABLE " + migration.tableName + " RENAME TO " + tempTable);
-      ImmutableSet<String> oldColumns = getColumns(db, tempTable);
+      tracker.onTableMigrationStarted(migration.tableName);
+      if (mListener != null) {
+        mListener.onTableMigrationStarted(migration.tableName);
+      }
 
-      db.execSQL(migration.createTableStatement);
-      final String tempNewTable = "tmp_" + tempTableIndex++;
-      db.execSQL("ALTER TABLE " + migration.tableName + " RENAME TO " + tempNewTable);
-      ImmutableSet<String> newColumns = getColumns(db, tempNewTable);
+      long start = System.nanoTime();
+      CountingDatabase countingDb = new CountingDatabase(db);
+      long rowCount = 0;
+      TableMigrationStrategy strategy = inPlaceMigrations
+          ? migrateInPlace(countingDb, migration)
+          : null;
+      if (strategy == null) {
+        rowCount = rebuild(countingDb, migration, tracker.getVerifier());
+        strategy = TableMigrationStrategy.REBUILD;
+      } else if (strategy == TableMigrationStrategy.SCHEMA_REWRITE && tracker.getVerifier() != null) {
+        tracker.getVerifier().onTableModified(migration.tableName);
+      }
+      long duration = System.nanoTime() - start;
+
+      tracker.onTableMigrationFinished(migration.tableName, strategy, duration, rowCount, countingDb.getStatementCount());
+      if (mListener != null) {
+        mListener.onTableMigrationFinished(migration.tableName, strategy, duration, rowCount, countingDb.getStatementCount());
+      }
+    }
+  }
 
-      db.execSQL("ALTER TABLE " + tempNewTable + " RENAME TO " + migration.tableName);
+  private static long rebuild(CountingDatabase db, TableMigration migration, UpgradeVerifier verifier) {
+    if (migration.transformer != null || migration.filter != null) {
+      // the rows are copied in windows ordered by the rowid of the old table
+      String currentStatement = getCreateTableStatement(db, migration.tableName);
+      checkState(currentStatement == null || !isWithoutRowId(currentStatement),
+          "Cannot transform or filter the rows of the %s table, it's a WITHOUT ROWID table", migration.tableName);
+    }
 
-      Set<String> commonColumns = Sets.intersection(oldColumns, newColumns);
-      Set<String> droppedColumns = Sets.difference(oldColumns, newColumns);
-      if (!droppedColumns.isEmpty()) {
-        Log.w(TAG, "Dropping columns " + Joiner.on(",").join(droppedColumns) + " during migration of " + migration.tableName);
+    final String tempTable = OLD_TABLE_PREFIX + migration.tableName;
+    ImmutableSet<String> newColumns;
+    if (isReferencedWithForeignKeysDeferred(db, migration.tableName)) {
+      // With the foreign keys enabled, renaming the table would redirect
+      // the REFERENCES clauses of other tables to the renamed table, and
+      // the rows dropped with the old table would count as deferred
+      // violations unless the new table is populated after the drop.
+      checkNoDeleteActions(db, migration.tableName);
+      checkState(SQLiteVersion.isAtLeast(db, SQLiteVersion.DEFER_FOREIGN_KEYS),
+          "Cannot rebuild the %s table referenced by other tables while the foreign keys are enabled within the transaction, SQLite %s cannot defer them; disable the foreign keys before beginning the transaction",
+          migration.tableName, SQLiteVersion.get(db));
+      db.execSQL("CREATE TABLE " + tempTable + " AS SELECT * FROM " + migration.tableName + " WHERE 0");
+      if (hasRowId(db, migration.tableName)) {
+        String columns = Joiner.on(",").join(getDeclaredColumns(db, migration.tableName));
+        db.execSQL("INSERT INTO " + tempTable + "(" + ROW_ID + "," + columns + ") SELECT " + ROW_ID + "," + columns + " FROM " + migration.tableName + " ORDER BY " + ROW_ID);
+      } else {
+        db.execSQL("INSERT INTO " + tempTable + " SELECT * FROM " + migration.tableName);
       }
+      db.execSQL("DROP TABLE " + migration.tableName);
+      db.execSQL(migration.createTableStatement);
+      newColumns = getDeclaredColumns(db, migration.tableName);
+    } else {
+      // SQLite 3.26+ would redirect the REFERENCES clauses of other tables
+      // to the renamed table, leaving them dangling once it's dropped.
+      db.execSQL("PRAGMA legacy_alter_table=ON");
+      try {
+        db.execSQL("ALTER TABLE " + migration.tableName + " RENAME TO " + tempTable);
 
-      Set<String> addedColumns = Sets.difference(Sets.difference(newColumns, oldColumns), migration.mappings.keySet());
-      if (!addedColumns.isEmpty()) {
-        Log.w(TAG, "Will try to add new columns " + Joiner.on(",").join(addedColumns) + " during migration of " + migration.tableName);
+        db.execSQL(migration.createTableStatement);
+        final String tempNewTable = NEW_TABLE_PREFIX + migration.tableName;
+        db.execSQL("ALTER TABLE " + migration.tableName + " RENAME TO " + tempNewTable);
+        newColumns = getInsertableColumns(db, tempNewTable);
+
+        db.execSQL("ALTER TABLE " + tempNewTable + " RENAME TO " + migration.tableName);
+      } finally {
+        db.execSQL("PRAGMA legacy_alter_table=OFF");
       }
+    }
+    ImmutableSet<String> oldColumns = getDeclaredColumns(db, tempTable);
+    long oldRowCount = verifier != null ? UpgradeVerifier.countRows(db, tempTable) : 0;
 
+    Set<String> commonColumns = Sets.intersection(oldColumns, newColumns);
+    Set<String> droppedColumns = Sets.difference(oldColumns, newColumns);
+    if (!droppedColumns.isEmpty()) {
+      Log.w(TAG, "Dropping columns " + Joiner.on(",").join(droppedColumns) + " during migration of " + migration.tableName);
+    }
+
+    Set<String> addedColumns = Sets.difference(Sets.difference(Sets.difference(newColumns, oldColumns), migration.mappings.keySet()), migration.transformedColumns);
+    if (!addedColumns.isEmpty()) {
+      Log.w(TAG, "Will try to add new columns " + Joiner.on(",").join(addedColumns) + " during migration of " + migration.tableName);
+    }
+
+    long rowCount;
+    if (migration.transformer == null && migration.filter == null) {
       SetView<String> unmappedColumns = Sets.difference(commonColumns, migration.mappings.keySet());
-      String insertColumnsString = Joiner.on(",").join(Iterables.concat(unmappedColumns, migration.mappings.keySet()));
-      String selectColumnsString = Joiner.on(",").join(Iterables.concat(unmappedColumns, migration.mappings.values()));
+      List<String> insertColumns = Lists.newArrayList(Iterables.concat(unmappedColumns, migration.mappings.keySet()));
+      List<String> selectColumns = Lists.newArrayList(Iterables.concat(unmappedColumns, migration.mappings.values()));
+
+      String orderBy;
+      if (copiesRowId(db, tempTable, migration.tableName, insertColumns)) {
+        insertColumns.add(0, ROW_ID);
+        selectColumns.add(0, ROW_ID);
+        orderBy = " ORDER BY " + ROW_ID;
+      } else {
+        orderBy = getKeyOrderBy(db, migration.tableName, insertColumns);
+      }
+
+      db.execSQL("INSERT INTO " + migration.tableName + "(" + Joiner.on(",").join(insertColumns) + ") SELECT " + Joiner.on(",").join(selectColumns) + " FROM " + tempTable + orderBy);
+      rowCount = db.changes();
+    } else {
+      checkState(newColumns.containsAll(migration.transformedColumns), "Transformed columns %s are not in the %s table", migration.transformedColumns, migration.tableName);
+      rowCount = copyRows(db, migration, tempTable, commonColumns);
+    }
+
+    if (verifier != null) {
+      Set<String> copiedColumns = Sets.difference(Sets.difference(commonColumns, migration.mappings.keySet()), migration.transformedColumns);
+      verifier.verifyRebuild(db, migration.tableName, tempTable, oldRowCount, migration.filter != null, copiedColumns);
+    }
+    db.execSQL("DROP TABLE " + tempTable);
+
+    return rowCount;
+  }
+
+  /**
+   * Returns true if the old rowids should be copied to the new table, i.e.
+   * both tables are rowid tables and none of the inserted columns is an alias
+   * of the rowid. Copying the rowids in order keeps them stable and builds
+   * the new table by appending to its B-tree.
+   */
+  private static boolean copiesRowId(Database db, String oldTable, String newTable, List<String> insertColumns) {
+    if (!hasRowId(db, oldTable) || !hasRowId(db, newTable)) {
+      return false;
+    }
+
+    List<String> keyColumns = getKeyColumns(db, newTable);
+    for (String column : insertColumns) {
+      if (ROW_ID_ALIASES.contains(column.toUpperCase(Locale.US))) {
+        return false;
+      }
+      if (keyColumns.size() == 1 && keyColumns.get(0).equalsIgnoreCase(column) && isRowIdAlias(db, newTable, column)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the ORDER BY clause which inserts the rows in the order of the
+   * primary key of the new table, or an empty string if the primary key is
+   * not fully populated by the inserted columns.
+   */
+  private static String getKeyOrderBy(Database db, String table, List<String> insertColumns) {
+    List<String> keyColumns = getKeyColumns(db, table);
+    if (keyColumns.isEmpty()) {
+      return "";
+    }
+
+    List<String> positions = Lists.newArrayList();
+    for (String keyColumn : keyColumns) {
+      int position = -1;
+      for (int i = 0; i < insertColumns.size(); i++) {
+        if (insertColumns.get(i).equalsIgnoreCase(keyColumn)) {
+          position = i + 1;
+        }
+      }
+      if (position < 0) {
+        return "";
+      }
+      positions.add(String.valueOf(position));
+    }
+    return " ORDER BY " + Joiner.on(",").join(positions);
+  }
+
+  /**
+   * Returns the primary key columns of the table, in the order of the key.
+   */
+  private static List<String> getKeyColumns(Database db, String table) {
+    Map<Integer, String> keyColumns = Maps.newTreeMap();
+    Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+    try {
+      int nameIndex = cursor.getColumnIndexOrThrow("name");
+      int pkIndex = cursor.getColumnIndexOrThrow("pk");
+      while (cursor.moveToNext()) {
+        if (cursor.getInt(pkIndex) > 0) {
+          keyColumns.put(cursor.getInt(pkIndex), cursor.getString(nameIndex));
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    return Lists.newArrayList(keyColumns.values());
+  }
+
+  /**
+   * Returns true if the column is the INTEGER PRIMARY KEY of the rowid table.
+   * The column declared as INTEGER PRIMARY KEY DESC is not treated as an
+   * alias, same as in SQLite older than 3.8.
+   */
+  private static boolean isRowIdAlias(Database db, String table, String column) {
+    Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+    try {
+      int nameIndex = cursor.getColumnIndexOrThrow("name");
+      int typeIndex = cursor.getColumnIndexOrThrow("type");
+      while (cursor.moveToNext()) {
+        if (cursor.getString(nameIndex).equalsIgnoreCase(column)) {
+          return "INTEGER".equalsIgnoreCase(cursor.getString(typeIndex));
+        }
+      }
+      return false;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  static boolean hasRowId(Database db, String table) {
+    String createTableStatement = getCreateTableStatement(db, table);
+    return createTableStatement != null && !isWithoutRowId(createTableStatement);
+  }
+
+  /**
+   * Returns true if the CREATE TABLE statement has the WITHOUT ROWID table
+   * option after the column definitions.
+   */
+  static boolean isWithoutRowId(String createTableStatement) {
+    String tableOptions = createTableStatement.substring(createTableStatement.lastIndexOf(')') + 1);
+    return WITHOUT_ROWID.matcher(tableOptions).find();
+  }
 
-      db.execSQL("INSERT INTO " + migration.tableName + "(" + insertColumnsString + ") SELECT " + selectColumnsString + " FROM " + tempTable);
-      db.execSQL("DROP TABLE " + tempTable);
+  /**
+   * Returns true if the foreign keys are enforced within the transaction,
+   * where they cannot be disabled, and other table references the given one.
+   */
+  private static boolean isReferencedWithForeignKeysDeferred(Database db, String table) {
+    return db.inTransaction() && ForeignKeySuspension.isEnabled(db) && !getReferencingTables(db, table).isEmpty();
+  }
+
+  /**
+   * Throws if any table references the given one with the ON DELETE action,
+   * which would be fired by dropping the table with the foreign keys enabled.
+   */
+  private static void checkNoDeleteActions(Database db, String table) {
+    for (String referencingTable : getReferencingTables(db, table)) {
+      Cursor cursor = db.rawQuery("PRAGMA foreign_key_list(" + referencingTable + ")", null);
+      try {
+        int tableColumn = cursor.getColumnIndexOrThrow("table");
+        int onDeleteColumn = cursor.getColumnIndexOrThrow("on_delete");
+        while (cursor.moveToNext()) {
+          String onDelete = cursor.getString(onDeleteColumn);
+          checkState(!cursor.getString(tableColumn).equalsIgnoreCase(table) || "NO ACTION".equalsIgnoreCase(onDelete),
+              "Cannot rebuild the %s table referenced by %s with ON DELETE %s while the foreign keys are enabled within the transaction; disable the foreign keys before beginning the transaction",
+              table, referencingTable, onDelete);
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the other tables which reference the given one with the foreign
+   * key constraint.
+   */
+  static ImmutableSet<String> getReferencingTables(Database db, String table) {
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type='table' AND sql IS NOT NULL", null);
+    try {
+      while (cursor.moveToNext()) {
+        if (cursor.getString(0).equalsIgnoreCase(table)) {
+          continue;
+        }
+        for (String referencedTable : TableDependencies.getReferencedTables(cursor.getString(1))) {
+          if (referencedTable.equalsIgnoreCase(table)) {
+            builder.add(cursor.getString(0));
+          }
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    return builder.build();
+  }
+
+  /**
+   * Migrates the table without copying the rows, if the migration doesn't
+   * map any columns and the table either already has the requested
+   * definition, the requested definition only appends the columns which
+   * can be added with ALTER TABLE, or the requested definition only changes
+   * the NOT NULL and CHECK clauses or the declared types without changing
+   * their affinity, and the existing rows satisfy the added constraints.
+   * Returns null if the table has to be rebuilt.
+   */
+  private static TableMigrationStrategy migrateInPlace(Database db, TableMigration migration) {
+    if (!migration.mappings.isEmpty() || migration.transformer != null || migration.filter != null) {
+      return null;
+    }
+
+    String currentStatement = getCreateTableStatement(db, migration.tableName);
+    if (currentStatement == null) {
+      return null;
+    }
+
+    String current = normalizeStatement(unquoteTableName(currentStatement));
+    String requested = normalizeStatement(unquoteTableName(migration.createTableStatement));
+    if (current.equals(requested)) {
+      return TableMigrationStrategy.SKIPPED;
+    }
+
+    List<String> addedColumns = getAppendedColumnDefinitions(current, requested);
+    if (addedColumns != null && canAddColumns(db, migration.tableName, currentStatement, addedColumns)) {
+      for (String columnDefinition : addedColumns) {
+        db.execSQL("ALTER TABLE " + migration.tableName + " ADD COLUMN " + columnDefinition);
+      }
+      return TableMigrationStrategy.ALTER;
+    }
+
+    FormatCompatibleChange change = FormatCompatibleChange.of(current, requested);
+    if (change != null && satisfiesAddedConstraints(db, migration.tableName, change) && rewriteTableDefinition(db, migration)) {
+      return TableMigrationStrategy.SCHEMA_REWRITE;
+    }
+    return null;
+  }
+
+  private static boolean satisfiesAddedConstraints(Database db, String table, FormatCompatibleChange change) {
+    String violationsQuery = change.getViolationsQuery(table);
+    if (violationsQuery == null) {
+      return true;
+    }
+
+    try {
+      Cursor cursor = db.rawQuery(violationsQuery, null);
+      try {
+        if (cursor.moveToFirst() && cursor.getLong(0) == 0) {
+          return true;
+        }
+      } finally {
+        cursor.close();
+      }
+      Log.d(TAG, "Rows of " + table + " violate the added constraints, the table will be rebuilt");
+    } catch (SQLiteException | DatabaseException e) {
+      Log.d(TAG, "Cannot validate the added constraints of " + table + ", the table will be rebuilt", e);
+    }
+    return false;
+  }
+
+  /**
+   * Replaces the table definition stored in sqlite_master and bumps the
+   * schema_version, so every connection reloads the schema. Older SQLite
+   * versions don't reload the schema of the connection which bumped the
+   * schema_version, so the table is renamed back and forth to reparse its
+   * definition. Returns false if the database doesn't allow writing to
+   * sqlite_master.
+   */
+  private static boolean rewriteTableDefinition(Database db, TableMigration migration) {
+    long schemaVersion;
+    Cursor cursor = db.rawQuery("PRAGMA schema_version", null);
+    try {
+      checkState(cursor.moveToFirst(), "Cannot read schema_version");
+      schemaVersion = cursor.getLong(0);
+    } finally {
+      cursor.close();
+    }
+
+    try {
+      db.execSQL("PRAGMA writable_schema=ON");
+      try {
+        db.execSQL("UPDATE sqlite_master SET sql=? WHERE type='table' AND name=?", new Object[] { migration.createTableStatement, migration.tableName });
+        db.execSQL("PRAGMA schema_version=" + (schemaVersion + 1));
+      } finally {
+        db.execSQL("PRAGMA writable_schema=OFF");
+      }
+
+      String reloadTable = RELOAD_TABLE_PREFIX + migration.tableName;
+      db.execSQL("ALTER TABLE " + migration.tableName + " RENAME TO " + reloadTable);
+      db.execSQL("ALTER TABLE " + reloadTable + " RENAME TO " + migration.tableName);
+    } catch (SQLiteException | DatabaseException e) {
+      Log.d(TAG, "Cannot rewrite the definition of " + migration.tableName + ", the table will be rebuilt", e);
+      return false;
+    }
+    return true;
+  }
+
+  private static String getCreateTableStatement(Database db, String table) {
+    Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type='table' AND name=?", new String[] { table });
+    try {
+      return cursor.moveToFirst() ? cursor.getString(0) : null;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Returns the definitions of the columns appended to the current table
+   * definition by the requested definition, or null if the requested
+   * definition differs in any other way, including the table options.
+   */
+  static List<String> getAppendedColumnDefinitions(String current, String requested) {
+    int currentEnd = current.lastIndexOf(')');
+    int requestedEnd = requested.lastIndexOf(')');
+    if (currentEnd < 0 || requestedEnd < 0 || !current.substring(currentEnd).equalsIgnoreCase(requested.substring(requestedEnd))) {
+      return null;
+    }
+
+    String prefix = current.substring(0, currentEnd) + ",";
+    if (!requested.startsWith(prefix) || prefix.length() > requestedEnd) {
+      return null;
+    }
+
+    List<String> columnDefinitions = splitTopLevel(requested.substring(prefix.length(), requestedEnd), ',');
+    for (String columnDefinition : columnDefinitions) {
+      String firstWord = columnDefinition.split("[^A-Za-z0-9_]", 2)[0];
+      if (columnDefinition.isEmpty() || TABLE_CONSTRAINT_KEYWORDS.contains(firstWord.toUpperCase(Locale.US))) {
+        return null;
+      }
+      // the STORED generated column can be added only to the empty table
+      if (STORED_GENERATED_COLUMN.matcher(columnDefinition).find()) {
+        return null;
+      }
+    }
+    return columnDefinitions;
+  }
+
+  /**
+   * Adds the columns to the empty copy of the table first, so the table is
+   * never left half altered when one of the columns cannot be added.
+   */
+  private static boolean canAddColumns(Database db, String table, String createTableStatement, List<String> columnDefinitions) {
+    String probeTable = PROBE_TABLE_PREFIX + table;
+    try {
+      db.execSQL("DROP TABLE IF EXISTS " + probeTable);
+      db.execSQL(OnlineTableMigrator.renameCreateTableStatement(createTableStatement, table, probeTable));
+      for (String columnDefinition : columnDefinitions) {
+        db.execSQL("ALTER TABLE " + probeTable + " ADD COLUMN " + columnDefinition);
+      }
+      return true;
+    } catch (SQLiteException | DatabaseException | IllegalArgumentException e) {
+      Log.d(TAG, "Cannot alter " + table + ", the table will be rebuilt", e);
+      return false;
+    } finally {
+      db.execSQL("DROP TABLE IF EXISTS " + probeTable);
+    }
+  }
+
+  /**
+   * Removes the quotes around the table name in the CREATE TABLE statement.
+   * SQLite before 3.25 stores the definition of the renamed table with the
+   * quoted name, e.g. CREATE TABLE "Contacts" after every rebuild.
+   */
+  static String unquoteTableName(String createTableStatement) {
+    Matcher matcher = OnlineTableMigrator.CREATE_TABLE_NAME.matcher(createTableStatement);
+    if (matcher.find()) {
+      // the last group matches the unquoted name
+      for (int group = 1; group < matcher.groupCount(); group++) {
+        if (matcher.group(group) != null) {
+          return createTableStatement.substring(0, matcher.start(group) - 1) + matcher.group(group) + createTableStatement.substring(matcher.end(group) + 1);
+        }
+      }
+    }
+    return createTableStatement;
+  }
+
+  /**
+   * Collapses the whitespaces outside of the quoted strings and identifiers
+   * and removes them around the parentheses and commas.
+   */
+  static String normalizeStatement(String sql) {
+    StringBuilder builder = new StringBuilder(sql.length());
+    char quote = 0;
+    boolean pendingSpace = false;
+    for (char c : sql.trim().toCharArray()) {
+      if (quote != 0) {
+        builder.append(c);
+        if (c == quote) {
+          quote = 0;
+        }
+        continue;
+      }
+
+      if (Character.isWhitespace(c)) {
+        pendingSpace = true;
+        continue;
+      }
+
+      if (pendingSpace && builder.length() > 0 && !isSeparator(c) && !isSeparator(builder.charAt(builder.length() - 1))) {
+        builder.append(' ');
+      }
+      pendingSpace = false;
+      builder.append(c);
+
+      if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '[') {
+        quote = ']';
+      }
+    }
+    return builder.toString();
+  }
+
+  private static boolean isSeparator(char c) {
+    return c == '(' || c == ')' || c == ',';
+  }
+
+  /**
+   * Splits the normalized SQL fragment on the separators outside of the
+   * parentheses and the quoted strings and identifiers.
+   */
+  static List<String> splitTopLevel(String definitions, char separator) {
+    List<String> parts = Lists.newArrayList();
+    int depth = 0;
+    char quote = 0;
+    int start = 0;
+    for (int i = 0; i < definitions.length(); i++) {
+      char c = definitions.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '[') {
+        quote = ']';
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == separator && depth == 0) {
+        parts.add(definitions.substring(start, i));
+        start = i + 1;
+      }
+    }
+    parts.add(definitions.substring(start));
+    return parts;
+  }
+
+  /**
+   * Streams the old table in windows ordered by rowid. For every row which
+   * passes the filter, the compiled INSERT ... SELECT statement copies the
+   * common and mapped columns of this row directly in SQLite, and the
+   * transformed columns are bound from the {@link TransformedRow}.
+   */
+  private static long copyRows(Database db, TableMigration migration, String tempTable, Set<String> commonColumns) {
+    Set<String> mappedColumns = Sets.difference(migration.mappings.keySet(), migration.transformedColumns);
+    Set<String> unmappedColumns = Sets.difference(Sets.difference(commonColumns, mappedColumns), migration.transformedColumns);
+
+    List<String> selectColumns = Lists.newArrayList(unmappedColumns);
+    for (String mappedColumn : mappedColumns) {
+      selectColumns.add(migration.mappings.get(mappedColumn));
+    }
+    ImmutableMap.Builder<String, Integer> bindIndexes = ImmutableMap.builder();
+    int bindIndex = 1;
+    for (String transformedColumn : migration.transformedColumns) {
+      selectColumns.add("?");
+      bindIndexes.put(transformedColumn, bindIndex++);
+    }
+    int rowIdBindIndex = bindIndex;
+
+    List<String> insertColumns = Lists.newArrayList(Iterables.concat(unmappedColumns, mappedColumns, migration.transformedColumns));
+    if (copiesRowId(db, tempTable, migration.tableName, insertColumns)) {
+      insertColumns.add(ROW_ID);
+      selectColumns.add(ROW_ID);
+    }
+    Statement insert = db.compileStatement("INSERT INTO " + migration.tableName + "(" + Joiner.on(",").join(insertColumns) + ") SELECT " + Joiner.on(",").join(selectColumns) + " FROM " + tempTable + " WHERE _rowid_=?");
+    try {
+      TransformedRow transformedRow = new TransformedRow(insert, bindIndexes.build());
+      String windowQuery = "SELECT _rowid_ AS " + ROW_ID_COLUMN + ", * FROM " + tempTable + " WHERE _rowid_>? ORDER BY _rowid_ LIMIT " + migration.batchSize;
+      String[] windowArgs = new String[1];
+
+      long lastRowId = Long.MIN_VALUE;
+      long rowCount = 0;
+      boolean hasMoreRows = true;
+      while (hasMoreRows) {
+        db.beginTransaction();
+        try {
+          windowArgs[0] = String.valueOf(lastRowId);
+          Cursor cursor = db.rawQuery(windowQuery, windowArgs);
+          try {
+            hasMoreRows = cursor.getCount() == migration.batchSize;
+            while (cursor.moveToNext()) {
+              lastRowId = cursor.getLong(0);
+              if (migration.filter != null && !migration.filter.apply(cursor)) {
+                continue;
+              }
+
+              insert.clearBindings();
+              if (migration.transformer != null) {
+                migration.transformer.transform(cursor, transformedRow);
+              }
+              insert.bindLong(rowIdBindIndex, lastRowId);
+              insert.execute();
+              rowCount++;
+            }
+          } finally {
+            cursor.close();
+          }
+          db.setTransactionSuccessful();
+        } finally {
+          db.endTransaction();
+        }
+      }
+      return rowCount;
+    } finally {
+      insert.close();
+    }
+  }
+
+  /**
+   * Restores the tables left by the migration interrupted outside of the
+   * transaction: the new table is dropped and the old table is renamed back,
+   * so the migration can be performed again.
+   */
+  static void recoverInterruptedMigrations(Database db) {
+    for (SQLiteSchemaPart table : SQLiteMaster.getSQLiteSchemaParts(db, SQLiteSchemaPartType.TABLE)) {
+      if (table.name.startsWith(OLD_TABLE_PREFIX)) {
+        String tableName = table.name.substring(OLD_TABLE_PREFIX.length());
+        Log.w(TAG, "Restoring " + tableName + " left by interrupted migration");
+
+        db.execSQL("DROP TABLE IF EXISTS " + NEW_TABLE_PREFIX + tableName);
+        db.execSQL("DROP TABLE IF EXISTS " + tableName);
+        db.execSQL("ALTER TABLE " + table.name + " RENAME TO " + tableName);
+      } else if (table.name.startsWith(NEW_TABLE_PREFIX) || table.name.startsWith(PROBE_TABLE_PREFIX)) {
+        Log.w(TAG, "Dropping " + table.name + " left by interrupted migration");
+        db.execSQL("DROP TABLE IF EXISTS " + table.name);
+      }
     }
   }
 
   public static class TableMigration {
-    private final String tableName;
-    private final String createTableStatement;
-    private final ImmutableMap<String, String> mappings;
+    final String tableName;
+    final String createTableStatement;
+    final ImmutableMap<String, String> mappings;
+    final RowTransformer transformer;
+    final ImmutableSet<String> transformedColumns;
+    final Predicate<Cursor> filter;
+    final int batchSize;
 
-    private TableMigration(String tableName, String createTableStatement, ImmutableMap<String, String> mappings) {
+    private TableMigration(String tableName, String createTableStatement, ImmutableMap<String, String> mappings, RowTransformer transformer, ImmutableSet<String> transformedColumns, Predicate<Cursor> filter, int batchSize) {
       this.tableName = tableName;
       this.createTableStatement = createTableStatement;
       this.mappings = mappings;
+      this.transformer = transformer;
+      this.transformedColumns = transformedColumns;
+      this.filter = filter;
+      this.batchSize = batchSize;
     }
 
     public static Builder of(String table) {
@@ -91,6 +740,10 @@ public class MigrationsHelper {
       private Map<String, String> mMappings = new HashMap<>();
       private String mCreateTableStatement;
       private String mTable;
+      private RowTransformer mTransformer;
+      private ImmutableSet<String> mTransformedColumns = ImmutableSet.of();
+      private Predicate<Cursor> mFilter;
+      private int mBatchSize = DEFAULT_BATCH_SIZE;
 
       Builder(String table) {
         mTable = checkNotNull(table);
@@ -106,17 +759,134 @@ public class MigrationsHelper {
         return this;
       }
 
+      /**
+       * Computes the values of the given columns of the new table in Java. The
+       * rows are copied in batches instead of a single INSERT ... SELECT
+       * statement, so use it only when the SQL expression mapping is not enough.
+       * The old table has to be a rowid table.
+       */
+      public Builder withTransform(RowTransformer transformer, String... transformedColumns) {
+        mTransformer = checkNotNull(transformer);
+        mTransformedColumns = ImmutableSet.copyOf(transformedColumns);
+        return this;
+      }
+
+      /**
+       * Copies only the rows of the old table which match the predicate. The
+       * predicate receives the cursor positioned on the row of the old table.
+       * The old table has to be a rowid table.
+       */
+      public Builder withFilter(Predicate<Cursor> filter) {
+        mFilter = checkNotNull(filter);
+        return this;
+      }
+
+      /**
+       * Number of rows read and inserted in a single transaction when the
+       * transform or the filter is used; 500 by default.
+       */
+      public Builder withBatchSize(int batchSize) {
+        checkArgument(batchSize > 0, "Batch size should be positive");
+        mBatchSize = batchSize;
+        return this;
+      }
+
       public TableMigration build() {
         checkState(mTable != null);
         checkState(mCreateTableStatement != null);
 
-        return new TableMigration(mTable, mCreateTableStatement, ImmutableMap.copyOf(mMappings));
+        return new TableMigration(mTable, mCreateTableStatement, ImmutableMap.copyOf(mMappings), mTransformer, mTransformedColumns, mFilter, mBatchSize);
+      }
+    }
+  }
+
+  public static class Builder {
+    private MigrationListener mListener;
+    private boolean mInPlaceMigrations;
+
+    Builder() {
+    }
+
+    public Builder listener(MigrationListener listener) {
+      mListener = listener;
+      return this;
+    }
+
+    /**
+     * Skip the rebuild of the tables which already have the requested
+     * definition, append the new columns with ALTER TABLE and rewrite the
+     * table definition in sqlite_master when only the constraints which
+     * don't affect the stored rows were changed. Unlike the rebuild, these
+     * strategies keep the indexes and triggers of the migrated table.
+     * Disabled by default.
+     */
+    public Builder inPlaceMigrations(boolean inPlaceMigrations) {
+      mInPlaceMigrations = inPlaceMigrations;
+      return this;
+    }
+
+    public MigrationsHelper build() {
+      return new MigrationsHelper(mListener, mInPlaceMigrations);
+    }
+  }
+
+  static ImmutableSet<String> getDeclaredColumns(SQLiteDatabase db, String table) {
+    return getDeclaredColumns(AndroidDatabase.wrap(db), table);
+  }
+
+  /**
+   * Returns the columns from the table_info pragma, which unlike the
+   * {@link #getColumns(Database, String)} query is not affected by the
+   * statement cache when the table with the same name is recreated.
+   */
+  static ImmutableSet<String> getDeclaredColumns(Database db, String table) {
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+    try {
+      while (cursor.moveToNext()) {
+        builder.add(cursor.getString(cursor.getColumnIndexOrThrow("name")));
       }
+    } finally {
+      cursor.close();
     }
+    return builder.build();
+  }
+
+  /**
+   * Returns the generated columns, which cannot be inserted into. On SQLite
+   * versions older than 3.26.0 the table_xinfo pragma is not available, but
+   * these versions don't support the generated columns either.
+   */
+  static ImmutableSet<String> getGeneratedColumns(Database db, String table) {
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    Cursor cursor = db.rawQuery("PRAGMA table_xinfo(" + table + ")", null);
+    try {
+      while (cursor.moveToNext()) {
+        int hidden = cursor.getInt(cursor.getColumnIndexOrThrow("hidden"));
+        if (hidden == GENERATED_VIRTUAL || hidden == GENERATED_STORED) {
+          builder.add(cursor.getString(cursor.getColumnIndexOrThrow("name")));
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the columns of the table without the generated columns, which
+   * the table_info pragma omits.
+   */
+  static ImmutableSet<String> getInsertableColumns(Database db, String table) {
+    return getDeclaredColumns(db, table);
   }
 
   static ImmutableSet<String> getColumns(SQLiteDatabase db, String table) {
-    Cursor cursor = db.query(table, null, null, null, null, null, null, "0");
+    return getColumns(AndroidDatabase.wrap(db), table);
+  }
+
+  static ImmutableSet<String> getColumns(Database db, String table) {
+    Cursor cursor = db.rawQuery("SELECT * FROM " + table + " LIMIT 0", null);
     if (cursor != null) {
       try {
         return ImmutableSet.copyOf(cursor.getColumnNames());
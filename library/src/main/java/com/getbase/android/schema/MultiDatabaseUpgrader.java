@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upgrades multiple database files with the same {@link Schemas} concurrently.
+ * All upgrades share the revisions materialized by the {@link Schemas}, which
+ * are released when the last database is upgraded.
+ *
+ * Each database is upgraded the same way the SQLiteOpenHelper would do it:
+ * the tables are created if the database version is 0, otherwise the upgrade
+ * is performed, and the database version is updated in the same transaction.
+ * The databases are opened by the {@link Opener}, which should configure them
+ * the same way as the SQLiteOpenHelper used by the application, e.g. enable
+ * the foreign keys or the write-ahead logging.
+ */
+public class MultiDatabaseUpgrader {
+  private static final String TAG = MultiDatabaseUpgrader.class.getSimpleName();
+
+  public interface Listener {
+    void onStarted(File database, int fromVersion, int toVersion);
+
+    void onFinished(File database, int fromVersion, int toVersion, long durationMillis);
+
+    void onFailed(File database, Throwable error);
+  }
+
+  public interface Opener {
+    SQLiteDatabase open(File database);
+  }
+
+  private static final Opener DEFAULT_OPENER = new Opener() {
+    @Override
+    public SQLiteDatabase open(File database) {
+      return SQLiteDatabase.openDatabase(database.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+    }
+  };
+
+  private static final Listener NO_LISTENER = new Listener() {
+    @Override
+    public void onStarted(File database, int fromVersion, int toVersion) {
+    }
+
+    @Override
+    public void onFinished(File database, int fromVersion, int toVersion, long durationMillis) {
+    }
+
+    @Override
+    public void onFailed(File database, Throwable error) {
+    }
+  };
+
+  private final Schemas mSchemas;
+  private final int mParallelism;
+  private final int mIoConcurrency;
+  private final Listener mListener;
+  private final UpgradeOptions mUpgradeOptions;
+  private final Opener mOpener;
+
+  private MultiDatabaseUpgrader(Schemas schemas, int parallelism, int ioConcurrency, Listener listener, UpgradeOptions upgradeOptions, Opener opener) {
+    mSchemas = schemas;
+    mParallelism = parallelism;
+    mIoConcurrency = ioConcurrency;
+    mListener = listener;
+    mUpgradeOptions = upgradeOptions;
+    mOpener = opener;
+  }
+
+  public static Builder builder(Schemas schemas) {
+    return new Builder(schemas);
+  }
+
+  /**
+   * Upgrades all databases to the current schema revision and blocks until all
+   * of them are processed.
+   *
+   * @return the failed databases, together with the failure cause
+   */
+  public ImmutableMap<File, Throwable> upgrade(final Context context, Iterable<File> databases) throws InterruptedException {
+    ImmutableList<File> databaseFiles = ImmutableList.copyOf(databases);
+    if (databaseFiles.isEmpty()) {
+      return ImmutableMap.of();
+    }
+
+    final Semaphore ioPermits = new Semaphore(mIoConcurrency, true);
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(mParallelism, databaseFiles.size()));
+
+    mSchemas.beginUpgrade();
+    try {
+      List<Future<?>> futures = Lists.newArrayListWithCapacity(databaseFiles.size());
+      for (final File database : databaseFiles) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            upgrade(context, database, ioPermits);
+            return null;
+          }
+        }));
+      }
+
+      Map<File, Throwable> failures = Maps.newLinkedHashMap();
+      for (int i = 0; i < futures.size(); i++) {
+        File database = databaseFiles.get(i);
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          Log.e(TAG, "Upgrade of " + database + " failed", e.getCause());
+          failures.put(database, e.getCause());
+          mListener.onFailed(database, e.getCause());
+        }
+      }
+      return ImmutableMap.copyOf(failures);
+    } finally {
+      executor.shutdownNow();
+      mSchemas.endUpgrade();
+    }
+  }
+
+  private void upgrade(Context context, File databaseFile, Semaphore ioPermits) throws InterruptedException {
+    SQLiteDatabase database = checkNotNull(mOpener.open(databaseFile), "Opener returned null for %s", databaseFile);
+    try {
+      int fromVersion = database.getVersion();
+      int toVersion = mSchemas.getCurrentRevisionNumber();
+      checkState(fromVersion <= toVersion, "Cannot downgrade database %s from version %s to %s", databaseFile, fromVersion, toVersion);
+
+      if (fromVersion == toVersion) {
+        return;
+      }
+
+      mListener.onStarted(databaseFile, fromVersion, toVersion);
+      long start = System.nanoTime();
+
+      // materialize the oldest revision needed before taking the I/O permit,
+      // so the other databases can use the disk in the meantime
+      if (fromVersion > 0) {
+        mSchemas.getSchema(fromVersion);
+      }
+
+      ioPermits.acquire();
+      try {
+        if (fromVersion > 0 && mUpgradeOptions.isResumable()) {
+          // commits every revision separately and sets the version at the end
+          mSchemas.upgrade(context, AndroidDatabase.wrap(database), fromVersion, toVersion, mUpgradeOptions);
+        } else {
+          database.beginTransaction();
+          try {
+            if (fromVersion == 0) {
+              mSchemas.getCurrentSchema().createAll(database);
+            } else {
+              mSchemas.upgrade(context, AndroidDatabase.wrap(database), fromVersion, toVersion, mUpgradeOptions);
+            }
+            database.setVersion(toVersion);
+            database.setTransactionSuccessful();
+          } finally {
+            database.endTransaction();
+          }
+        }
+      } finally {
+        ioPermits.release();
+      }
+
+      mListener.onFinished(databaseFile, fromVersion, toVersion, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } finally {
+      database.close();
+    }
+  }
+
+  public static class Builder {
+    private final Schemas mSchemas;
+    private int mParallelism = 4;
+    private int mIoConcurrency = 2;
+    private Listener mListener = NO_LISTENER;
+    private UpgradeOptions mUpgradeOptions = UpgradeOptions.DEFAULT;
+    private Opener mOpener = DEFAULT_OPENER;
+
+    Builder(Schemas schemas) {
+      mSchemas = checkNotNull(schemas);
+    }
+
+    /**
+     * Maximum number of databases upgraded at the same time; 4 by default.
+     */
+    public Builder parallelism(int parallelism) {
+      checkArgument(parallelism > 0, "Parallelism should be positive");
+      mParallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * Maximum number of databases which perform the upgrade transaction at the
+     * same time, regardless of the parallelism; 2 by default.
+     */
+    public Builder ioConcurrency(int ioConcurrency) {
+      checkArgument(ioConcurrency > 0, "I/O concurrency should be positive");
+      mIoConcurrency = ioConcurrency;
+      return this;
+    }
+
+    public Builder listener(Listener listener) {
+      mListener = checkNotNull(listener);
+      return this;
+    }
+
+    /**
+     * With the resumable upgrade every revision is committed separately,
+     * otherwise the whole upgrade of each database is a single transaction.
+     */
+    public Builder upgradeOptions(UpgradeOptions upgradeOptions) {
+      mUpgradeOptions = checkNotNull(upgradeOptions);
+      return this;
+    }
+
+    /**
+     * Opens the database files; by default they are opened read-write without
+     * any additional configuration. The upgrader closes the returned database.
+     */
+    public Builder opener(Opener opener) {
+      mOpener = checkNotNull(opener);
+      return this;
+    }
+
+    public MultiDatabaseUpgrader build() {
+      return new MultiDatabaseUpgrader(mSchemas, mParallelism, mIoConcurrency, mListener, mUpgradeOptions, mOpener);
+    }
+  }
+}
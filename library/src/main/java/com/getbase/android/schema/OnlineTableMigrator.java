@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.getbase.android.schema.MigrationsHelper.TableMigration;
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.getbase.android.schema.driver.Database;
+import com.getbase.android.schema.driver.Statement;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Performs the {@link TableMigration} while the migrated table stays in use.
+ *
+ * The new table is created as a shadow table and filled in chunks, each in a
+ * separate transaction. The writes to the original table made in the meantime
+ * are captured by temporary triggers and replayed on the shadow table. At the
+ * end the remaining changes are replayed and the shadow table replaces the
+ * original one in a single short transaction.
+ *
+ * The temporary triggers capture only the writes made through the same
+ * connection, i.e. through the same SQLiteDatabase instance. Both tables have
+ * to be rowid tables. Like with {@link MigrationsHelper}, the indexes and
+ * triggers of the original table are dropped together with it.
+ *
+ * The foreign keys are disabled for the final swap, so dropping the original
+ * table doesn't trigger the ON DELETE actions of the referencing tables. The
+ * foreign keys of the new table and of the referencing tables are checked
+ * before the swap is committed, with PRAGMA foreign_key_check or, on SQLite
+ * older than 3.7.16 (Android before API 21), with the equivalent queries.
+ */
+public class OnlineTableMigrator {
+  private static final String TAG = OnlineTableMigrator.class.getSimpleName();
+
+  private static final String SHADOW_TABLE_PREFIX = "_online_new_";
+  private static final String CHANGES_TABLE_PREFIX = "_online_changes_";
+  private static final String TRIGGER_PREFIX = "_online_trigger_";
+
+  static final Pattern CREATE_TABLE_NAME = Pattern.compile(
+      "^\\s*CREATE\\s+TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(?:\"([^\"]+)\"|`([^`]+)`|\\[([^\\]]+)\\]|([\\w$]+))",
+      Pattern.CASE_INSENSITIVE
+  );
+
+  private final int mChunkSize;
+  private final long mPauseMillis;
+  private final int mMaxReplayRounds;
+  private final Listener mListener;
+
+  public interface Listener {
+    /**
+     * Called on the migrating thread outside of the transaction, after every
+     * copied chunk and every replay round, before the pause between chunks.
+     */
+    void onChunkCommitted(String table);
+  }
+
+  private static final Listener NO_LISTENER = new Listener() {
+    @Override
+    public void onChunkCommitted(String table) {
+    }
+  };
+
+  private OnlineTableMigrator(int chunkSize, long pauseMillis, int maxReplayRounds, Listener listener) {
+    mChunkSize = chunkSize;
+    mPauseMillis = pauseMillis;
+    mMaxReplayRounds = maxReplayRounds;
+    mListener = listener;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public void migrate(SQLiteDatabase db, TableMigration migration) throws InterruptedException {
+    migrate(AndroidDatabase.wrap(db), migration);
+  }
+
+  public void migrate(Database db, TableMigration migration) throws InterruptedException {
+    checkState(!db.inTransaction(), "Online migration cannot be performed inside a transaction");
+    checkArgument(migration.transformer == null && migration.filter == null, "Online migration doesn't support row transforms and filters");
+
+    String table = migration.tableName;
+    String shadowTable = SHADOW_TABLE_PREFIX + table;
+    String changesTable = CHANGES_TABLE_PREFIX + table;
+
+    // leftover of the migration interrupted by the process death
+    db.execSQL("DROP TABLE IF EXISTS " + shadowTable);
+    db.execSQL(renameCreateTableStatement(migration.createTableStatement, table, shadowTable));
+
+    ImmutableSet<String> oldColumns = MigrationsHelper.getDeclaredColumns(db, table);
+    ImmutableSet<String> newColumns = MigrationsHelper.getInsertableColumns(db, shadowTable);
+
+    Set<String> unmappedColumns = Sets.difference(Sets.intersection(oldColumns, newColumns), migration.mappings.keySet());
+    String copyRowsStatement = "INSERT INTO " + shadowTable + "(_rowid_," + Joiner.on(",").join(Iterables.concat(unmappedColumns, migration.mappings.keySet())) + ")" +
+        " SELECT _rowid_," + Joiner.on(",").join(Iterables.concat(unmappedColumns, migration.mappings.values())) +
+        " FROM " + table;
+
+    createChangeCapture(db, table, changesTable);
+    try {
+      copyRows(db, table, copyRowsStatement);
+
+      int replayRounds = 0;
+      while (replayRounds++ < mMaxReplayRounds && countChanges(db, changesTable) > mChunkSize) {
+        db.beginTransaction();
+        try {
+          replayChanges(db, shadowTable, changesTable, copyRowsStatement);
+          db.setTransactionSuccessful();
+        } finally {
+          db.endTransaction();
+        }
+        pause(table);
+      }
+
+      swapTables(db, table, shadowTable, changesTable, copyRowsStatement);
+    } finally {
+      dropChangeCapture(db, table, changesTable);
+    }
+
+    Log.d(TAG, "Performed online migration of " + table);
+  }
+
+  private static void swapTables(Database db, String table, String shadowTable, String changesTable, String copyRowsStatement) {
+    ImmutableSet<String> checkedTables = ImmutableSet.<String>builder()
+        .add(table)
+        .addAll(MigrationsHelper.getReferencingTables(db, table))
+        .build();
+
+    ForeignKeySuspension foreignKeys = ForeignKeySuspension.begin(db);
+    try {
+      db.beginTransaction();
+      try {
+        replayChanges(db, shadowTable, changesTable, copyRowsStatement);
+        db.execSQL("DROP TABLE " + table);
+        // the views referencing the dropped table would fail the rename on SQLite 3.25+
+        db.execSQL("PRAGMA legacy_alter_table=ON");
+        try {
+          db.execSQL("ALTER TABLE " + shadowTable + " RENAME TO " + table);
+        } finally {
+          db.execSQL("PRAGMA legacy_alter_table=OFF");
+        }
+        foreignKeys.check(checkedTables);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    } finally {
+      foreignKeys.end();
+    }
+  }
+
+  private static void createChangeCapture(Database db, String table, String changesTable) {
+    dropChangeCapture(db, table, changesTable);
+    db.execSQL("CREATE TEMP TABLE " + changesTable + " (seq INTEGER PRIMARY KEY, row_id INTEGER NOT NULL)");
+
+    db.execSQL("CREATE TEMP TRIGGER " + TRIGGER_PREFIX + "insert_" + table + " AFTER INSERT ON main." + table +
+        " BEGIN INSERT INTO " + changesTable + "(row_id) VALUES (NEW._rowid_); END");
+    db.execSQL("CREATE TEMP TRIGGER " + TRIGGER_PREFIX + "update_" + table + " AFTER UPDATE ON main." + table +
+        " BEGIN INSERT INTO " + changesTable + "(row_id) VALUES (OLD._rowid_); INSERT INTO " + changesTable + "(row_id) VALUES (NEW._rowid_); END");
+    db.execSQL("CREATE TEMP TRIGGER " + TRIGGER_PREFIX + "delete_" + table + " AFTER DELETE ON main." + table +
+        " BEGIN INSERT INTO " + changesTable + "(row_id) VALUES (OLD._rowid_); END");
+  }
+
+  private static void dropChangeCapture(Database db, String table, String changesTable) {
+    // after the successful migration the triggers are already dropped together with the original table
+    for (String operation : new String[] { "insert_", "update_", "delete_" }) {
+      db.execSQL("DROP TRIGGER IF EXISTS temp." + TRIGGER_PREFIX + operation + table);
+    }
+    db.execSQL("DROP TABLE IF EXISTS temp." + changesTable);
+  }
+
+  private void copyRows(Database db, String table, String copyRowsStatement) throws InterruptedException {
+    Statement lastRowIdInChunk = db.compileStatement("SELECT MAX(_rowid_) FROM (SELECT _rowid_ FROM " + table + " WHERE _rowid_>? ORDER BY _rowid_ LIMIT " + mChunkSize + ")");
+    Statement copyChunk = db.compileStatement(copyRowsStatement + " WHERE _rowid_>? AND _rowid_<=?");
+    try {
+      long lastRowId = Long.MIN_VALUE;
+      while (true) {
+        db.beginTransaction();
+        try {
+          lastRowIdInChunk.bindLong(1, lastRowId);
+          String chunkEnd = lastRowIdInChunk.simpleQueryForString();
+          if (chunkEnd == null) {
+            db.setTransactionSuccessful();
+            break;
+          }
+
+          copyChunk.bindLong(1, lastRowId);
+          copyChunk.bindLong(2, Long.parseLong(chunkEnd));
+          copyChunk.execute();
+          lastRowId = Long.parseLong(chunkEnd);
+
+          db.setTransactionSuccessful();
+        } finally {
+          db.endTransaction();
+        }
+        pause(table);
+      }
+    } finally {
+      lastRowIdInChunk.close();
+      copyChunk.close();
+    }
+  }
+
+  private static long countChanges(Database db, String changesTable) {
+    Statement count = db.compileStatement("SELECT COUNT(*) FROM " + changesTable);
+    try {
+      return count.simpleQueryForLong();
+    } finally {
+      count.close();
+    }
+  }
+
+  private static void replayChanges(Database db, String shadowTable, String changesTable, String copyRowsStatement) {
+    Statement maxSeq = db.compileStatement("SELECT MAX(seq) FROM " + changesTable);
+    String lastSeq;
+    try {
+      lastSeq = maxSeq.simpleQueryForString();
+    } finally {
+      maxSeq.close();
+    }
+    if (lastSeq == null) {
+      return;
+    }
+
+    String changedRows = "SELECT row_id FROM " + changesTable + " WHERE seq<=" + lastSeq;
+    db.execSQL("DELETE FROM " + shadowTable + " WHERE _rowid_ IN (" + changedRows + ")");
+    db.execSQL(copyRowsStatement + " WHERE _rowid_ IN (" + changedRows + ")");
+    db.execSQL("DELETE FROM " + changesTable + " WHERE seq<=" + lastSeq);
+  }
+
+  private void pause(String table) throws InterruptedException {
+    mListener.onChunkCommitted(table);
+    if (mPauseMillis > 0) {
+      TimeUnit.MILLISECONDS.sleep(mPauseMillis);
+    } else if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  static String renameCreateTableStatement(String createTableStatement, String table, String newTable) {
+    Matcher matcher = CREATE_TABLE_NAME.matcher(createTableStatement);
+    checkArgument(matcher.find(), "Cannot find the table name in %s", createTableStatement);
+
+    for (int group = 1; group <= matcher.groupCount(); group++) {
+      if (matcher.group(group) != null) {
+        checkArgument(matcher.group(group).equalsIgnoreCase(table), "%s doesn't create table %s", createTableStatement, table);
+        return createTableStatement.substring(0, matcher.start(group)) + newTable + createTableStatement.substring(matcher.end(group));
+      }
+    }
+    throw new IllegalArgumentException("Cannot find the table name in " + createTableStatement);
+  }
+
+  public static class Builder {
+    private int mChunkSize = 1000;
+    private long mPauseMillis;
+    private int mMaxReplayRounds = 10;
+    private Listener mListener = NO_LISTENER;
+
+    Builder() {
+    }
+
+    /**
+     * Number of rows copied in a single transaction; 1000 by default.
+     */
+    public Builder chunkSize(int chunkSize) {
+      checkArgument(chunkSize > 0, "Chunk size should be positive");
+      mChunkSize = chunkSize;
+      return this;
+    }
+
+    /**
+     * Pause between the chunks, which lets the other threads access the
+     * database; no pause by default.
+     */
+    public Builder pauseBetweenChunks(long duration, TimeUnit unit) {
+      checkArgument(duration >= 0, "Pause cannot be negative");
+      mPauseMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    /**
+     * Maximum number of attempts to catch up with the concurrent writes before
+     * the final swap, which replays all remaining changes; 10 by default.
+     */
+    public Builder maxReplayRounds(int maxReplayRounds) {
+      checkArgument(maxReplayRounds >= 0, "Max replay rounds count cannot be negative");
+      mMaxReplayRounds = maxReplayRounds;
+      return this;
+    }
+
+    public Builder listener(Listener listener) {
+      mListener = checkNotNull(listener);
+      return this;
+    }
+
+    public OnlineTableMigrator build() {
+      return new OnlineTableMigrator(mChunkSize, mPauseMillis, mMaxReplayRounds, mListener);
+    }
+  }
+}
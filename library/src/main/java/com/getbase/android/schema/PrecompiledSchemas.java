@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Facade which answers the current schema queries from the {@link SchemaSnapshot}
+ * and builds the full {@link Schemas} history only when the upgrade is actually
+ * performed.
+ */
+public class PrecompiledSchemas {
+  private final Supplier<SchemaSnapshot> mSnapshot;
+  private final Supplier<Schemas> mHistory;
+  private final boolean mVerifyOnCreate;
+
+  public PrecompiledSchemas(ByteSource snapshot, Supplier<Schemas> history) {
+    this(snapshot, history, false);
+  }
+
+  /**
+   * @param verifyOnCreate if true, {@link #createAll} builds the full history
+   * and {@link #verify()}s the snapshot before creating the tables, e.g. pass
+   * BuildConfig.DEBUG to catch the outdated snapshot in the debug builds.
+   */
+  public PrecompiledSchemas(final ByteSource snapshot, final Supplier<Schemas> history, boolean verifyOnCreate) {
+    checkNotNull(snapshot);
+    checkNotNull(history);
+    mVerifyOnCreate = verifyOnCreate;
+
+    mSnapshot = Suppliers.memoize(new Supplier<SchemaSnapshot>() {
+      @Override
+      public SchemaSnapshot get() {
+        try {
+          InputStream inputStream = snapshot.openBufferedStream();
+          try {
+            return SchemaSnapshot.readFrom(inputStream);
+          } finally {
+            inputStream.close();
+          }
+        } catch (IOException e) {
+          throw new IllegalStateException("Cannot load schema snapshot", e);
+        }
+      }
+    });
+
+    mHistory = Suppliers.memoize(new Supplier<Schemas>() {
+      @Override
+      public Schemas get() {
+        Schemas schemas = history.get();
+        checkState(schemas.getCurrentRevisionNumber() == getCurrentRevisionNumber(),
+            "Schema snapshot for revision %s is out of date, current schema revision is %s",
+            getCurrentRevisionNumber(), schemas.getCurrentRevisionNumber()
+        );
+        checkState(SchemaSnapshot.checksumOf(schemas) == getSnapshot().getChecksum(),
+            "Schema snapshot for revision %s doesn't match the CREATE statements of the current schema, regenerate the snapshot",
+            getCurrentRevisionNumber()
+        );
+        return schemas;
+      }
+    });
+  }
+
+  public SchemaSnapshot getSnapshot() {
+    return mSnapshot.get();
+  }
+
+  public int getCurrentRevisionNumber() {
+    return getSnapshot().getRevision();
+  }
+
+  public ImmutableSet<String> getTables() {
+    return getSnapshot().getTables();
+  }
+
+  public String getCreateTableStatement(String tableName) {
+    return getSnapshot().getCreateTableStatement(tableName);
+  }
+
+  public ImmutableSet<String> getColumns(String table) {
+    return getSnapshot().getColumns(table);
+  }
+
+  public ImmutableSet<String> getTablesModifiedInRevision(int version) {
+    return getSnapshot().getTablesModifiedInRevision(version);
+  }
+
+  /**
+   * Returns the full schema history. Calling this method builds the history if
+   * it wasn't built yet.
+   */
+  public Schemas getSchemas() {
+    return mHistory.get();
+  }
+
+  /**
+   * Builds the full history and checks that the snapshot matches its current
+   * schema: the revision number and the CREATE statements. Throws
+   * IllegalStateException if the snapshot is out of date. Call it in a test
+   * to catch the snapshot which wasn't regenerated after the schema change.
+   */
+  public void verify() {
+    getSchemas();
+  }
+
+  /**
+   * Creates the tables from the snapshot without changing the page size and
+   * auto_vacuum of the database, see
+   * {@link #createAll(SQLiteDatabase, DatabaseSettings, CreateOptions)}.
+   */
+  public CreateReport createAll(SQLiteDatabase database, CreateOptions options) {
+    return createAll(database, DatabaseSettings.NONE, options);
+  }
+
+  /**
+   * Creates the tables from the snapshot. The snapshot doesn't contain the
+   * {@link DatabaseSettings}, so pass the settings of the current schema to
+   * set the page size and auto_vacuum of the empty database before the first
+   * table is created.
+   */
+  public CreateReport createAll(SQLiteDatabase database, DatabaseSettings settings, CreateOptions options) {
+    checkNotNull(settings);
+    if (mVerifyOnCreate) {
+      verify();
+    }
+    SchemaSnapshot snapshot = getSnapshot();
+
+    Map<String, String> createTableStatements = Maps.newHashMap();
+    for (String table : snapshot.getTables()) {
+      createTableStatements.put(table, snapshot.getCreateTableStatement(table));
+    }
+    return SchemaCreator.createAll(database, createTableStatements, settings, options);
+  }
+
+  /**
+   * Creates the tables from the snapshot in a single transaction without
+   * changing the page size and auto_vacuum of the database, see
+   * {@link #createAll(SQLiteDatabase, DatabaseSettings, CreateOptions)}.
+   */
+  public CreateReport createAll(SQLiteDatabase database) {
+    return createAll(database, CreateOptions.DEFAULT);
+  }
+
+  public void upgrade(Context context, SQLiteDatabase database, int fromVersion, int toVersion) {
+    if (fromVersion < toVersion) {
+      getSchemas().upgrade(context, database, fromVersion, toVersion);
+    }
+  }
+}
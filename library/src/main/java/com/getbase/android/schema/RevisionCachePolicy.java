@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Controls how many schema revisions {@link Schemas} keeps in memory.
+ *
+ * Revisions are built by walking the downgrades from the nearest materialized
+ * revision. Checkpoints are sparse revisions which are kept for the lifetime of
+ * {@link Schemas} object, all other revisions are kept in a bounded LRU cache.
+ */
+public final class RevisionCachePolicy {
+  public static final RevisionCachePolicy DEFAULT = builder().build();
+
+  private final int mMaxMaterializedRevisions;
+  private final int mCheckpointInterval;
+  private final boolean mCheckpointReleases;
+
+  private RevisionCachePolicy(int maxMaterializedRevisions, int checkpointInterval, boolean checkpointReleases) {
+    mMaxMaterializedRevisions = maxMaterializedRevisions;
+    mCheckpointInterval = checkpointInterval;
+    mCheckpointReleases = checkpointReleases;
+  }
+
+  public int getMaxMaterializedRevisions() {
+    return mMaxMaterializedRevisions;
+  }
+
+  public int getCheckpointInterval() {
+    return mCheckpointInterval;
+  }
+
+  public boolean isCheckpointingReleases() {
+    return mCheckpointReleases;
+  }
+
+  boolean isCheckpoint(int revision) {
+    return mCheckpointInterval > 0 && revision % mCheckpointInterval == 0;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("maxMaterializedRevisions", mMaxMaterializedRevisions)
+        .add("checkpointInterval", mCheckpointInterval)
+        .add("checkpointReleases", mCheckpointReleases)
+        .toString();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private int mMaxMaterializedRevisions = 16;
+    private int mCheckpointInterval = 50;
+    private boolean mCheckpointReleases = true;
+
+    Builder() {
+    }
+
+    /**
+     * Maximum number of non-checkpoint revisions kept in memory.
+     */
+    public Builder maxMaterializedRevisions(int maxMaterializedRevisions) {
+      checkArgument(maxMaterializedRevisions >= 0, "Max materialized revisions count cannot be negative");
+      mMaxMaterializedRevisions = maxMaterializedRevisions;
+      return this;
+    }
+
+    /**
+     * Keep every revision divisible by interval as a checkpoint. Use 0 to disable
+     * periodic checkpoints.
+     */
+    public Builder checkpointEvery(int interval) {
+      checkArgument(interval >= 0, "Checkpoint interval cannot be negative");
+      mCheckpointInterval = interval;
+      return this;
+    }
+
+    /**
+     * Keep the revision of every {@link Schemas.Release} as a checkpoint.
+     */
+    public Builder checkpointReleases(boolean checkpointReleases) {
+      mCheckpointReleases = checkpointReleases;
+      return this;
+    }
+
+    public RevisionCachePolicy build() {
+      return new RevisionCachePolicy(mMaxMaterializedRevisions, mCheckpointInterval, mCheckpointReleases);
+    }
+  }
+}
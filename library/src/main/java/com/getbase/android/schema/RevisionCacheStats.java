@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Snapshot of {@link Schemas} revision cache counters.
+ */
+public final class RevisionCacheStats {
+  private final long mHitCount;
+  private final long mMissCount;
+  private final long mRebuildCount;
+  private final int mCheckpointCount;
+
+  RevisionCacheStats(long hitCount, long missCount, long rebuildCount, int checkpointCount) {
+    mHitCount = hitCount;
+    mMissCount = missCount;
+    mRebuildCount = rebuildCount;
+    mCheckpointCount = checkpointCount;
+  }
+
+  /**
+   * Number of revision lookups served from checkpoints or from the LRU cache.
+   */
+  public long getHitCount() {
+    return mHitCount;
+  }
+
+  /**
+   * Number of revision lookups which required building the revision.
+   */
+  public long getMissCount() {
+    return mMissCount;
+  }
+
+  /**
+   * Number of revisions rebuilt by applying the downgrades while serving misses.
+   */
+  public long getRebuildCount() {
+    return mRebuildCount;
+  }
+
+  public int getCheckpointCount() {
+    return mCheckpointCount;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("hits", mHitCount)
+        .add("misses", mMissCount)
+        .add("rebuilds", mRebuildCount)
+        .add("checkpoints", mCheckpointCount)
+        .toString();
+  }
+}
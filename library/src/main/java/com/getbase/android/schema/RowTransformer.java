@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import android.database.Cursor;
+
+/**
+ * Java transformation applied to every row copied by the
+ * {@link MigrationsHelper.TableMigration}.
+ */
+public interface RowTransformer {
+  /**
+   * @param oldRow cursor positioned on the row of the old table; don't move it
+   * or close it
+   * @param newRow values of the columns declared in
+   * {@link MigrationsHelper.TableMigration.Builder#withTransform(RowTransformer, String...)};
+   * the columns which are not set are inserted as NULLs
+   */
+  void transform(Cursor oldRow, TransformedRow newRow);
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.getbase.android.schema.driver.Database;
+import com.getbase.android.schema.driver.Statement;
+
+/**
+ * Checks the version of the SQLite library the database is opened with,
+ * which on Android depends on the API level of the device.
+ */
+final class SQLiteVersion {
+  static final int[] DEFER_FOREIGN_KEYS = { 3, 8, 0 };
+  static final int[] FOREIGN_KEY_CHECK = { 3, 7, 16 };
+
+  private SQLiteVersion() {
+  }
+
+  static String get(Database db) {
+    Statement statement = db.compileStatement("SELECT sqlite_version()");
+    try {
+      return statement.simpleQueryForString();
+    } finally {
+      statement.close();
+    }
+  }
+
+  static boolean isAtLeast(Database db, int[] minVersion) {
+    String[] parts = get(db).split("\\.");
+    for (int i = 0; i < minVersion.length; i++) {
+      int part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+      if (part != minVersion[i]) {
+        return part > minVersion[i];
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.Map;
+
+final class SchemaCreator {
+  private static final String TAG = SchemaCreator.class.getSimpleName();
+
+  private SchemaCreator() {
+  }
+
+  static CreateReport createAll(SQLiteDatabase db, Map<String, String> createTableStatements, DatabaseSettings settings, CreateOptions options) {
+    ImmutableList<String> tables = TableDependencies.sortByDependencies(createTableStatements);
+
+    long start = System.nanoTime();
+    long tablesNanos;
+    long indexesNanos;
+    long triggersNanos;
+
+    // the page size and auto_vacuum cannot be changed once the transaction started writing
+    ImmutableSet<DatabaseSettings.Action> settingsActions = settings.applyToEmptyDatabase(AndroidDatabase.wrap(db));
+    if (!settingsActions.isEmpty()) {
+      Log.d(TAG, "Applied " + settings + " to the empty database: " + settingsActions);
+    }
+
+    if (options.mInTransaction) {
+      db.beginTransaction();
+    }
+    try {
+      long phaseStart = System.nanoTime();
+      for (String table : tables) {
+        db.execSQL(createTableStatements.get(table));
+      }
+      tablesNanos = System.nanoTime() - phaseStart;
+
+      phaseStart = System.nanoTime();
+      for (String createIndexStatement : options.mIndexStatements) {
+        db.execSQL(createIndexStatement);
+      }
+      indexesNanos = System.nanoTime() - phaseStart;
+
+      phaseStart = System.nanoTime();
+      for (String createTriggerStatement : options.mTriggerStatements) {
+        db.execSQL(createTriggerStatement);
+      }
+      triggersNanos = System.nanoTime() - phaseStart;
+
+      if (options.mInTransaction) {
+        db.setTransactionSuccessful();
+      }
+    } finally {
+      if (options.mInTransaction) {
+        db.endTransaction();
+      }
+    }
+
+    CreateReport report = new CreateReport(
+        tables,
+        options.mIndexStatements.size(),
+        options.mTriggerStatements.size(),
+        tablesNanos,
+        indexesNanos,
+        triggersNanos,
+        System.nanoTime() - start
+    );
+    Log.d(TAG, "Created schema: " + report);
+    return report;
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.getbase.android.schema.Schemas.Schema;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+/**
+ * Precomputed current schema: CREATE statements, column sets and the index of
+ * tables modified in each revision. It can be generated at build time with
+ * {@link SchemaSnapshotGenerator} and loaded by {@link PrecompiledSchemas}
+ * without building the whole {@link Schemas} history.
+ */
+public final class SchemaSnapshot {
+  private static final int MAGIC = 0x53555353;
+  private static final int FORMAT_VERSION = 2;
+
+  private final int mRevision;
+  private final ImmutableMap<String, String> mCreateTableStatements;
+  private final ImmutableMap<String, ImmutableSet<String>> mColumns;
+  private final ImmutableMap<Integer, ImmutableSet<String>> mModifiedTables;
+  private final long mChecksum;
+
+  private SchemaSnapshot(int revision,
+      ImmutableMap<String, String> createTableStatements,
+      ImmutableMap<String, ImmutableSet<String>> columns,
+      ImmutableMap<Integer, ImmutableSet<String>> modifiedTables) {
+    mRevision = revision;
+    mCreateTableStatements = createTableStatements;
+    mColumns = columns;
+    mModifiedTables = modifiedTables;
+    mChecksum = checksum(createTableStatements);
+  }
+
+  /**
+   * Returns the checksum of the CREATE statements of the current schema, which
+   * doesn't depend on the order of the tables.
+   */
+  static long checksumOf(Schemas schemas) {
+    return checksum(schemas.getCurrentSchema().getCreateTableStatements());
+  }
+
+  private static long checksum(Map<String, String> createTableStatements) {
+    CRC32 crc = new CRC32();
+    for (String table : Ordering.natural().sortedCopy(createTableStatements.keySet())) {
+      crc.update(table.getBytes(Charsets.UTF_8));
+      crc.update(0);
+      crc.update(createTableStatements.get(table).getBytes(Charsets.UTF_8));
+      crc.update(0);
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Checksum of the CREATE statements stored in the snapshot. Compare it with
+   * the checksum of the schema history to detect the outdated snapshot.
+   */
+  public long getChecksum() {
+    return mChecksum;
+  }
+
+  public static SchemaSnapshot of(Schemas schemas) {
+    Schema schema = schemas.getCurrentSchema();
+
+    ImmutableMap.Builder<String, String> createTableStatements = ImmutableMap.builder();
+    ImmutableMap.Builder<String, ImmutableSet<String>> columns = ImmutableMap.builder();
+    for (String table : schema.getTables()) {
+      createTableStatements.put(table, schema.getCreateTableStatement(table));
+      columns.put(table, schema.getColumns(table));
+    }
+
+    return new SchemaSnapshot(
+        schemas.getCurrentRevisionNumber(),
+        createTableStatements.build(),
+        columns.build(),
+        schemas.getModifiedTablesIndex()
+    );
+  }
+
+  public int getRevision() {
+    return mRevision;
+  }
+
+  public ImmutableSet<String> getTables() {
+    return mCreateTableStatements.keySet();
+  }
+
+  public String getCreateTableStatement(String tableName) {
+    Preconditions.checkArgument(mCreateTableStatements.containsKey(tableName), "Schema snapshot for version %s doesn't contain table %s", mRevision, tableName);
+    return mCreateTableStatements.get(tableName);
+  }
+
+  public ImmutableSet<String> getColumns(String table) {
+    return mColumns.get(table);
+  }
+
+  public ImmutableSet<String> getTablesModifiedInRevision(int version) {
+    return mModifiedTables.containsKey(version)
+        ? mModifiedTables.get(version)
+        : ImmutableSet.<String>of();
+  }
+
+  public void writeTo(OutputStream outputStream) throws IOException {
+    DataOutputStream out = new DataOutputStream(outputStream);
+
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(mRevision);
+
+    out.writeInt(mCreateTableStatements.size());
+    for (Entry<String, String> table : mCreateTableStatements.entrySet()) {
+      writeString(out, table.getKey());
+      writeString(out, table.getValue());
+      writeStrings(out, mColumns.get(table.getKey()));
+    }
+
+    out.writeInt(mModifiedTables.size());
+    for (Entry<Integer, ImmutableSet<String>> revision : mModifiedTables.entrySet()) {
+      out.writeInt(revision.getKey());
+      writeStrings(out, revision.getValue());
+    }
+
+    out.writeLong(mChecksum);
+    out.flush();
+  }
+
+  public static SchemaSnapshot readFrom(InputStream inputStream) throws IOException {
+    DataInputStream in = new DataInputStream(inputStream);
+
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a schema snapshot");
+    }
+    int formatVersion = in.readInt();
+    if (formatVersion != FORMAT_VERSION) {
+      throw new IOException("Unsupported schema snapshot format version " + formatVersion);
+    }
+    int revision = in.readInt();
+
+    ImmutableMap.Builder<String, String> createTableStatements = ImmutableMap.builder();
+    ImmutableMap.Builder<String, ImmutableSet<String>> columns = ImmutableMap.builder();
+    for (int tablesCount = in.readInt(); tablesCount > 0; --tablesCount) {
+      String table = readString(in);
+      createTableStatements.put(table, readString(in));
+      columns.put(table, readStrings(in));
+    }
+
+    ImmutableMap.Builder<Integer, ImmutableSet<String>> modifiedTables = ImmutableMap.builder();
+    for (int revisionsCount = in.readInt(); revisionsCount > 0; --revisionsCount) {
+      modifiedTables.put(in.readInt(), readStrings(in));
+    }
+
+    SchemaSnapshot snapshot = new SchemaSnapshot(revision, createTableStatements.build(), columns.build(), modifiedTables.build());
+    if (in.readLong() != snapshot.mChecksum) {
+      throw new IOException("Schema snapshot checksum mismatch, the snapshot was modified after it was generated");
+    }
+    return snapshot;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static void writeStrings(DataOutputStream out, ImmutableSet<String> values) throws IOException {
+    out.writeInt(values.size());
+    for (String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  private static ImmutableSet<String> readStrings(DataInputStream in) throws IOException {
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    for (int count = in.readInt(); count > 0; --count) {
+      builder.add(readString(in));
+    }
+    return builder.build();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    SchemaSnapshot that = (SchemaSnapshot) o;
+
+    return mRevision == that.mRevision &&
+        Objects.equal(mCreateTableStatements, that.mCreateTableStatements) &&
+        Objects.equal(mColumns, that.mColumns) &&
+        Objects.equal(mModifiedTables, that.mModifiedTables);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(mRevision, mCreateTableStatements, mColumns, mModifiedTables);
+  }
+
+  @Override
+  public String toString() {
+    return "SchemaSnapshot for revision " + mRevision + " (" + mCreateTableStatements.size() + " tables)";
+  }
+}
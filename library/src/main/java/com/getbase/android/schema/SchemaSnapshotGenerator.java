@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Supplier;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Build time entry point for generating {@link SchemaSnapshot} files. Usage:
+ *
+ * <pre>
+ * SchemaSnapshotGenerator &lt;class name&gt; &lt;static field or method name&gt; &lt;output file&gt;
+ * </pre>
+ *
+ * The member has to be static and has to be either {@link Schemas}, or
+ * {@link Supplier} of {@link Schemas}.
+ */
+public final class SchemaSnapshotGenerator {
+  private SchemaSnapshotGenerator() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    checkArgument(args.length == 3, "Usage: SchemaSnapshotGenerator <class name> <static field or method name> <output file>");
+
+    Schemas schemas = getSchemas(Class.forName(args[0]), args[1]);
+    write(schemas, new File(args[2]));
+  }
+
+  public static void write(Schemas schemas, File output) throws IOException {
+    File parent = output.getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Cannot create directory " + parent);
+    }
+
+    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(output));
+    try {
+      SchemaSnapshot.of(schemas).writeTo(outputStream);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  static Schemas getSchemas(Class<?> klass, String memberName) throws Exception {
+    Object value = getStaticMember(klass, memberName);
+    if (!(value instanceof Schemas)) {
+      throw new IllegalArgumentException(klass.getName() + "." + memberName + " is not a Schemas instance");
+    }
+    return (Schemas) value;
+  }
+
+  static Object getStaticMember(Class<?> klass, String memberName) throws Exception {
+    Object value;
+    try {
+      Field field = klass.getDeclaredField(memberName);
+      checkStatic(field.getModifiers(), memberName);
+      field.setAccessible(true);
+      value = field.get(null);
+    } catch (NoSuchFieldException e) {
+      Method method = klass.getDeclaredMethod(memberName);
+      checkStatic(method.getModifiers(), memberName);
+      method.setAccessible(true);
+      value = method.invoke(null);
+    }
+
+    if (value instanceof Supplier) {
+      value = ((Supplier<?>) value).get();
+    }
+    return value;
+  }
+
+  private static void checkStatic(int modifiers, String memberName) {
+    if (!Modifier.isStatic(modifiers)) {
+      throw new IllegalArgumentException(memberName + " should be static");
+    }
+  }
+}
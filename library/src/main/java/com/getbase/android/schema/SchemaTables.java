@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.getbase.android.schema.Schemas.TableDefinitionOperation;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Table definitions of a single schema revision, together with the memoized
+ * CREATE TABLE statements and column sets. The instances are interned in the
+ * whole process, so all revisions with identical tables share them, even if
+ * they come from different {@link Schemas} instances.
+ */
+final class SchemaTables {
+  private static final Interner<SchemaTables> SCHEMA_TABLES_INTERNER = Interners.newWeakInterner();
+  private static final Interner<ImmutableList<? extends TableDefinitionOperation>> TABLE_DEFINITIONS_INTERNER = Interners.newWeakInterner();
+  private static final Interner<String> CREATE_TABLE_STATEMENTS_INTERNER = Interners.newWeakInterner();
+
+  final ImmutableMap<String, ImmutableList<? extends TableDefinitionOperation>> mTableDefinitions;
+  final ConcurrentMap<String, String> mCreateTableStatements = new ConcurrentHashMap<>();
+  final ConcurrentMap<String, ImmutableSet<String>> mColumns = new ConcurrentHashMap<>();
+
+  private final int mHashCode;
+
+  private SchemaTables(ImmutableMap<String, ImmutableList<? extends TableDefinitionOperation>> tableDefinitions) {
+    mTableDefinitions = tableDefinitions;
+    mHashCode = tableDefinitions.hashCode();
+  }
+
+  static SchemaTables intern(Map<String, ImmutableList<? extends TableDefinitionOperation>> tableDefinitions) {
+    ImmutableMap.Builder<String, ImmutableList<? extends TableDefinitionOperation>> builder = ImmutableMap.builder();
+    for (Map.Entry<String, ImmutableList<? extends TableDefinitionOperation>> table : tableDefinitions.entrySet()) {
+      builder.put(table.getKey(), TABLE_DEFINITIONS_INTERNER.intern(table.getValue()));
+    }
+
+    return SCHEMA_TABLES_INTERNER.intern(new SchemaTables(builder.build()));
+  }
+
+  static String internCreateTableStatement(String createTableStatement) {
+    return CREATE_TABLE_STATEMENTS_INTERNER.intern(createTableStatement);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    SchemaTables that = (SchemaTables) o;
+    return mHashCode == that.mHashCode && mTableDefinitions.equals(that.mTableDefinitions);
+  }
+
+  @Override
+  public int hashCode() {
+    return mHashCode;
+  }
+}
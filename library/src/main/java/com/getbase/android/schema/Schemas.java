@@ -16,6 +16,11 @@
 
 package com.getbase.android.schema;
 
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.getbase.android.schema.driver.Database;
+import com.getbase.android.schema.driver.ForwardingDatabase;
+import com.getbase.android.schema.driver.RecordingDatabase;
+import com.getbase.android.schema.driver.StatementRecording;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.MoreObjects;
@@ -23,11 +28,8 @@ import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -37,17 +39,26 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
-import android.support.annotation.NonNull;
 import android.util.Log;
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Schemas {
   private static final String TAG = Schemas.class.getSimpleName();
@@ -65,33 +76,18 @@ public class Schemas {
 
   private final ImmutableMap<Integer, Migration[]> mMigrations;
   private final ImmutableMap<Integer, ImmutableMap<String, ImmutableList<? extends TableDowngradeOperation>>> mDowngrades;
-  private final LoadingCache<Integer, ImmutableMap<String, ImmutableList<? extends TableDefinitionOperation>>> mRevisions =
-      CacheBuilder.newBuilder().build(
-          new CacheLoader<Integer, ImmutableMap<String, ImmutableList<? extends TableDefinitionOperation>>>() {
-            @Override
-            public ImmutableMap<String, ImmutableList<? extends TableDefinitionOperation>> load(@NonNull Integer key) throws Exception {
-              Integer lastMergedRevision = Collections.min(mRevisions.asMap().keySet());
-              Log.d(TAG, "Building migration to " + key + " (min schema prepared: " + lastMergedRevision + ")");
-              Preconditions.checkState(lastMergedRevision > key, "Trying to retrieve version %s, which is higher than current schema version", key);
-              ImmutableMap<String, ImmutableList<? extends TableDefinitionOperation>> schema = mRevisions.getIfPresent(lastMergedRevision);
-              Preconditions.checkState(schema != null);
-
-              for (int revision = lastMergedRevision - 1; ; --revision) {
-                Log.d(TAG, "Prepare schema for " + revision);
-                if (mDowngrades.containsKey(revision)) {
-                  schema = merge(schema, mDowngrades.get(revision), revision);
-                }
-
-                if (revision == key) {
-                  return schema;
-                } else {
-                  mRevisions.put(revision, schema);
-                }
-              }
-            }
-          }
-      );
+  private final int mCurrentRevision;
+  private final RevisionCachePolicy mRevisionCachePolicy;
+  private final ImmutableSet<Integer> mReleaseRevisions;
+  private final ConcurrentNavigableMap<Integer, Schema> mCheckpoints = new ConcurrentSkipListMap<>();
+  private final Cache<Integer, Schema> mRevisions;
+  private final AtomicLong mHitCount = new AtomicLong();
+  private final AtomicLong mMissCount = new AtomicLong();
+  private final AtomicLong mRebuildCount = new AtomicLong();
+  private final AtomicInteger mActiveUpgrades = new AtomicInteger();
   private final ImmutableList<Release> mReleases;
+  private final DatabaseSettings mSettings;
+  private final ImmutableMap<Integer, DatabaseSettings> mSettingsDowngrades;
 
   private final Function<Integer, String> mRevisionDescriptionBuilder = new Function<Integer, String>() {
     @Override
@@ -119,34 +115,33 @@ public class Schemas {
     }
 
     for (String alteredTable : Sets.intersection(downgrades.keySet(), schema.keySet())) {
-      ImmutableList<? extends TableDefinitionOperation> mergedOperations = MERGER.merge(schema.get(alteredTable), downgrades.get(alteredTable), alteredTable, targetRevision, mRevisionDescriptionBuilder);
+      ImmutableList<? extends TableDefinitionOperation> mergedOperations = new TableOperationMerger(alteredTable, targetRevision, mRevisionDescriptionBuilder).merge(schema.get(alteredTable), downgrades.get(alteredTable));
       if (!mergedOperations.isEmpty()) {
         builder.put(alteredTable, mergedOperations);
       }
     }
 
     for (String addedTable : Sets.difference(downgrades.keySet(), schema.keySet())) {
-      builder.put(addedTable, CONVERTER.convert(downgrades.get(addedTable), addedTable, targetRevision, mRevisionDescriptionBuilder));
+      builder.put(addedTable, new DowngradeToDefinitionConverter(addedTable, targetRevision, mRevisionDescriptionBuilder).convert(downgrades.get(addedTable)));
     }
 
     return builder.build();
   }
 
-  private static final DowngradeToDefinitionConverter CONVERTER = new DowngradeToDefinitionConverter();
-
   private static class DowngradeToDefinitionConverter implements TableOperationVisitor {
 
-    private ImmutableList.Builder<TableDefinitionOperation> builder;
-    private String mTable;
-    private int mTargetRevision;
-    private Function<Integer, String> mRevisionDescriptionBuilder;
+    private final ImmutableList.Builder<TableDefinitionOperation> builder = ImmutableList.builder();
+    private final String mTable;
+    private final int mTargetRevision;
+    private final Function<Integer, String> mRevisionDescriptionBuilder;
 
-    public ImmutableList<? extends TableDefinitionOperation> convert(ImmutableList<? extends TableDowngradeOperation> downgrades, String table, int targetRevision, Function<Integer, String> revisionDescriptionBuilder) {
+    DowngradeToDefinitionConverter(String table, int targetRevision, Function<Integer, String> revisionDescriptionBuilder) {
       mTable = table;
       mTargetRevision = targetRevision;
       mRevisionDescriptionBuilder = revisionDescriptionBuilder;
-      builder = ImmutableList.builder();
+    }
 
+    public ImmutableList<? extends TableDefinitionOperation> convert(ImmutableList<? extends TableDowngradeOperation> downgrades) {
       for (TableDowngradeOperation downgrade : downgrades) {
         downgrade.accept(this);
       }
@@ -178,22 +173,36 @@ public class Schemas {
     public void visit(AddConstraint addConstraint) {
       builder.add(addConstraint);
     }
-  }
 
-  private static final TableOperationMerger MERGER = new TableOperationMerger();
+    @Override
+    public void visit(DropTableOption dropTableOption) {
+      throw new IllegalStateException();
+    }
+
+    @Override
+    public void visit(AddTableOption addTableOption) {
+      builder.add(addTableOption);
+    }
+
+    @Override
+    public void visit(AddGeneratedColumn addGeneratedColumn) {
+      builder.add(addGeneratedColumn);
+    }
+  }
 
   private static class TableOperationMerger implements TableOperationVisitor {
-    private String mTable;
-    private int mTargetRevision;
-    private Function<Integer, String> mRevisionDescriptionBuilder;
-    private Map<TableOperationId, TableDefinitionOperation> mMergedOperations;
+    private final String mTable;
+    private final int mTargetRevision;
+    private final Function<Integer, String> mRevisionDescriptionBuilder;
+    private final Map<TableOperationId, TableDefinitionOperation> mMergedOperations = Maps.newLinkedHashMap();
 
-    public ImmutableList<? extends TableDefinitionOperation> merge(ImmutableList<? extends TableDefinitionOperation> schema, ImmutableList<? extends TableDowngradeOperation> downgrades, String table, int targetRevision, Function<Integer, String> revisionDescriptionBuilder) {
+    TableOperationMerger(String table, int targetRevision, Function<Integer, String> revisionDescriptionBuilder) {
       mTable = table;
       mTargetRevision = targetRevision;
       mRevisionDescriptionBuilder = revisionDescriptionBuilder;
-      mMergedOperations = Maps.newHashMap();
+    }
 
+    public ImmutableList<? extends TableDefinitionOperation> merge(ImmutableList<? extends TableDefinitionOperation> schema, ImmutableList<? extends TableDowngradeOperation> downgrades) {
       for (TableOperation operation : schema) {
         operation.accept(this);
       }
@@ -239,58 +248,279 @@ public class Schemas {
     public void visit(AddConstraint addConstraint) {
       mMergedOperations.put(addConstraint.getId(), addConstraint);
     }
+
+    @Override
+    public void visit(DropTableOption dropTableOption) {
+      TableDefinitionOperation droppedOption = mMergedOperations.remove(dropTableOption.getId());
+      Preconditions.checkState(
+          droppedOption != null,
+          "Trying to drop non existing table option '%s' on table %s while building %s",
+          dropTableOption.mOptionDefinition, mTable, mRevisionDescriptionBuilder.apply(mTargetRevision)
+      );
+    }
+
+    @Override
+    public void visit(AddTableOption addTableOption) {
+      mMergedOperations.put(addTableOption.getId(), addTableOption);
+    }
+
+    @Override
+    public void visit(AddGeneratedColumn addGeneratedColumn) {
+      mMergedOperations.put(addGeneratedColumn.getId(), addGeneratedColumn);
+    }
   }
 
   private Schemas(int currentRevision,
       Map<String, ImmutableList<? extends TableDefinitionOperation>> tables,
       ImmutableMap<Integer, ImmutableMap<String, ImmutableList<? extends TableDowngradeOperation>>> downgrades,
       ImmutableMap<Integer, Migration[]> migrations,
-      ImmutableList<Release> releases) {
-    mRevisions.put(currentRevision, ImmutableMap.copyOf(tables));
+      ImmutableList<Release> releases,
+      RevisionCachePolicy revisionCachePolicy,
+      DatabaseSettings settings,
+      ImmutableMap<Integer, DatabaseSettings> settingsDowngrades) {
+    mCurrentRevision = currentRevision;
+    mSettings = settings;
+    mSettingsDowngrades = settingsDowngrades;
     mDowngrades = downgrades;
     mMigrations = migrations;
     mReleases = releases;
+    mRevisionCachePolicy = revisionCachePolicy;
+
+    ImmutableSet.Builder<Integer> releaseRevisions = ImmutableSet.builder();
+    for (Release release : releases) {
+      releaseRevisions.add(release.getSchemaVersion());
+    }
+    mReleaseRevisions = releaseRevisions.build();
+
+    mCheckpoints.put(currentRevision, new Schema(currentRevision, SchemaTables.intern(tables)));
+    mRevisions = CacheBuilder.newBuilder()
+        .maximumSize(revisionCachePolicy.getMaxMaterializedRevisions())
+        .build();
+  }
+
+  private Schema getRevision(final int revision) {
+    Schema schema = mCheckpoints.get(revision);
+    if (schema == null) {
+      schema = mRevisions.getIfPresent(revision);
+    }
+
+    if (schema != null) {
+      mHitCount.incrementAndGet();
+      return schema;
+    }
+
+    mMissCount.incrementAndGet();
+    final Map<Integer, Schema> intermediateRevisions = Maps.newLinkedHashMap();
+    try {
+      schema = mRevisions.get(revision, new Callable<Schema>() {
+        @Override
+        public Schema call() throws Exception {
+          return buildRevision(revision, intermediateRevisions);
+        }
+      });
+    } catch (ExecutionException e) {
+      throw new UncheckedExecutionException(e.getCause());
+    }
+
+    // the cache cannot be modified while it's loading the revision, so the
+    // revisions built on the way are cached once the load is finished, and
+    // the requested revision is touched again to be evicted after them
+    if (!intermediateRevisions.isEmpty()) {
+      for (Map.Entry<Integer, Schema> intermediateRevision : intermediateRevisions.entrySet()) {
+        mRevisions.asMap().putIfAbsent(intermediateRevision.getKey(), intermediateRevision.getValue());
+      }
+      Schema cached = mRevisions.asMap().putIfAbsent(revision, schema);
+      if (cached != null) {
+        schema = cached;
+      }
+    }
+    return schema;
+  }
+
+  private Schema buildRevision(int targetRevision, Map<Integer, Schema> intermediateRevisions) {
+    Map.Entry<Integer, Schema> start = getNearestMaterializedRevision(targetRevision);
+    Preconditions.checkState(start != null, "Trying to retrieve version %s, which is higher than current schema version", targetRevision);
+    Log.d(TAG, "Building migration to " + targetRevision + " (nearest schema prepared: " + start.getKey() + ")");
+
+    Schema schema = start.getValue();
+    for (int revision = start.getKey() - 1; revision >= targetRevision; --revision) {
+      Log.d(TAG, "Prepare schema for " + revision);
+      if (mDowngrades.containsKey(revision)) {
+        schema = new Schema(revision, SchemaTables.intern(merge(schema.mTables.mTableDefinitions, mDowngrades.get(revision), revision)));
+      } else {
+        schema = new Schema(revision, schema.mTables);
+      }
+      mRebuildCount.incrementAndGet();
+
+      if (isCheckpoint(revision)) {
+        Schema checkpoint = mCheckpoints.putIfAbsent(revision, schema);
+        if (checkpoint != null) {
+          schema = checkpoint;
+        }
+      } else if (revision > targetRevision) {
+        // the upgrade asks for the revisions one by one, so keep the ones
+        // built on the way instead of walking from the checkpoint again
+        intermediateRevisions.put(revision, schema);
+      }
+    }
+
+    return schema;
+  }
+
+  private Map.Entry<Integer, Schema> getNearestMaterializedRevision(int revision) {
+    Map.Entry<Integer, Schema> nearest = mCheckpoints.ceilingEntry(revision);
+
+    for (Map.Entry<Integer, Schema> cached : mRevisions.asMap().entrySet()) {
+      int cachedRevision = cached.getKey();
+      if (cachedRevision >= revision && (nearest == null || cachedRevision < nearest.getKey())) {
+        nearest = cached;
+      }
+    }
+
+    return nearest;
+  }
+
+  private boolean isCheckpoint(int revision) {
+    return mRevisionCachePolicy.isCheckpoint(revision) ||
+        (mRevisionCachePolicy.isCheckpointingReleases() && mReleaseRevisions.contains(revision));
+  }
+
+  public RevisionCacheStats getRevisionCacheStats() {
+    return new RevisionCacheStats(mHitCount.get(), mMissCount.get(), mRebuildCount.get(), mCheckpoints.size());
   }
 
   public Schema getSchema(int version) {
-    return new Schema(version);
+    return getRevision(version);
   }
 
   public Schema getCurrentSchema() {
     return getSchema(getCurrentRevisionNumber());
   }
 
+  /**
+   * Returns the database settings in the given revision: the settings from the
+   * current schema, overridden by the settings declared in the downgrades to
+   * the given revision or above.
+   */
+  public DatabaseSettings getSettings(int version) {
+    Preconditions.checkArgument(version <= mCurrentRevision, "Trying to retrieve settings for version %s, which is higher than current schema version", version);
+
+    DatabaseSettings settings = mSettings;
+    for (int revision = mCurrentRevision - 1; revision >= version; --revision) {
+      DatabaseSettings downgrade = mSettingsDowngrades.get(revision);
+      if (downgrade != null) {
+        settings = settings.overriddenBy(downgrade);
+      }
+    }
+    return settings;
+  }
+
+  public DatabaseSettings.Report applySettings(SQLiteDatabase database) {
+    return applySettings(AndroidDatabase.wrap(database));
+  }
+
+  /**
+   * Applies the settings of the current schema which differ from the database
+   * state. The upgrade applies them as well, but the changes which require
+   * VACUUM or journal mode change are skipped if the upgrade is performed in
+   * a transaction, like in SQLiteOpenHelper.onUpgrade. Call this method
+   * outside of the transaction, e.g. in SQLiteOpenHelper.onOpen, to complete
+   * them.
+   */
+  public DatabaseSettings.Report applySettings(Database database) {
+    return getSettings(mCurrentRevision).apply(database);
+  }
+
   public ImmutableSet<String> getTablesModifiedInRevision(int version) {
     return mDowngrades.containsKey(version - 1)
         ? mDowngrades.get(version - 1).keySet()
         : ImmutableSet.<String>of();
   }
 
+  ImmutableMap<Integer, ImmutableSet<String>> getModifiedTablesIndex() {
+    ImmutableMap.Builder<Integer, ImmutableSet<String>> builder = ImmutableMap.builder();
+    for (Map.Entry<Integer, ImmutableMap<String, ImmutableList<? extends TableDowngradeOperation>>> downgrade : mDowngrades.entrySet()) {
+      builder.put(downgrade.getKey() + 1, downgrade.getValue().keySet());
+    }
+    return builder.build();
+  }
+
   public class Schema {
-    private final ImmutableMap<String, ImmutableList<? extends TableDefinitionOperation>> mTableDefinitions;
+    // shared between all Schema instances with the same table definitions
+    private final SchemaTables mTables;
     private final int mVersion;
 
-    private Schema(int version) {
+    private Schema(int version, SchemaTables tables) {
       mVersion = version;
-      mTableDefinitions = mRevisions.getUnchecked(version);
+      mTables = tables;
     }
 
     public String getCreateTableStatement(String tableName) {
-      Preconditions.checkArgument(mTableDefinitions.containsKey(tableName), "Schema for version %s doesn't contain table %s", mVersion, tableName);
-      return CREATE_STATEMENT_BUILDER.build(tableName, mTableDefinitions.get(tableName));
+      Preconditions.checkArgument(mTables.mTableDefinitions.containsKey(tableName), "Schema for version %s doesn't contain table %s", mVersion, tableName);
+
+      String createTableStatement = mTables.mCreateTableStatements.get(tableName);
+      if (createTableStatement == null) {
+        createTableStatement = SchemaTables.internCreateTableStatement(
+            new TableCreateStatementBuilder().build(tableName, mTables.mTableDefinitions.get(tableName))
+        );
+        String memoizedCreateTableStatement = mTables.mCreateTableStatements.putIfAbsent(tableName, createTableStatement);
+        if (memoizedCreateTableStatement != null) {
+          createTableStatement = memoizedCreateTableStatement;
+        }
+      }
+      return createTableStatement;
     }
 
     public ImmutableSet<String> getTables() {
-      return mTableDefinitions.keySet();
+      return mTables.mTableDefinitions.keySet();
+    }
+
+    public DatabaseSettings getSettings() {
+      return Schemas.this.getSettings(mVersion);
+    }
+
+    /**
+     * Creates all tables in a single transaction, in the order of their foreign
+     * key dependencies, followed by indexes and triggers from the options. The
+     * page size and auto_vacuum of the empty database are set before the
+     * transaction begins. They take effect only outside of the caller's
+     * transaction on the database without the android_metadata table, e.g.
+     * opened with {@link SQLiteDatabase#NO_LOCALIZED_COLLATORS}; otherwise
+     * {@link Schemas#applySettings} performs them with VACUUM.
+     */
+    public CreateReport createAll(SQLiteDatabase db, CreateOptions options) {
+      return SchemaCreator.createAll(db, getCreateTableStatements(), getSettings(), options);
+    }
+
+    public CreateReport createAll(SQLiteDatabase db) {
+      return createAll(db, CreateOptions.DEFAULT);
+    }
+
+    Map<String, String> getCreateTableStatements() {
+      Map<String, String> createTableStatements = Maps.newHashMap();
+      for (String table : getTables()) {
+        createTableStatements.put(table, getCreateTableStatement(table));
+      }
+      return createTableStatements;
     }
 
     public ImmutableSet<String> getColumns(String table) {
-      return COLUMNS_GETTER.getColumns(mTableDefinitions.get(table));
+      ImmutableSet<String> columns = mTables.mColumns.get(table);
+      if (columns == null) {
+        columns = new ColumnsGetter().getColumns(mTables.mTableDefinitions.get(table));
+        ImmutableSet<String> memoizedColumns = mTables.mColumns.putIfAbsent(table, columns);
+        if (memoizedColumns != null) {
+          columns = memoizedColumns;
+        }
+      }
+      return columns;
     }
   }
 
-  private static final ColumnsGetter COLUMNS_GETTER = new ColumnsGetter();
-
+  /**
+   * Collects the column names from the table definition. The instance keeps the
+   * state of the current call, so it should not be shared between threads.
+   */
   public static class ColumnsGetter implements TableOperationVisitor {
 
     ImmutableSet.Builder<String> mBuilder;
@@ -329,29 +559,33 @@ public class Schemas {
     public void visit(AddConstraint addConstraint) {
       // ignore
     }
-  }
 
-  private final Supplier<Integer> mCurrentRevision = Suppliers.memoize(new Supplier<Integer>() {
     @Override
-    public Integer get() {
-      return Collections.max(mRevisions.asMap().keySet());
+    public void visit(DropTableOption dropTableOption) {
+      throw new IllegalStateException();
+    }
+
+    @Override
+    public void visit(AddTableOption addTableOption) {
+      // ignore
     }
-  });
 
-  public int getCurrentRevisionNumber() {
-    return mCurrentRevision.get();
+    @Override
+    public void visit(AddGeneratedColumn addGeneratedColumn) {
+      mBuilder.add(addGeneratedColumn.mColumnName);
+    }
   }
 
-  private static final TableCreateStatementBuilder CREATE_STATEMENT_BUILDER = new TableCreateStatementBuilder();
+  public int getCurrentRevisionNumber() {
+    return mCurrentRevision;
+  }
 
   private static class TableCreateStatementBuilder implements TableOperationVisitor {
-    private List<String> mColumns;
-    private List<String> mConstraints;
+    private final List<String> mColumns = Lists.newArrayList();
+    private final List<String> mConstraints = Lists.newArrayList();
+    private final Set<String> mOptions = Sets.newTreeSet();
 
     public String build(String tableName, ImmutableList<? extends TableDefinitionOperation> operations) {
-      mColumns = Lists.newArrayList();
-      mConstraints = Lists.newArrayList();
-
       for (TableOperation operation : operations) {
         operation.accept(this);
       }
@@ -360,7 +594,10 @@ public class Schemas {
       parts.addAll(mColumns);
       parts.addAll(mConstraints);
 
-      return "CREATE TABLE " + tableName + "(" + Joiner.on(", ").join(parts) + ")";
+      String createTableStatement = "CREATE TABLE " + tableName + "(" + Joiner.on(", ").join(parts) + ")";
+      return mOptions.isEmpty()
+          ? createTableStatement
+          : createTableStatement + " " + Joiner.on(", ").join(mOptions);
     }
 
     @Override
@@ -387,12 +624,28 @@ public class Schemas {
     public void visit(AddConstraint addConstraint) {
       mConstraints.add(addConstraint.mConstraintDefinition);
     }
+
+    @Override
+    public void visit(DropTableOption dropTableOption) {
+      throw new IllegalStateException("Received DropTableOption operation for building create statement");
+    }
+
+    @Override
+    public void visit(AddTableOption addTableOption) {
+      mOptions.add(addTableOption.mOptionDefinition);
+    }
+
+    @Override
+    public void visit(AddGeneratedColumn addGeneratedColumn) {
+      mColumns.add(addGeneratedColumn.mColumnName + " " + addGeneratedColumn.getColumnDefinition());
+    }
   }
 
   private enum OperationScope {
     Table,
     Column,
-    TableConstraint
+    TableConstraint,
+    TableOption
   }
 
   interface TableOperationVisitor {
@@ -401,6 +654,9 @@ public class Schemas {
     void visit(DropTable dropTable);
     void visit(DropConstraint dropConstraint);
     void visit(AddConstraint addConstraint);
+    void visit(DropTableOption dropTableOption);
+    void visit(AddTableOption addTableOption);
+    void visit(AddGeneratedColumn addGeneratedColumn);
   }
 
   public interface TableOperation {
@@ -459,6 +715,85 @@ public class Schemas {
     public void accept(TableOperationVisitor visitor) {
       visitor.visit(this);
     }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      AddColumn that = (AddColumn) o;
+
+      return Objects.equal(mColumnName, that.mColumnName) && Objects.equal(mColumnDefinition, that.mColumnDefinition);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(mColumnName, mColumnDefinition);
+    }
+  }
+
+  /**
+   * Column computed by SQLite from the expression over the other columns of
+   * the same row. The VIRTUAL column is computed when it's read, the STORED
+   * column when the row is written. Both can be indexed. Generated columns
+   * require SQLite 3.31.0 or newer.
+   * <p>
+   * The generated column is dropped with {@link DropColumn}. Changing the
+   * expression or the storage changes the table definition, so the table is
+   * rebuilt by the automatic migration.
+   */
+  public static class AddGeneratedColumn implements TableDefinitionOperation, TableDowngradeOperation {
+    public enum Storage {
+      VIRTUAL,
+      STORED
+    }
+
+    private final String mColumnName;
+    private final String mColumnType;
+    private final String mExpression;
+    private final Storage mStorage;
+    private final TableOperationId mId;
+
+    public AddGeneratedColumn(String columnName, String columnType, String expression, Storage storage) {
+      mColumnName = columnName;
+      mColumnType = Preconditions.checkNotNull(columnType);
+      mExpression = Preconditions.checkNotNull(expression);
+      mStorage = Preconditions.checkNotNull(storage);
+      mId = new TableOperationId(OperationScope.Column, columnName);
+    }
+
+    String getColumnDefinition() {
+      String definition = "GENERATED ALWAYS AS (" + mExpression + ") " + mStorage.name();
+      return mColumnType.isEmpty() ? definition : mColumnType + " " + definition;
+    }
+
+    @Override
+    public TableOperationId getId() {
+      return mId;
+    }
+
+    @Override
+    public void accept(TableOperationVisitor visitor) {
+      visitor.visit(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      AddGeneratedColumn that = (AddGeneratedColumn) o;
+
+      return Objects.equal(mColumnName, that.mColumnName) &&
+          Objects.equal(mColumnType, that.mColumnType) &&
+          Objects.equal(mExpression, that.mExpression) &&
+          mStorage == that.mStorage;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(mColumnName, mColumnType, mExpression, mStorage);
+    }
   }
 
   public static class DropColumn implements TableDowngradeOperation {
@@ -513,6 +848,21 @@ public class Schemas {
     public void accept(TableOperationVisitor visitor) {
       visitor.visit(this);
     }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      AddConstraint that = (AddConstraint) o;
+
+      return Objects.equal(mConstraintDefinition, that.mConstraintDefinition);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(mConstraintDefinition);
+    }
   }
 
   public static class DropConstraint implements TableDowngradeOperation {
@@ -535,6 +885,80 @@ public class Schemas {
     }
   }
 
+  /**
+   * Table option appended after the column definitions, i.e. WITHOUT ROWID or
+   * STRICT. Changing the options of the existing table requires rebuilding it.
+   */
+  public static class AddTableOption implements TableDefinitionOperation, TableDowngradeOperation {
+    private final String mOptionDefinition;
+    private final TableOperationId mId;
+
+    public AddTableOption(String optionDefinition) {
+      mOptionDefinition = normalizeTableOption(optionDefinition);
+      mId = new TableOperationId(OperationScope.TableOption, mOptionDefinition);
+    }
+
+    @Override
+    public TableOperationId getId() {
+      return mId;
+    }
+
+    @Override
+    public void accept(TableOperationVisitor visitor) {
+      visitor.visit(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      AddTableOption that = (AddTableOption) o;
+
+      return Objects.equal(mOptionDefinition, that.mOptionDefinition);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(mOptionDefinition);
+    }
+  }
+
+  public static class DropTableOption implements TableDowngradeOperation {
+    public final String mOptionDefinition;
+    private final TableOperationId mId;
+
+    public DropTableOption(String optionDefinition) {
+      mOptionDefinition = normalizeTableOption(optionDefinition);
+      mId = new TableOperationId(OperationScope.TableOption, mOptionDefinition);
+    }
+
+    @Override
+    public TableOperationId getId() {
+      return mId;
+    }
+
+    @Override
+    public void accept(TableOperationVisitor visitor) {
+      visitor.visit(this);
+    }
+  }
+
+  private static String normalizeTableOption(String optionDefinition) {
+    return optionDefinition.trim().replaceAll("\\s+", " ").toUpperCase(Locale.US);
+  }
+
+  public static AddTableOption withoutRowId() {
+    return new AddTableOption("WITHOUT ROWID");
+  }
+
+  /**
+   * STRICT tables require SQLite 3.37.0 or newer.
+   */
+  public static AddTableOption strict() {
+    return new AddTableOption("STRICT");
+  }
+
   public static class TableDefinition extends SchemaPart<TableDefinitionOperation> {
     public TableDefinition(String tableName, TableDefinitionOperation... operations) {
       this(tableName, ImmutableList.copyOf(operations));
@@ -591,6 +1015,9 @@ public class Schemas {
     private final ImmutableMap.Builder<Integer, ImmutableMap<String, ImmutableList<? extends TableDowngradeOperation>>> mDowngradesBuilder = ImmutableMap.builder();
     private final ImmutableMap.Builder<Integer, Migration[]> mMigrationsBuilder = ImmutableMap.builder();
     private final ImmutableList.Builder<Release> mReleasesBuilder = ImmutableList.builder();
+    private RevisionCachePolicy mRevisionCachePolicy = RevisionCachePolicy.DEFAULT;
+    private final DatabaseSettings mSettings;
+    private final ImmutableMap.Builder<Integer, DatabaseSettings> mSettingsDowngradesBuilder = ImmutableMap.builder();
 
     private Integer mCurrentOffset;
     private boolean mUpgradeToCurrentOffsetDefined;
@@ -600,19 +1027,29 @@ public class Schemas {
     private Release mCurrentRelease;
     private final Map<Integer, ImmutableMap<String, ImmutableList<? extends TableDowngradeOperation>>> mPendingDowngrades = Maps.newHashMap();
     private final Map<Integer, Migration[]> mPendingMigrations = Maps.newHashMap();
+    private final Map<Integer, DatabaseSettings> mPendingSettingsDowngrades = Maps.newHashMap();
 
-    private Builder(int offset, TableDefinition[] tables) {
+    private Builder(int offset, DatabaseSettings settings, TableDefinition[] tables) {
       for (TableDefinition table : tables) {
         Preconditions.checkArgument(mTables.put(table.mTableName, table.mOperations) == null, "Duplicate table " + table.mTableName + " in current schema");
       }
 
+      mSettings = Preconditions.checkNotNull(settings);
       mCurrentRevisionOffset = offset;
       mCurrentOffset = offset;
       mUpgradeToCurrentOffsetDefined = false;
     }
 
     public static OldSchemasBuilder currentSchema(int revision, TableDefinition... tables) {
-      return new Builder(revision, tables).new OldSchemasBuilder();
+      return currentSchema(revision, DatabaseSettings.NONE, tables);
+    }
+
+    /**
+     * Defines the current schema together with the database settings, which
+     * are applied at the end of the upgrade.
+     */
+    public static OldSchemasBuilder currentSchema(int revision, DatabaseSettings settings, TableDefinition... tables) {
+      return new Builder(revision, settings, tables).new OldSchemasBuilder();
     }
 
     public class OldSchemasBuilder {
@@ -639,6 +1076,19 @@ public class Schemas {
         return this;
       }
 
+      /**
+       * Defines the downgrade together with the database settings used in the
+       * given revision. The settings which are not declared are the same as
+       * in the following revision.
+       */
+      public OldSchemasBuilder downgradeTo(int offset, DatabaseSettings settings, TableDowngrade... tableDowngrades) {
+        Preconditions.checkNotNull(settings);
+        downgradeTo(offset, tableDowngrades);
+        mPendingSettingsDowngrades.put(offset, settings);
+
+        return this;
+      }
+
       public OldSchemasBuilder upgradeTo(int offset, Migration... migrations) {
         Preconditions.checkArgument(offset > 0, "In upgradeTo(%s, ...): Upgrade offset should be greater than 0", offset);
         Preconditions.checkArgument(migrations != null, "In upgradeTo(%s, ...): migrations cannot be null", offset);
@@ -703,6 +1153,11 @@ public class Schemas {
         return this;
       }
 
+      public OldSchemasBuilder revisionCachePolicy(RevisionCachePolicy revisionCachePolicy) {
+        mRevisionCachePolicy = Preconditions.checkNotNull(revisionCachePolicy);
+        return this;
+      }
+
       public Schemas build() {
         processPendingSchemaParts(INITIAL_DB_SCHEMA);
         return Builder.this.build();
@@ -732,6 +1187,11 @@ public class Schemas {
         }
         mPendingDowngrades.clear();
 
+        for (Integer downgradeOffset : mPendingSettingsDowngrades.keySet()) {
+          mSettingsDowngradesBuilder.put(downgradeOffset + baseRevisionNumber, mPendingSettingsDowngrades.get(downgradeOffset));
+        }
+        mPendingSettingsDowngrades.clear();
+
         for (Integer migrationOffset : mPendingMigrations.keySet()) {
           int revisionNumber = migrationOffset + baseRevisionNumber;
           if (mLastRelease != null) {
@@ -754,7 +1214,10 @@ public class Schemas {
           mTables,
           mDowngradesBuilder.build(),
           mMigrationsBuilder.build(),
-          mReleasesBuilder.build());
+          mReleasesBuilder.build(),
+          mRevisionCachePolicy,
+          mSettings,
+          mSettingsDowngradesBuilder.build());
     }
   }
 
@@ -763,30 +1226,74 @@ public class Schemas {
   }
 
   static final MigrationsHelper AUTO_MIGRATION_HELPER = new MigrationsHelper();
-  static final Migration AUTO_MIGRATION = new Migration() {
+  static final Migration AUTO_MIGRATION = new AbstractDatabaseMigration() {
     @Override
-    public void apply(int version, SQLiteDatabase database, Schemas schemas, Context context) {
+    public void apply(int version, Database database, Schemas schemas, Context context) {
       ImmutableSet<String> modifiedTables = schemas.getTablesModifiedInRevision(version);
       if (!modifiedTables.isEmpty()) {
         ImmutableSet<String> newTables = schemas.getSchema(version).getTables();
         ImmutableSet<String> oldTables = schemas.getSchema(version - 1).getTables();
 
-        SetView<String> addedTables = Sets.difference(newTables, oldTables);
-        Migrations.create(addedTables).apply(version, database, schemas, context);
+        Schema newSchema = schemas.getSchema(version);
+        Schema oldSchema = schemas.getSchema(version - 1);
 
+        SetView<String> addedTables = Sets.difference(newTables, oldTables);
         SetView<String> droppedTables = Sets.difference(oldTables, newTables);
-        Migrations.drop(droppedTables).apply(version, database, schemas, context);
-
         SetView<String> commonTables = Sets.intersection(oldTables, newTables);
         SetView<String> alteredTables = Sets.intersection(commonTables, modifiedTables);
 
-        for (String table : alteredTables) {
-          SimpleTableMigration.of(table).using(AUTO_MIGRATION_HELPER).apply(version, database, schemas, context);
+        ForeignKeySuspension foreignKeys = ForeignKeySuspension.begin(database);
+        try {
+          Migrations.createTables(sortByDependencies(newSchema, addedTables)).apply(version, database, schemas, context);
+          Migrations.dropTables(sortByDependencies(oldSchema, droppedTables).reverse()).apply(version, database, schemas, context);
+
+          for (String table : sortByDependencies(newSchema, alteredTables)) {
+            SimpleTableMigration.of(table).using(AUTO_MIGRATION_HELPER).apply(version, database, schemas, context);
+          }
+        } finally {
+          foreignKeys.end();
         }
+
+        foreignKeys.check(getForeignKeyCheckedTables(newSchema, modifiedTables));
       }
     }
   };
 
+  /**
+   * Orders the tables so that every table comes after the tables it
+   * references, so the parent tables are created or rebuilt first.
+   */
+  private static ImmutableList<String> sortByDependencies(Schema schema, Set<String> tables) {
+    Map<String, String> createTableStatements = Maps.newHashMap();
+    for (String table : tables) {
+      createTableStatements.put(table, schema.getCreateTableStatement(table));
+    }
+    return TableDependencies.sortByDependencies(createTableStatements);
+  }
+
+  /**
+   * Returns the modified tables which exist in the schema and the tables which
+   * reference any of the modified tables.
+   */
+  private static ImmutableSet<String> getForeignKeyCheckedTables(Schema schema, Set<String> modifiedTables) {
+    Set<String> modifiedTablesLowerCase = Sets.newHashSet();
+    for (String table : modifiedTables) {
+      modifiedTablesLowerCase.add(table.toLowerCase(Locale.US));
+    }
+
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    for (String table : schema.getTables()) {
+      boolean checked = modifiedTablesLowerCase.contains(table.toLowerCase(Locale.US));
+      for (String referencedTable : TableDependencies.getReferencedTables(schema.getCreateTableStatement(table))) {
+        checked |= modifiedTablesLowerCase.contains(referencedTable.toLowerCase(Locale.US));
+      }
+      if (checked) {
+        builder.add(table);
+      }
+    }
+    return builder.build();
+  }
+
   private static final Migration[] AUTO_MIGRATIONS = new Migration[] { AUTO_MIGRATION };
 
   Migration[] to(int revision) {
@@ -805,18 +1312,204 @@ public class Schemas {
   }
 
   public void upgrade(Context context, SQLiteDatabase database, int fromVersion, int toVersion) {
-    for (int version = fromVersion + 1; version <= toVersion; version++) {
-      Log.d(TAG, "Perform migration to " + version);
-      for (Migration migration : to(version)) {
-        migration.apply(version, database, this, context);
+    upgrade(context, AndroidDatabase.wrap(database), fromVersion, toVersion);
+  }
+
+  public void upgrade(Context context, SQLiteDatabase database, int fromVersion, int toVersion, UpgradeOptions options) {
+    upgrade(context, AndroidDatabase.wrap(database), fromVersion, toVersion, options);
+  }
+
+  /**
+   * Performs the upgrade on any {@link Database}. Migrations which don't
+   * implement {@link DatabaseMigration} can only be applied to the
+   * {@link AndroidDatabase}.
+   */
+  public void upgrade(Context context, Database database, int fromVersion, int toVersion) {
+    upgrade(context, database, fromVersion, toVersion, UpgradeOptions.DEFAULT);
+  }
+
+  public void upgrade(Context context, Database database, int fromVersion, int toVersion, UpgradeOptions options) {
+    beginUpgrade();
+    try {
+      if (options.isResumable()) {
+        upgradeResumable(context, database, fromVersion, toVersion, options);
+      } else {
+        if (options.isRehearsal() && fromVersion < toVersion) {
+          UpgradeRehearsal.rehearse(this, context, database, fromVersion, toVersion, options);
+        }
+
+        UpgradeTracker tracker = UpgradeTracker.begin(options, database, this, fromVersion, toVersion);
+        try {
+          for (int version = fromVersion + 1; version <= toVersion; version++) {
+            applyMigrations(version, tracker.wrap(database), context, tracker);
+          }
+          if (fromVersion < toVersion) {
+            applySettings(database, toVersion);
+            tracker.onUpgradeFinished(database);
+          }
+        } finally {
+          tracker.end();
+        }
+      }
+    } finally {
+      endUpgrade();
+    }
+  }
+
+  /**
+   * Performs the upgrade on the given executor. The upgrade cannot be
+   * interrupted once started, so cancelling the returned future has effect
+   * only if the upgrade is still waiting for execution. Use
+   * {@link UpgradeOptions.Builder#listener(UpgradeListener)} to follow the
+   * upgrade progress.
+   * <p>
+   * The options have to be {@link UpgradeOptions.Builder#resumable(boolean)
+   * resumable}, so every revision is committed in its own transaction and the
+   * database version is set at the end of the upgrade; the database must not
+   * be in a transaction.
+   */
+  public ListenableFuture<Void> upgradeAsync(final Context context, final Database database, final int fromVersion, final int toVersion, final UpgradeOptions options, Executor executor) {
+    Preconditions.checkArgument(options.isResumable(), "Asynchronous upgrade requires the resumable upgrade options");
+    ListenableFutureTask<Void> task = ListenableFutureTask.create(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        upgrade(context, database, fromVersion, toVersion, options);
+        return null;
+      }
+    });
+    executor.execute(task);
+    return task;
+  }
+
+  public ListenableFuture<Void> upgradeAsync(Context context, SQLiteDatabase database, int fromVersion, int toVersion, UpgradeOptions options, Executor executor) {
+    return upgradeAsync(context, AndroidDatabase.wrap(database), fromVersion, toVersion, options, executor);
+  }
+
+  /**
+   * Performs the upgrade on the in-memory database with the same schema as
+   * the given database, but without any data, and returns the executed
+   * statements. The given database is not modified. Throws
+   * IllegalStateException if any migration fails. Note that the migrations
+   * are really executed, so they should not have any side effects other than
+   * modifying the database. The statements of the plain {@link Migration}s,
+   * which are applied directly to the SQLiteDatabase, are not recorded; such
+   * migrations are listed in {@link StatementRecording#getUnrecordedMigrations()}.
+   */
+  public StatementRecording rehearse(Context context, Database database, int fromVersion, int toVersion) {
+    return UpgradeRehearsal.rehearse(this, context, database, fromVersion, toVersion, UpgradeOptions.DEFAULT);
+  }
+
+  public StatementRecording rehearse(Context context, SQLiteDatabase database, int fromVersion, int toVersion) {
+    return rehearse(context, AndroidDatabase.wrap(database), fromVersion, toVersion);
+  }
+
+  private void upgradeResumable(Context context, Database database, int fromVersion, int toVersion, UpgradeOptions options) {
+    Preconditions.checkState(!database.inTransaction(), "Resumable upgrade cannot be performed inside a transaction");
+    if (fromVersion >= toVersion) {
+      return;
+    }
+
+    MigrationsHelper.recoverInterruptedMigrations(database);
+
+    int startVersion = UpgradeProgress.getStartRevision(database, fromVersion, toVersion);
+    if (startVersion != fromVersion) {
+      Log.i(TAG, "Resuming interrupted upgrade from " + fromVersion + " to " + toVersion + " after revision " + startVersion);
+    }
+
+    if (options.isRehearsal()) {
+      UpgradeRehearsal.rehearse(this, context, database, startVersion, toVersion, options);
+    }
+
+    UpgradeTracker tracker = UpgradeTracker.begin(options, database, this, startVersion, toVersion);
+    try {
+      for (int version = startVersion + 1; version <= toVersion; version++) {
+        database.beginTransaction();
+        try {
+          applyMigrations(version, tracker.wrap(database), context, tracker);
+          if (version == toVersion) {
+            UpgradeProgress.clear(database);
+            database.setVersion(toVersion);
+          } else {
+            UpgradeProgress.setCompleted(database, fromVersion, version);
+          }
+          database.setTransactionSuccessful();
+        } finally {
+          database.endTransaction();
+        }
+      }
+      applySettings(database, toVersion);
+      tracker.onUpgradeFinished(database);
+    } finally {
+      tracker.end();
+    }
+  }
+
+  private void applySettings(Database database, int version) {
+    DatabaseSettings settings = getSettings(version);
+    if (!settings.equals(DatabaseSettings.NONE)) {
+      DatabaseSettings.Report report = settings.apply(database);
+      if (!report.getSkippedActions().isEmpty()) {
+        Log.w(TAG, "Skipped " + report.getSkippedActions() + " inside a transaction, call applySettings outside of it to complete them");
+      }
+    }
+  }
+
+  private void applyMigrations(int version, Database database, Context context, UpgradeTracker tracker) {
+    Log.d(TAG, "Perform migration to " + version);
+    tracker.onRevisionStarted(version);
+    for (Migration migration : to(version)) {
+      tracker.onMigrationStarted(migration);
+      apply(migration, version, database, context);
+      tracker.onMigrationFinished(migration);
+    }
+    tracker.onRevisionFinished(version);
+  }
+
+  /**
+   * The revisions cache is cleared when the last of the concurrent upgrades
+   * finishes, so the upgrades running in parallel share the materialized
+   * revisions.
+   */
+  void beginUpgrade() {
+    mActiveUpgrades.incrementAndGet();
+  }
+
+  void endUpgrade() {
+    if (mActiveUpgrades.decrementAndGet() == 0) {
+      clearRevisionsCache();
+    }
+  }
+
+  private void apply(Migration migration, int version, Database database, Context context) {
+    Database unwrappedDatabase = ForwardingDatabase.unwrap(database);
+    if (migration instanceof DatabaseMigration) {
+      ((DatabaseMigration) migration).apply(version, database, this, context);
+    } else if (unwrappedDatabase instanceof AndroidDatabase) {
+      long start = System.nanoTime();
+      try {
+        migration.apply(version, ((AndroidDatabase) unwrappedDatabase).getSQLiteDatabase(), this, context);
+      } finally {
+        addUnrecordedMigration(database, "Migration to revision " + version + ": " + migration, System.nanoTime() - start);
+      }
+    } else {
+      throw new IllegalStateException("Migration to revision " + version + " requires SQLiteDatabase, implement DatabaseMigration to apply it to " + database);
+    }
+  }
+
+  /**
+   * The plain Migration bypasses the {@link RecordingDatabase}s wrapping the
+   * database, so they are notified that their recordings are incomplete.
+   */
+  private static void addUnrecordedMigration(Database database, String migration, long durationNanos) {
+    while (database instanceof ForwardingDatabase) {
+      if (database instanceof RecordingDatabase) {
+        ((RecordingDatabase) database).addUnrecordedMigration(migration, durationNanos);
       }
+      database = ((ForwardingDatabase) database).getDelegate();
     }
-    clearRevisionsCache();
   }
 
   private void clearRevisionsCache() {
-    Set<Integer> cachedRevisions = Sets.newHashSet(mRevisions.asMap().keySet());
-    cachedRevisions.remove(mCurrentRevision.get());
-    mRevisions.invalidateAll(cachedRevisions);
+    mRevisions.invalidateAll();
   }
 }
@@ -17,11 +17,15 @@
 package com.getbase.android.schema;
 
 import com.getbase.android.schema.MigrationsHelper.TableMigration;
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.getbase.android.schema.driver.Database;
+import com.google.common.base.Predicate;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
-public class SimpleTableMigration implements Migration {
+public class SimpleTableMigration implements DatabaseMigration {
   private final String mTableName;
   private final TableMigration.Builder mMigrationBuilder;
   private final MigrationsHelper mMigrationsHelper;
@@ -34,6 +38,11 @@ public class SimpleTableMigration implements Migration {
 
   @Override
   public void apply(int version, SQLiteDatabase database, Schemas schemas, Context context) {
+    apply(version, AndroidDatabase.wrap(database), schemas, context);
+  }
+
+  @Override
+  public void apply(int version, Database database, Schemas schemas, Context context) {
     mMigrationsHelper.performMigrations(database,
         mMigrationBuilder
             .to(schemas.getSchema(version).getCreateTableStatement(mTableName))
@@ -59,6 +68,21 @@ public class SimpleTableMigration implements Migration {
       return this;
     }
 
+    public Builder withTransform(RowTransformer transformer, String... transformedColumns) {
+      mMigrationBuilder.withTransform(transformer, transformedColumns);
+      return this;
+    }
+
+    public Builder withFilter(Predicate<Cursor> filter) {
+      mMigrationBuilder.withFilter(filter);
+      return this;
+    }
+
+    public Builder withBatchSize(int batchSize) {
+      mMigrationBuilder.withBatchSize(batchSize);
+      return this;
+    }
+
     public SimpleTableMigration using(MigrationsHelper migrationsHelper) {
       return new SimpleTableMigration(mTableName, mMigrationBuilder, migrationsHelper);
     }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.getbase.android.schema.driver.Database;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Reclaims the space left on the freelist by the tables rebuilt during the
+ * upgrade and truncates the write-ahead log.
+ * <p>
+ * If the database uses incremental auto_vacuum, a single PRAGMA
+ * incremental_vacuum step releases up to the configured number of pages, so
+ * every call holds the write lock for a bounded time; call it again while
+ * {@link Report#getAfter()} has free pages left. Otherwise the whole database is vacuumed when the free pages make up at
+ * least the configured fraction of the file. Finally, the WAL is truncated
+ * with PRAGMA wal_checkpoint(TRUNCATE). The VACUUM and the checkpoint cannot
+ * be performed inside a transaction, so they are skipped in this case; use
+ * {@link #reclaimAsync(Database, Executor)} to perform them later, for example
+ * when the app is idle. Every report is also passed to the {@link Listener},
+ * which is the only way to get it when the reclaimer runs at the end of the
+ * upgrade.
+ */
+public final class SpaceReclaimer {
+  private static final String TAG = SpaceReclaimer.class.getSimpleName();
+
+  private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+  public enum Action {
+    INCREMENTAL_VACUUM,
+    VACUUM,
+    WAL_CHECKPOINT
+  }
+
+  private final float mVacuumThreshold;
+  private final int mIncrementalVacuumPages;
+  private final boolean mWalCheckpoint;
+  private final Listener mListener;
+
+  public interface Listener {
+    /**
+     * Called on the reclaiming thread after every {@link #reclaim(Database)}.
+     */
+    void onSpaceReclaimed(Report report);
+  }
+
+  private static final Listener NO_LISTENER = new Listener() {
+    @Override
+    public void onSpaceReclaimed(Report report) {
+    }
+  };
+
+  private SpaceReclaimer(float vacuumThreshold, int incrementalVacuumPages, boolean walCheckpoint, Listener listener) {
+    mVacuumThreshold = vacuumThreshold;
+    mIncrementalVacuumPages = incrementalVacuumPages;
+    mWalCheckpoint = walCheckpoint;
+    mListener = listener;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public Report reclaim(SQLiteDatabase db) {
+    return reclaim(AndroidDatabase.wrap(db));
+  }
+
+  public Report reclaim(Database db) {
+    long start = System.nanoTime();
+    SpaceUsage before = SpaceUsage.measure(db);
+    EnumSet<Action> actions = EnumSet.noneOf(Action.class);
+
+    if (before.getFreePages() > 0) {
+      if (queryLong(db, "PRAGMA auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+        executePragma(db, "PRAGMA incremental_vacuum(" + mIncrementalVacuumPages + ")");
+        actions.add(Action.INCREMENTAL_VACUUM);
+      } else if (before.getFreeFraction() >= mVacuumThreshold) {
+        if (db.inTransaction()) {
+          Log.d(TAG, "Skipping VACUUM inside a transaction, " + before);
+        } else {
+          db.execSQL("VACUUM");
+          actions.add(Action.VACUUM);
+        }
+      }
+    }
+
+    if (mWalCheckpoint && isWal(db)) {
+      if (db.inTransaction()) {
+        Log.d(TAG, "Skipping WAL checkpoint inside a transaction");
+      } else {
+        executePragma(db, "PRAGMA wal_checkpoint(TRUNCATE)");
+        actions.add(Action.WAL_CHECKPOINT);
+      }
+    }
+
+    Report report = new Report(before, SpaceUsage.measure(db), ImmutableSet.copyOf(actions), System.nanoTime() - start);
+    Log.d(TAG, "Reclaimed space: " + report);
+    mListener.onSpaceReclaimed(report);
+    return report;
+  }
+
+  /**
+   * Reclaims the space on the given executor, e.g. the single thread
+   * executor fed when the app is idle.
+   */
+  public ListenableFuture<Report> reclaimAsync(final Database db, Executor executor) {
+    ListenableFutureTask<Report> task = ListenableFutureTask.create(new Callable<Report>() {
+      @Override
+      public Report call() throws Exception {
+        return reclaim(db);
+      }
+    });
+    executor.execute(task);
+    return task;
+  }
+
+  public ListenableFuture<Report> reclaimAsync(SQLiteDatabase db, Executor executor) {
+    return reclaimAsync(AndroidDatabase.wrap(db), executor);
+  }
+
+  private static boolean isWal(Database db) {
+    Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+    try {
+      return cursor.moveToFirst() && "wal".equals(cursor.getString(0).toLowerCase(Locale.US));
+    } finally {
+      cursor.close();
+    }
+  }
+
+  static long queryLong(Database db, String sql) {
+    Cursor cursor = db.rawQuery(sql, null);
+    try {
+      return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Executes the pragma which returns rows, which is not allowed by the
+   * SQLiteDatabase.execSQL.
+   */
+  private static void executePragma(Database db, String pragma) {
+    Cursor cursor = db.rawQuery(pragma, null);
+    try {
+      cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("vacuumThreshold", mVacuumThreshold)
+        .add("incrementalVacuumPages", mIncrementalVacuumPages)
+        .add("walCheckpoint", mWalCheckpoint)
+        .toString();
+  }
+
+  /**
+   * Page counts of the database file.
+   */
+  public static final class SpaceUsage {
+    private final long mPageCount;
+    private final long mFreePages;
+    private final long mPageSize;
+
+    SpaceUsage(long pageCount, long freePages, long pageSize) {
+      mPageCount = pageCount;
+      mFreePages = freePages;
+      mPageSize = pageSize;
+    }
+
+    public static SpaceUsage measure(SQLiteDatabase db) {
+      return measure(AndroidDatabase.wrap(db));
+    }
+
+    public static SpaceUsage measure(Database db) {
+      return new SpaceUsage(
+          queryLong(db, "PRAGMA page_count"),
+          queryLong(db, "PRAGMA freelist_count"),
+          queryLong(db, "PRAGMA page_size")
+      );
+    }
+
+    public long getPageCount() {
+      return mPageCount;
+    }
+
+    public long getFreePages() {
+      return mFreePages;
+    }
+
+    public long getPageSize() {
+      return mPageSize;
+    }
+
+    /**
+     * Fraction of the database file taken by the free pages.
+     */
+    public float getFreeFraction() {
+      return mPageCount > 0 ? (float) mFreePages / mPageCount : 0;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("pageCount", mPageCount)
+          .add("freePages", mFreePages)
+          .add("pageSize", mPageSize)
+          .toString();
+    }
+  }
+
+  /**
+   * Summary of the {@link #reclaim(Database)} call.
+   */
+  public static final class Report {
+    private final SpaceUsage mBefore;
+    private final SpaceUsage mAfter;
+    private final ImmutableSet<Action> mActions;
+    private final long mDurationNanos;
+
+    Report(SpaceUsage before, SpaceUsage after, ImmutableSet<Action> actions, long durationNanos) {
+      mBefore = before;
+      mAfter = after;
+      mActions = actions;
+      mDurationNanos = durationNanos;
+    }
+
+    public SpaceUsage getBefore() {
+      return mBefore;
+    }
+
+    public SpaceUsage getAfter() {
+      return mAfter;
+    }
+
+    public ImmutableSet<Action> getActions() {
+      return mActions;
+    }
+
+    public long getDurationNanos() {
+      return mDurationNanos;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("before", mBefore)
+          .add("after", mAfter)
+          .add("actions", mActions)
+          .add("durationMs", mDurationNanos / 1000000)
+          .toString();
+    }
+  }
+
+  public static class Builder {
+    private float mVacuumThreshold = 0.25f;
+    private int mIncrementalVacuumPages = 256;
+    private boolean mWalCheckpoint = true;
+    private Listener mListener = NO_LISTENER;
+
+    Builder() {
+    }
+
+    /**
+     * VACUUM the database without incremental auto_vacuum when the free
+     * pages make up at least the given fraction of the file. 0.25 by
+     * default; use value greater than 1 to never VACUUM.
+     */
+    public Builder vacuumThreshold(float vacuumThreshold) {
+      checkArgument(vacuumThreshold >= 0, "Vacuum threshold cannot be negative");
+      mVacuumThreshold = vacuumThreshold;
+      return this;
+    }
+
+    /**
+     * Maximum number of pages released by a single {@link #reclaim(Database)}
+     * call with PRAGMA incremental_vacuum. 256 by default.
+     */
+    public Builder incrementalVacuumPages(int incrementalVacuumPages) {
+      checkArgument(incrementalVacuumPages > 0, "Incremental vacuum step must be positive");
+      mIncrementalVacuumPages = incrementalVacuumPages;
+      return this;
+    }
+
+    /**
+     * Truncate the write-ahead log after reclaiming the space. Enabled by
+     * default, has no effect if the database doesn't use WAL.
+     */
+    public Builder walCheckpoint(boolean walCheckpoint) {
+      mWalCheckpoint = walCheckpoint;
+      return this;
+    }
+
+    public Builder listener(Listener listener) {
+      mListener = checkNotNull(listener);
+      return this;
+    }
+
+    public SpaceReclaimer build() {
+      return new SpaceReclaimer(mVacuumThreshold, mIncrementalVacuumPages, mWalCheckpoint, mListener);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Foreign key dependencies between tables, extracted from the REFERENCES
+ * clauses of their CREATE TABLE statements.
+ */
+final class TableDependencies {
+  private static final Pattern REFERENCES = Pattern.compile(
+      "\\bREFERENCES\\s+(?:\"([^\"]+)\"|`([^`]+)`|\\[([^\\]]+)\\]|([A-Za-z_][\\w$]*))",
+      Pattern.CASE_INSENSITIVE
+  );
+
+  private TableDependencies() {
+  }
+
+  static ImmutableSet<String> getReferencedTables(String createTableStatement) {
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+
+    Matcher matcher = REFERENCES.matcher(createTableStatement);
+    while (matcher.find()) {
+      for (int group = 1; group <= matcher.groupCount(); group++) {
+        if (matcher.group(group) != null) {
+          builder.add(matcher.group(group));
+          break;
+        }
+      }
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Orders the tables so that every table comes after the tables it references.
+   * Tables are otherwise ordered by name, tables with circular references are
+   * appended at the end.
+   */
+  static ImmutableList<String> sortByDependencies(Map<String, String> createTableStatements) {
+    Map<String, String> tablesByLowerCaseName = Maps.newHashMap();
+    for (String table : createTableStatements.keySet()) {
+      tablesByLowerCaseName.put(table.toLowerCase(Locale.US), table);
+    }
+
+    TreeMap<String, Set<String>> pendingDependencies = Maps.newTreeMap();
+    for (Map.Entry<String, String> table : createTableStatements.entrySet()) {
+      Set<String> dependencies = Sets.newHashSet();
+      for (String referencedTable : getReferencedTables(table.getValue())) {
+        String dependency = tablesByLowerCaseName.get(referencedTable.toLowerCase(Locale.US));
+        if (dependency != null && !dependency.equals(table.getKey())) {
+          dependencies.add(dependency);
+        }
+      }
+      pendingDependencies.put(table.getKey(), dependencies);
+    }
+
+    List<String> orderedTables = Lists.newArrayListWithCapacity(createTableStatements.size());
+    boolean progress = true;
+    while (progress && !pendingDependencies.isEmpty()) {
+      progress = false;
+      for (String table : Lists.newArrayList(pendingDependencies.keySet())) {
+        Set<String> dependencies = pendingDependencies.get(table);
+        dependencies.retainAll(pendingDependencies.keySet());
+        if (dependencies.isEmpty()) {
+          orderedTables.add(table);
+          pendingDependencies.remove(table);
+          progress = true;
+        }
+      }
+    }
+    orderedTables.addAll(pendingDependencies.keySet());
+
+    return ImmutableList.copyOf(orderedTables);
+  }
+}
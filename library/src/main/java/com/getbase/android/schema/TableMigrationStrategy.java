@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+/**
+ * The way the {@link MigrationsHelper} migrated the table.
+ */
+public enum TableMigrationStrategy {
+  /**
+   * The table was recreated and the rows were copied from the old table.
+   */
+  REBUILD,
+
+  /**
+   * The new columns were appended with ALTER TABLE ... ADD COLUMN.
+   */
+  ALTER,
+
+  /**
+   * The table definition was replaced in sqlite_master without copying the
+   * rows, because only the constraints or the declared types with the same
+   * type affinity were changed.
+   */
+  SCHEMA_REWRITE,
+
+  /**
+   * The table already had the requested definition.
+   */
+  SKIPPED
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.getbase.android.schema.driver.Statement;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Values produced by the {@link RowTransformer}. The instance is reused for
+ * all rows of the migrated table, and the values are bound directly to the
+ * compiled insert statement.
+ */
+public final class TransformedRow {
+  private final Statement mStatement;
+  private final ImmutableMap<String, Integer> mBindIndexes;
+
+  TransformedRow(Statement statement, ImmutableMap<String, Integer> bindIndexes) {
+    mStatement = statement;
+    mBindIndexes = bindIndexes;
+  }
+
+  public TransformedRow putNull(String column) {
+    mStatement.bindNull(getBindIndex(column));
+    return this;
+  }
+
+  public TransformedRow put(String column, long value) {
+    mStatement.bindLong(getBindIndex(column), value);
+    return this;
+  }
+
+  public TransformedRow put(String column, double value) {
+    mStatement.bindDouble(getBindIndex(column), value);
+    return this;
+  }
+
+  public TransformedRow put(String column, String value) {
+    if (value == null) {
+      return putNull(column);
+    }
+    mStatement.bindString(getBindIndex(column), value);
+    return this;
+  }
+
+  public TransformedRow put(String column, byte[] value) {
+    if (value == null) {
+      return putNull(column);
+    }
+    mStatement.bindBlob(getBindIndex(column), value);
+    return this;
+  }
+
+  private int getBindIndex(String column) {
+    Integer index = mBindIndexes.get(column);
+    checkArgument(index != null, "Column %s is not declared as transformed column", column);
+    return index;
+  }
+}
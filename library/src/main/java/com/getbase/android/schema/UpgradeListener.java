@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+/**
+ * Receives the progress of the upgrade registered with
+ * {@link UpgradeOptions.Builder#listener(UpgradeListener)}. The callbacks are
+ * invoked on the thread performing the upgrade, in the middle of the upgrade
+ * transaction, so they should return quickly and must not touch the upgraded
+ * database.
+ */
+public interface UpgradeListener {
+  void onRevisionStarted(int revision);
+
+  /**
+   * Called after the table was rebuilt by the {@link MigrationsHelper}.
+   */
+  void onTableMigrated(int revision, String table);
+
+  void onRevisionFinished(int revision);
+
+  /**
+   * @param fraction completed part of the upgrade, from 0 to 1.
+   * @param estimatedRemainingMillis estimated time left, based on the rows
+   * count of the tables still to be migrated and the rate of the work done so
+   * far, or -1 if it cannot be estimated yet.
+   */
+  void onProgress(float fraction, long estimatedRemainingMillis);
+}
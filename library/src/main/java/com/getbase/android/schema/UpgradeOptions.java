@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Options of the {@link Schemas#upgrade(android.content.Context, com.getbase.android.schema.driver.Database, int, int, UpgradeOptions)}.
+ */
+public final class UpgradeOptions {
+  public static final UpgradeOptions DEFAULT = builder().build();
+
+  private final boolean mResumable;
+  private final UpgradeListener mListener;
+  private final MigrationListener mMigrationListener;
+  private final boolean mInPlaceMigrations;
+  private final boolean mRehearsal;
+  private final UpgradeVerifier mVerifier;
+  private final SpaceReclaimer mSpaceReclaimer;
+
+  private UpgradeOptions(boolean resumable, UpgradeListener listener, MigrationListener migrationListener, boolean inPlaceMigrations, boolean rehearsal, UpgradeVerifier verifier, SpaceReclaimer spaceReclaimer) {
+    mResumable = resumable;
+    mListener = listener;
+    mMigrationListener = migrationListener;
+    mInPlaceMigrations = inPlaceMigrations;
+    mRehearsal = rehearsal;
+    mVerifier = verifier;
+    mSpaceReclaimer = spaceReclaimer;
+  }
+
+  public boolean isResumable() {
+    return mResumable;
+  }
+
+  public UpgradeListener getListener() {
+    return mListener;
+  }
+
+  public MigrationListener getMigrationListener() {
+    return mMigrationListener;
+  }
+
+  public boolean isInPlaceMigrations() {
+    return mInPlaceMigrations;
+  }
+
+  public boolean isRehearsal() {
+    return mRehearsal;
+  }
+
+  public UpgradeVerifier getVerifier() {
+    return mVerifier;
+  }
+
+  public SpaceReclaimer getSpaceReclaimer() {
+    return mSpaceReclaimer;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("resumable", mResumable)
+        .add("listener", mListener)
+        .add("migrationListener", mMigrationListener)
+        .add("inPlaceMigrations", mInPlaceMigrations)
+        .add("rehearsal", mRehearsal)
+        .add("verifier", mVerifier)
+        .add("spaceReclaimer", mSpaceReclaimer)
+        .toString();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private boolean mResumable;
+    private UpgradeListener mListener;
+    private MigrationListener mMigrationListener;
+    private boolean mInPlaceMigrations;
+    private boolean mRehearsal;
+    private UpgradeVerifier mVerifier;
+    private SpaceReclaimer mSpaceReclaimer;
+
+    Builder() {
+    }
+
+    /**
+     * Commit every revision in a separate transaction and record the last
+     * completed revision in the database, so the interrupted upgrade continues
+     * from this revision on the next attempt. The database version is set to
+     * the target revision together with the last revision. The resumable
+     * upgrade cannot be performed inside a transaction, i.e. in
+     * SQLiteOpenHelper.onUpgrade.
+     */
+    public Builder resumable(boolean resumable) {
+      mResumable = resumable;
+      return this;
+    }
+
+    /**
+     * Report the upgrade progress to the listener. Estimating the remaining
+     * time requires counting the rows of the tables modified during the
+     * upgrade, which is done once before the first revision is applied.
+     */
+    public Builder listener(UpgradeListener listener) {
+      mListener = listener;
+      return this;
+    }
+
+    /**
+     * Report the timings and the volume of every revision, migration and
+     * table migration to the listener.
+     */
+    public Builder migrationListener(MigrationListener migrationListener) {
+      mMigrationListener = migrationListener;
+      return this;
+    }
+
+    /**
+     * Allow the {@link MigrationsHelper} to skip the rebuild of the tables
+     * which already have the requested definition, to append the new
+     * columns with ALTER TABLE and to rewrite the table definition in
+     * sqlite_master when only the constraints which don't affect the stored
+     * rows were changed. Unlike the rebuild, these strategies keep the indexes
+     * and triggers of the migrated table. Disabled by default.
+     */
+    public Builder inPlaceMigrations(boolean inPlaceMigrations) {
+      mInPlaceMigrations = inPlaceMigrations;
+      return this;
+    }
+
+    /**
+     * Rehearse the upgrade on the in-memory database with the schema, but not
+     * the data, of the upgraded database before touching the real data, so
+     * the broken migration fails before any table is copied. See
+     * {@link Schemas#rehearse(android.content.Context, com.getbase.android.schema.driver.Database, int, int)}.
+     */
+    public Builder rehearsal(boolean rehearsal) {
+      mRehearsal = rehearsal;
+      return this;
+    }
+
+    /**
+     * Verify the tables rebuilt during the upgrade with the given verifier.
+     * The quick check runs after the last revision is applied, i.e. inside
+     * the transaction if the upgrade is performed in a transaction.
+     */
+    public Builder verifier(UpgradeVerifier verifier) {
+      mVerifier = verifier;
+      return this;
+    }
+
+    /**
+     * Reclaim the space freed by the rebuilt tables after the last revision
+     * is applied. Inside a transaction, i.e. in SQLiteOpenHelper.onUpgrade,
+     * only the incremental vacuum can be performed; call
+     * {@link SpaceReclaimer#reclaimAsync(com.getbase.android.schema.driver.Database, java.util.concurrent.Executor)}
+     * after the database is opened to perform the rest.
+     */
+    public Builder spaceReclaimer(SpaceReclaimer spaceReclaimer) {
+      mSpaceReclaimer = spaceReclaimer;
+      return this;
+    }
+
+    public UpgradeOptions build() {
+      return new UpgradeOptions(mResumable, mListener, mMigrationListener, mInPlaceMigrations, mRehearsal, mVerifier, mSpaceReclaimer);
+    }
+  }
+}
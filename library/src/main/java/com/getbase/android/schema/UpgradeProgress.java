@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.getbase.android.schema.driver.Database;
+
+import android.database.Cursor;
+
+/**
+ * Last completed revision of the resumable upgrade, stored in the upgraded
+ * database itself.
+ */
+final class UpgradeProgress {
+  static final String TABLE = "_schema_upgrade_progress";
+
+  private UpgradeProgress() {
+  }
+
+  /**
+   * Returns the revision from which the upgrade should be continued, which is
+   * the fromVersion unless the previous attempt of the same upgrade was
+   * interrupted.
+   */
+  static int getStartRevision(Database db, int fromVersion, int toVersion) {
+    db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+        "id INTEGER PRIMARY KEY CHECK (id = 0), " +
+        "from_version INTEGER NOT NULL, " +
+        "completed_version INTEGER NOT NULL)");
+
+    // no rows if there is no interrupted upgrade
+    Cursor cursor = db.rawQuery("SELECT completed_version FROM " + TABLE + " WHERE id = 0 AND from_version = " + fromVersion, null);
+    try {
+      if (cursor.moveToFirst()) {
+        int completedVersion = cursor.getInt(0);
+        if (completedVersion > fromVersion && completedVersion < toVersion) {
+          return completedVersion;
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return fromVersion;
+  }
+
+  /**
+   * Has to be called in the same transaction as the revision migrations.
+   */
+  static void setCompleted(Database db, int fromVersion, int completedVersion) {
+    db.execSQL("INSERT OR REPLACE INTO " + TABLE + " (id, from_version, completed_version) VALUES (0, ?, ?)", new Object[] { fromVersion, completedVersion });
+  }
+
+  /**
+   * Has to be called in the same transaction as the last revision migrations.
+   */
+  static void clear(Database db) {
+    db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+  }
+}
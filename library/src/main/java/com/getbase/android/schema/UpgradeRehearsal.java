@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.getbase.android.schema.driver.Database;
+import com.getbase.android.schema.driver.ForwardingDatabase;
+import com.getbase.android.schema.driver.JdbcDatabase;
+import com.getbase.android.schema.driver.RecordingDatabase;
+import com.getbase.android.schema.driver.StatementRecording;
+import com.getbase.android.sqlitemaster.SQLiteMaster;
+import com.getbase.android.sqlitemaster.SQLiteSchemaPart;
+import com.getbase.android.sqlitemaster.SQLiteSchemaPartType;
+import com.google.common.collect.Sets;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.Set;
+
+/**
+ * Performs the upgrade on the in-memory database with the schema, but not the
+ * data, of the upgraded database.
+ */
+final class UpgradeRehearsal {
+  private static final String TAG = UpgradeRehearsal.class.getSimpleName();
+
+  private static final SQLiteSchemaPartType[] CLONED_PARTS = {
+      SQLiteSchemaPartType.TABLE,
+      SQLiteSchemaPartType.VIEW,
+      SQLiteSchemaPartType.INDEX,
+      SQLiteSchemaPartType.TRIGGER
+  };
+
+  private UpgradeRehearsal() {
+  }
+
+  /**
+   * Only the {@link UpgradeOptions#isInPlaceMigrations()} option of the real
+   * upgrade affects the executed statements, so the rest of the options is
+   * not used for the rehearsal.
+   */
+  static StatementRecording rehearse(Schemas schemas, Context context, Database database, int fromVersion, int toVersion, UpgradeOptions options) {
+    Database scratch = openScratchDatabase(database);
+    try {
+      cloneSchema(database, scratch);
+      scratch.setVersion(fromVersion);
+
+      RecordingDatabase recorder = new RecordingDatabase(scratch);
+      recorder.beginTransaction();
+      try {
+        schemas.upgrade(context, recorder, fromVersion, toVersion, UpgradeOptions.builder()
+            .inPlaceMigrations(options.isInPlaceMigrations())
+            .build());
+        recorder.setTransactionSuccessful();
+      } catch (RuntimeException e) {
+        throw new IllegalStateException("Rehearsal of the upgrade from " + fromVersion + " to " + toVersion + " failed", e);
+      } finally {
+        recorder.endTransaction();
+      }
+
+      StatementRecording plan = recorder.getRecording();
+      Log.d(TAG, "Rehearsal of the upgrade from " + fromVersion + " to " + toVersion + " executed " + plan.getEntries().size() + " statements");
+      if (!plan.getUnrecordedMigrations().isEmpty()) {
+        Log.w(TAG, "Statements of the plain migrations are missing from the rehearsal plan: " + plan.getUnrecordedMigrations());
+      }
+      return plan;
+    } finally {
+      closeScratchDatabase(scratch);
+    }
+  }
+
+  private static void cloneSchema(Database source, Database target) {
+    Set<String> existingNames = Sets.newHashSet();
+    for (SQLiteSchemaPart part : SQLiteMaster.getSQLiteSchemaParts(target)) {
+      existingNames.add(part.name);
+    }
+
+    for (SQLiteSchemaPartType partType : CLONED_PARTS) {
+      for (SQLiteSchemaPart part : SQLiteMaster.getSQLiteSchemaParts(source, partType)) {
+        if (part.sql != null && !part.name.startsWith("sqlite_") && !existingNames.contains(part.name)) {
+          target.execSQL(part.sql);
+        }
+      }
+    }
+  }
+
+  private static Database openScratchDatabase(Database database) {
+    Database unwrappedDatabase = ForwardingDatabase.unwrap(database);
+    if (unwrappedDatabase instanceof AndroidDatabase) {
+      return AndroidDatabase.wrap(SQLiteDatabase.create(null));
+    } else if (unwrappedDatabase instanceof JdbcDatabase) {
+      return JdbcDatabase.inMemory();
+    }
+    throw new IllegalStateException("Cannot create in-memory database for rehearsal of the upgrade of " + database);
+  }
+
+  private static void closeScratchDatabase(Database scratch) {
+    if (scratch instanceof AndroidDatabase) {
+      ((AndroidDatabase) scratch).getSQLiteDatabase().close();
+    } else {
+      ((JdbcDatabase) scratch).close();
+    }
+  }
+}
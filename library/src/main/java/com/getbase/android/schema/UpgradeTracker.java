@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import com.getbase.android.schema.driver.Database;
+import com.getbase.android.schema.driver.Statement;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import android.database.Cursor;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the progress of the upgrade performed on the current thread and
+ * reports it to the {@link UpgradeListener} and the {@link MigrationListener}.
+ * The work is estimated upfront: every revision weighs one unit, and every
+ * table modified in the revision weighs one unit plus its estimated rows
+ * count. The rows are not counted, which would read every modified table;
+ * the estimate comes from the sqlite_stat1 statistics if the database was
+ * analyzed, or from the range of the rowids otherwise.
+ */
+final class UpgradeTracker {
+  private static final ThreadLocal<UpgradeTracker> CURRENT = new ThreadLocal<>();
+  private static final UpgradeTracker NONE = new UpgradeTracker(UpgradeOptions.DEFAULT, null, Maps.<Integer, Map<String, Long>>newHashMap(), null);
+
+  private final UpgradeListener mListener;
+  private final MigrationListener mMigrationListener;
+  private final boolean mInPlaceMigrations;
+  private final UpgradeVerifier mVerifier;
+  private final SpaceReclaimer mSpaceReclaimer;
+  private final CountingDatabase mCountingDatabase;
+  private final Map<Integer, Map<String, Long>> mPendingWork;
+  private final UpgradeTracker mPrevious;
+  private final long mTotalWork;
+  private final long mStartNanos = System.nanoTime();
+  private long mDoneWork;
+  private int mRevision;
+  private long mRevisionStartNanos;
+  private long mRevisionStartStatements;
+  private long mMigrationStartNanos;
+  private long mMigrationStartStatements;
+  private boolean mRevisionStatementsUnknown;
+
+  private UpgradeTracker(UpgradeOptions options, CountingDatabase countingDatabase, Map<Integer, Map<String, Long>> pendingWork, UpgradeTracker previous) {
+    mListener = options.getListener();
+    mMigrationListener = options.getMigrationListener();
+    mInPlaceMigrations = options.isInPlaceMigrations();
+    mVerifier = options.getVerifier();
+    mSpaceReclaimer = options.getSpaceReclaimer();
+    mCountingDatabase = countingDatabase;
+    mPendingWork = pendingWork;
+    mPrevious = previous;
+
+    long totalWork = 0;
+    for (Map<String, Long> revisionWork : pendingWork.values()) {
+      totalWork += 1;
+      for (Long tableWork : revisionWork.values()) {
+        totalWork += tableWork;
+      }
+    }
+    mTotalWork = totalWork;
+  }
+
+  /**
+   * Starts tracking the upgrade from fromVersion to toVersion on the current
+   * thread. Has to be paired with {@link #end()}.
+   */
+  static UpgradeTracker begin(UpgradeOptions options, Database db, Schemas schemas, int fromVersion, int toVersion) {
+    Map<Integer, Map<String, Long>> pendingWork = Maps.newHashMap();
+    if (options.getListener() != null) {
+      Set<String> modifiedTables = Sets.newHashSet();
+      for (int version = fromVersion + 1; version <= toVersion; version++) {
+        modifiedTables.addAll(schemas.getTablesModifiedInRevision(version));
+      }
+
+      Map<String, Long> rowCounts = estimateRows(db, modifiedTables);
+      for (int version = fromVersion + 1; version <= toVersion; version++) {
+        Map<String, Long> revisionWork = Maps.newHashMap();
+        for (String table : schemas.getTablesModifiedInRevision(version)) {
+          Long rows = rowCounts.get(table);
+          revisionWork.put(table, 1 + (rows != null ? rows : 0));
+        }
+        pendingWork.put(version, revisionWork);
+      }
+    }
+
+    CountingDatabase countingDatabase = options.getMigrationListener() != null
+        ? new CountingDatabase(db)
+        : null;
+
+    UpgradeTracker tracker = new UpgradeTracker(options, countingDatabase, pendingWork, CURRENT.get());
+    CURRENT.set(tracker);
+    return tracker;
+  }
+
+  /**
+   * Returns the tracker of the upgrade performed on the current thread, or
+   * no-op tracker if there is no such upgrade.
+   */
+  static UpgradeTracker current() {
+    UpgradeTracker tracker = CURRENT.get();
+    return tracker != null ? tracker : NONE;
+  }
+
+  void end() {
+    if (mPrevious != null) {
+      CURRENT.set(mPrevious);
+    } else {
+      CURRENT.remove();
+    }
+  }
+
+  /**
+   * Returns the database the migrations should be applied to, so the executed
+   * statements are counted.
+   */
+  Database wrap(Database db) {
+    return mCountingDatabase != null ? mCountingDatabase : db;
+  }
+
+  boolean isInPlaceMigrations() {
+    return mInPlaceMigrations;
+  }
+
+  UpgradeVerifier getVerifier() {
+    return mVerifier;
+  }
+
+  void onUpgradeFinished(Database db) {
+    if (mVerifier != null) {
+      mVerifier.runQuickChecks(db);
+    }
+    if (mSpaceReclaimer != null) {
+      mSpaceReclaimer.reclaim(db);
+    }
+  }
+
+  void onRevisionStarted(int revision) {
+    mRevision = revision;
+    if (mListener != null) {
+      mListener.onRevisionStarted(revision);
+    }
+    if (mMigrationListener != null) {
+      mRevisionStartNanos = System.nanoTime();
+      mRevisionStartStatements = mCountingDatabase.getStatementCount();
+      mRevisionStatementsUnknown = false;
+      mMigrationListener.onRevisionStarted(revision);
+    }
+  }
+
+  void onMigrationStarted(Migration migration) {
+    if (mMigrationListener != null) {
+      mMigrationStartNanos = System.nanoTime();
+      mMigrationStartStatements = mCountingDatabase.getStatementCount();
+      mMigrationListener.onMigrationStarted(mRevision, migration);
+    }
+  }
+
+  void onMigrationFinished(Migration migration) {
+    if (mMigrationListener != null) {
+      // plain Migration is applied to the SQLiteDatabase, bypassing the CountingDatabase
+      boolean counted = migration instanceof DatabaseMigration;
+      mRevisionStatementsUnknown |= !counted;
+      mMigrationListener.onMigrationFinished(mRevision, migration,
+          System.nanoTime() - mMigrationStartNanos,
+          counted
+              ? mCountingDatabase.getStatementCount() - mMigrationStartStatements
+              : MigrationListener.UNKNOWN_STATEMENT_COUNT);
+    }
+  }
+
+  void onTableMigrationStarted(String table) {
+    if (mMigrationListener != null) {
+      mMigrationListener.onTableMigrationStarted(table);
+    }
+  }
+
+  void onTableMigrationFinished(String table, TableMigrationStrategy strategy, long durationNanos, long rowCount, long statementCount) {
+    if (mMigrationListener != null) {
+      mMigrationListener.onTableMigrationFinished(table, strategy, durationNanos, rowCount, statementCount);
+    }
+    if (mListener != null) {
+      Map<String, Long> revisionWork = mPendingWork.get(mRevision);
+      Long tableWork = revisionWork != null ? revisionWork.remove(table) : null;
+      mListener.onTableMigrated(mRevision, table);
+      if (tableWork != null) {
+        mDoneWork += tableWork;
+        reportProgress();
+      }
+    }
+  }
+
+  void onRevisionFinished(int revision) {
+    if (mMigrationListener != null) {
+      mMigrationListener.onRevisionFinished(revision,
+          System.nanoTime() - mRevisionStartNanos,
+          mRevisionStatementsUnknown
+              ? MigrationListener.UNKNOWN_STATEMENT_COUNT
+              : mCountingDatabase.getStatementCount() - mRevisionStartStatements);
+    }
+    if (mListener != null) {
+      Map<String, Long> revisionWork = mPendingWork.remove(revision);
+      if (revisionWork != null) {
+        mDoneWork += 1;
+        for (Long tableWork : revisionWork.values()) {
+          mDoneWork += tableWork;
+        }
+      }
+      mListener.onRevisionFinished(revision);
+      reportProgress();
+    }
+  }
+
+  private void reportProgress() {
+    if (mTotalWork == 0) {
+      return;
+    }
+
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+    long estimatedRemainingMillis = mDoneWork > 0
+        ? elapsedMillis * (mTotalWork - mDoneWork) / mDoneWork
+        : -1;
+    mListener.onProgress((float) mDoneWork / mTotalWork, estimatedRemainingMillis);
+  }
+
+  private static Map<String, Long> estimateRows(Database db, Set<String> candidateTables) {
+    Set<String> tables = Sets.newHashSet();
+    boolean analyzed = false;
+    Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+    try {
+      while (cursor.moveToNext()) {
+        String table = cursor.getString(0);
+        if (candidateTables.contains(table)) {
+          tables.add(table);
+        }
+        analyzed |= "sqlite_stat1".equalsIgnoreCase(table);
+      }
+    } finally {
+      cursor.close();
+    }
+
+    Map<String, Long> rowCounts = Maps.newHashMap();
+    for (String table : tables) {
+      Long rows = analyzed ? getAnalyzedRows(db, table) : null;
+      if (rows == null && MigrationsHelper.hasRowId(db, table)) {
+        rows = getRowIdRange(db, table);
+      }
+      if (rows != null) {
+        rowCounts.put(table, rows);
+      }
+    }
+    return rowCounts;
+  }
+
+  /**
+   * Returns the rows count recorded by the last ANALYZE, which is the first
+   * number of the stat column, or null if the table wasn't analyzed.
+   */
+  private static Long getAnalyzedRows(Database db, String table) {
+    Cursor cursor = db.rawQuery("SELECT stat FROM sqlite_stat1 WHERE tbl=? LIMIT 1", new String[] { table });
+    try {
+      if (cursor.moveToFirst() && cursor.getString(0) != null) {
+        return Long.parseLong(cursor.getString(0).split(" ", 2)[0]);
+      }
+      return null;
+    } catch (NumberFormatException e) {
+      return null;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Returns the number of rowids between the smallest and the largest one,
+   * which is the upper bound of the rows count. Both ends are read from the
+   * rowid b-tree without scanning the table.
+   */
+  private static long getRowIdRange(Database db, String table) {
+    Statement statement = db.compileStatement("SELECT IFNULL((SELECT MAX(_rowid_) FROM " + table + ") - (SELECT MIN(_rowid_) FROM " + table + ") + 1, 0)");
+    try {
+      return statement.simpleQueryForLong();
+    } finally {
+      statement.close();
+    }
+  }
+}
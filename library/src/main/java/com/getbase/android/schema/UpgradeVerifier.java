@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.getbase.android.schema.driver.Database;
+import com.getbase.android.schema.driver.DatabaseException;
+import com.getbase.android.schema.driver.Statement;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Verifies the tables rebuilt during the upgrade, instead of running the
+ * PRAGMA integrity_check on the whole database. For every table rebuilt by
+ * the {@link MigrationsHelper} the rows count of the old and the new table
+ * is compared, and optionally the checksums of the sample of rows. At the
+ * end of the upgrade PRAGMA quick_check runs for the rebuilt and rewritten
+ * tables and their indexes, if the SQLite version supports checking the
+ * single table, i.e. 3.33.0 or newer.
+ * <p>
+ * Pass the verifier to {@link UpgradeOptions.Builder#verifier(UpgradeVerifier)}
+ * and inspect the results after the upgrade.
+ */
+public final class UpgradeVerifier {
+  private static final int[] QUICK_CHECK_TABLE_MIN_VERSION = { 3, 33, 0 };
+
+  private final int mChecksumSampleSize;
+  private final boolean mQuickCheck;
+
+  private final List<TableVerification> mTableVerifications = Lists.newArrayList();
+  private final Set<String> mCheckedTables = Sets.newLinkedHashSet();
+  private final Map<String, ImmutableList<String>> mQuickCheckResults = Maps.newLinkedHashMap();
+
+  private UpgradeVerifier(int checksumSampleSize, boolean quickCheck) {
+    mChecksumSampleSize = checksumSampleSize;
+    mQuickCheck = quickCheck;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Results of the verification of every table rebuild, in the order the
+   * tables were rebuilt.
+   */
+  public synchronized ImmutableList<TableVerification> getTableVerifications() {
+    return ImmutableList.copyOf(mTableVerifications);
+  }
+
+  /**
+   * Messages returned by PRAGMA quick_check for every checked table. The
+   * table is fine if the only message is "ok". Empty if the quick check is
+   * disabled or not supported by the SQLite version.
+   */
+  public synchronized ImmutableMap<String, ImmutableList<String>> getQuickCheckResults() {
+    return ImmutableMap.copyOf(mQuickCheckResults);
+  }
+
+  public synchronized boolean isOk() {
+    for (TableVerification tableVerification : mTableVerifications) {
+      if (!tableVerification.isOk()) {
+        return false;
+      }
+    }
+    for (ImmutableList<String> messages : mQuickCheckResults.values()) {
+      if (!messages.equals(ImmutableList.of("ok"))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compares the old table with the new table after the rows were copied.
+   * The checksums are compared only for the columns copied without mapping
+   * or transformation, and only if the rows were not filtered.
+   */
+  void verifyRebuild(Database db, String table, String oldTable, long oldRowCount, boolean filtered, Collection<String> copiedColumns) {
+    long newRowCount = countRows(db, table);
+
+    int sampledRows = 0;
+    boolean checksumMatching = true;
+    if (mChecksumSampleSize > 0 && !filtered && !copiedColumns.isEmpty()) {
+      try {
+        Checksum oldChecksum = checksum(db, oldTable, copiedColumns, mChecksumSampleSize);
+        Checksum newChecksum = checksum(db, table, copiedColumns, mChecksumSampleSize);
+        sampledRows = oldChecksum.mRows;
+        checksumMatching = oldChecksum.equals(newChecksum);
+      } catch (SQLiteException | DatabaseException e) {
+        sampledRows = 0;
+      }
+    }
+
+    synchronized (this) {
+      mTableVerifications.add(new TableVerification(table, oldRowCount, newRowCount, filtered, sampledRows, checksumMatching));
+      mCheckedTables.add(table);
+    }
+  }
+
+  /**
+   * Marks the table modified without copying the rows for the quick check.
+   */
+  synchronized void onTableModified(String table) {
+    mCheckedTables.add(table);
+  }
+
+  void runQuickChecks(Database db) {
+    if (!mQuickCheck || !isQuickCheckOfTableSupported(db)) {
+      return;
+    }
+
+    List<String> tables;
+    synchronized (this) {
+      tables = Lists.newArrayList(mCheckedTables);
+    }
+
+    for (String table : tables) {
+      if (!tableExists(db, table)) {
+        continue;
+      }
+
+      ImmutableList.Builder<String> messages = ImmutableList.builder();
+      Cursor cursor = db.rawQuery("PRAGMA quick_check(" + table + ")", null);
+      try {
+        while (cursor.moveToNext()) {
+          messages.add(cursor.getString(0));
+        }
+      } finally {
+        cursor.close();
+      }
+
+      synchronized (this) {
+        mQuickCheckResults.put(table, messages.build());
+      }
+    }
+  }
+
+  static long countRows(Database db, String table) {
+    Statement statement = db.compileStatement("SELECT COUNT(*) FROM " + table);
+    try {
+      return statement.simpleQueryForLong();
+    } finally {
+      statement.close();
+    }
+  }
+
+  /**
+   * Checksum of the first rows in the order of their quoted values, so the
+   * sample doesn't depend on the rowids, the indexes or the collations of the
+   * compared tables.
+   */
+  private static Checksum checksum(Database db, String table, Collection<String> columns, int sampleSize) {
+    List<String> quotedColumns = Lists.newArrayListWithCapacity(columns.size());
+    List<String> orderBy = Lists.newArrayListWithCapacity(columns.size());
+    for (String column : columns) {
+      quotedColumns.add("quote(" + column + ")");
+      orderBy.add(String.valueOf(orderBy.size() + 1));
+    }
+
+    CRC32 crc = new CRC32();
+    int rows = 0;
+    Cursor cursor = db.rawQuery("SELECT " + Joiner.on(", ").join(quotedColumns) + " FROM " + table + " ORDER BY " + Joiner.on(", ").join(orderBy) + " LIMIT " + sampleSize, null);
+    try {
+      while (cursor.moveToNext()) {
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+          crc.update(cursor.getString(i).getBytes(Charsets.UTF_8));
+          crc.update(0);
+        }
+        rows++;
+      }
+    } finally {
+      cursor.close();
+    }
+    return new Checksum(rows, crc.getValue());
+  }
+
+  private static boolean tableExists(Database db, String table) {
+    Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type='table' AND name=?", new String[] { table });
+    try {
+      return cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private static boolean isQuickCheckOfTableSupported(Database db) {
+    return SQLiteVersion.isAtLeast(db, QUICK_CHECK_TABLE_MIN_VERSION);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("tableVerifications", mTableVerifications)
+        .add("quickCheckResults", mQuickCheckResults)
+        .toString();
+  }
+
+  private static class Checksum {
+    final int mRows;
+    final long mValue;
+
+    Checksum(int rows, long value) {
+      mRows = rows;
+      mValue = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Checksum)) {
+        return false;
+      }
+      Checksum checksum = (Checksum) o;
+      return mRows == checksum.mRows && mValue == checksum.mValue;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * mRows + (int) (mValue ^ (mValue >>> 32));
+    }
+  }
+
+  /**
+   * Result of the verification of a single table rebuild.
+   */
+  public static final class TableVerification {
+    private final String mTable;
+    private final long mOldRowCount;
+    private final long mNewRowCount;
+    private final boolean mFiltered;
+    private final int mSampledRows;
+    private final boolean mChecksumMatching;
+
+    TableVerification(String table, long oldRowCount, long newRowCount, boolean filtered, int sampledRows, boolean checksumMatching) {
+      mTable = table;
+      mOldRowCount = oldRowCount;
+      mNewRowCount = newRowCount;
+      mFiltered = filtered;
+      mSampledRows = sampledRows;
+      mChecksumMatching = checksumMatching;
+    }
+
+    public String getTable() {
+      return mTable;
+    }
+
+    public long getOldRowCount() {
+      return mOldRowCount;
+    }
+
+    public long getNewRowCount() {
+      return mNewRowCount;
+    }
+
+    /**
+     * Whether the migration filtered the copied rows, in which case the rows
+     * counts are not expected to match and the checksums are not compared.
+     */
+    public boolean isFiltered() {
+      return mFiltered;
+    }
+
+    /**
+     * Number of rows included in the checksum, 0 if the checksums were not
+     * compared.
+     */
+    public int getSampledRows() {
+      return mSampledRows;
+    }
+
+    public boolean isChecksumMatching() {
+      return mChecksumMatching;
+    }
+
+    public boolean isOk() {
+      return (mFiltered || mOldRowCount == mNewRowCount) && mChecksumMatching;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("table", mTable)
+          .add("oldRowCount", mOldRowCount)
+          .add("newRowCount", mNewRowCount)
+          .add("filtered", mFiltered)
+          .add("sampledRows", mSampledRows)
+          .add("checksumMatching", mChecksumMatching)
+          .toString();
+    }
+  }
+
+  public static class Builder {
+    private int mChecksumSampleSize;
+    private boolean mQuickCheck = true;
+
+    Builder() {
+    }
+
+    /**
+     * Compare the checksums of up to given number of rows of every rebuilt
+     * table. Selecting the sample requires scanning the whole table. The
+     * checksums are not compared by default.
+     */
+    public Builder checksumSampleSize(int checksumSampleSize) {
+      checkArgument(checksumSampleSize >= 0, "Checksum sample size cannot be negative");
+      mChecksumSampleSize = checksumSampleSize;
+      return this;
+    }
+
+    /**
+     * Run PRAGMA quick_check for every rebuilt table at the end of the
+     * upgrade. Enabled by default.
+     */
+    public Builder quickCheck(boolean quickCheck) {
+      mQuickCheck = quickCheck;
+      return this;
+    }
+
+    public UpgradeVerifier build() {
+      return new UpgradeVerifier(mChecksumSampleSize, mQuickCheck);
+    }
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.getbase.android.schema.autoindexer;
 
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.getbase.android.schema.driver.Database;
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Sets;
@@ -29,6 +31,8 @@ import org.chalup.thneed.RecursiveModelRelationship;
 import org.chalup.thneed.RelationshipVisitor;
 import org.chalup.thneed.models.DatabaseModel;
 
+import android.database.sqlite.SQLiteDatabase;
+
 import java.util.Set;
 
 public final class AutoIndexer {
@@ -44,6 +48,16 @@ public final class AutoIndexer {
     return "CREATE INDEX " + index.getName() + " ON " + index.mTable + "(" + COLUMN_JOINER.join(index.mColumns) + ")";
   }
 
+  public static void createIndexes(SQLiteDatabase db, Iterable<SQLiteIndex> indexes) {
+    createIndexes(AndroidDatabase.wrap(db), indexes);
+  }
+
+  public static void createIndexes(Database db, Iterable<SQLiteIndex> indexes) {
+    for (SQLiteIndex index : indexes) {
+      db.execSQL(getCreateStatement(index));
+    }
+  }
+
   public static Predicate<SQLiteIndex> isIndexOnColumn(final String columnName) {
     return new Predicate<SQLiteIndex>() {
       @Override
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * {@link Database} backed by the framework's {@link SQLiteDatabase}.
+ */
+public final class AndroidDatabase implements Database {
+  private final SQLiteDatabase mDatabase;
+
+  private AndroidDatabase(SQLiteDatabase database) {
+    mDatabase = checkNotNull(database);
+  }
+
+  public static AndroidDatabase wrap(SQLiteDatabase database) {
+    return new AndroidDatabase(database);
+  }
+
+  public SQLiteDatabase getSQLiteDatabase() {
+    return mDatabase;
+  }
+
+  @Override
+  public void execSQL(String sql) {
+    mDatabase.execSQL(sql);
+  }
+
+  @Override
+  public void execSQL(String sql, Object[] bindArgs) {
+    mDatabase.execSQL(sql, bindArgs);
+  }
+
+  @Override
+  public Cursor rawQuery(String sql, String[] selectionArgs) {
+    return mDatabase.rawQuery(sql, selectionArgs);
+  }
+
+  @Override
+  public Statement compileStatement(String sql) {
+    return new AndroidStatement(mDatabase.compileStatement(sql));
+  }
+
+  @Override
+  public void beginTransaction() {
+    mDatabase.beginTransaction();
+  }
+
+  @Override
+  public void setTransactionSuccessful() {
+    mDatabase.setTransactionSuccessful();
+  }
+
+  @Override
+  public void endTransaction() {
+    mDatabase.endTransaction();
+  }
+
+  @Override
+  public boolean inTransaction() {
+    return mDatabase.inTransaction();
+  }
+
+  @Override
+  public int getVersion() {
+    return mDatabase.getVersion();
+  }
+
+  @Override
+  public void setVersion(int version) {
+    mDatabase.setVersion(version);
+  }
+
+  private static class AndroidStatement implements Statement {
+    private final SQLiteStatement mStatement;
+
+    AndroidStatement(SQLiteStatement statement) {
+      mStatement = statement;
+    }
+
+    @Override
+    public void bindNull(int index) {
+      mStatement.bindNull(index);
+    }
+
+    @Override
+    public void bindLong(int index, long value) {
+      mStatement.bindLong(index, value);
+    }
+
+    @Override
+    public void bindDouble(int index, double value) {
+      mStatement.bindDouble(index, value);
+    }
+
+    @Override
+    public void bindString(int index, String value) {
+      mStatement.bindString(index, value);
+    }
+
+    @Override
+    public void bindBlob(int index, byte[] value) {
+      mStatement.bindBlob(index, value);
+    }
+
+    @Override
+    public void clearBindings() {
+      mStatement.clearBindings();
+    }
+
+    @Override
+    public void execute() {
+      mStatement.execute();
+    }
+
+    @Override
+    public long executeInsert() {
+      return mStatement.executeInsert();
+    }
+
+    @Override
+    public long simpleQueryForLong() {
+      return mStatement.simpleQueryForLong();
+    }
+
+    @Override
+    public String simpleQueryForString() {
+      return mStatement.simpleQueryForString();
+    }
+
+    @Override
+    public void close() {
+      mStatement.close();
+    }
+  }
+}
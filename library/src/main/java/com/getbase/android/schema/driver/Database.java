@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+import android.database.Cursor;
+
+/**
+ * Minimal subset of the {@link android.database.sqlite.SQLiteDatabase} API
+ * used by the migrations. Transactions follow the SQLiteDatabase semantics:
+ * they can be nested, and the outermost transaction is committed only if all
+ * nested transactions were marked as successful.
+ */
+public interface Database {
+  void execSQL(String sql);
+
+  void execSQL(String sql, Object[] bindArgs);
+
+  Cursor rawQuery(String sql, String[] selectionArgs);
+
+  Statement compileStatement(String sql);
+
+  void beginTransaction();
+
+  void setTransactionSuccessful();
+
+  void endTransaction();
+
+  boolean inTransaction();
+
+  int getVersion();
+
+  void setVersion(int version);
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.database.Cursor;
+
+/**
+ * {@link Database} which forwards all calls to another {@link Database}.
+ * Subclasses override the methods they want to observe or decorate.
+ */
+public abstract class ForwardingDatabase implements Database {
+  private final Database mDelegate;
+
+  protected ForwardingDatabase(Database delegate) {
+    mDelegate = checkNotNull(delegate);
+  }
+
+  public Database getDelegate() {
+    return mDelegate;
+  }
+
+  /**
+   * Returns the innermost {@link Database} of the chain of
+   * {@link ForwardingDatabase}s.
+   */
+  public static Database unwrap(Database database) {
+    while (database instanceof ForwardingDatabase) {
+      database = ((ForwardingDatabase) database).getDelegate();
+    }
+    return database;
+  }
+
+  @Override
+  public void execSQL(String sql) {
+    mDelegate.execSQL(sql);
+  }
+
+  @Override
+  public void execSQL(String sql, Object[] bindArgs) {
+    mDelegate.execSQL(sql, bindArgs);
+  }
+
+  @Override
+  public Cursor rawQuery(String sql, String[] selectionArgs) {
+    return mDelegate.rawQuery(sql, selectionArgs);
+  }
+
+  @Override
+  public Statement compileStatement(String sql) {
+    return mDelegate.compileStatement(sql);
+  }
+
+  @Override
+  public void beginTransaction() {
+    mDelegate.beginTransaction();
+  }
+
+  @Override
+  public void setTransactionSuccessful() {
+    mDelegate.setTransactionSuccessful();
+  }
+
+  @Override
+  public void endTransaction() {
+    mDelegate.endTransaction();
+  }
+
+  @Override
+  public boolean inTransaction() {
+    return mDelegate.inTransaction();
+  }
+
+  @Override
+  public int getVersion() {
+    return mDelegate.getVersion();
+  }
+
+  @Override
+  public void setVersion(int version) {
+    mDelegate.setVersion(version);
+  }
+}
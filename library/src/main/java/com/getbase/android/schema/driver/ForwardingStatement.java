@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link Statement} which forwards all calls to another {@link Statement}.
+ */
+public abstract class ForwardingStatement implements Statement {
+  private final Statement mDelegate;
+
+  protected ForwardingStatement(Statement delegate) {
+    mDelegate = checkNotNull(delegate);
+  }
+
+  public Statement getDelegate() {
+    return mDelegate;
+  }
+
+  @Override
+  public void bindNull(int index) {
+    mDelegate.bindNull(index);
+  }
+
+  @Override
+  public void bindLong(int index, long value) {
+    mDelegate.bindLong(index, value);
+  }
+
+  @Override
+  public void bindDouble(int index, double value) {
+    mDelegate.bindDouble(index, value);
+  }
+
+  @Override
+  public void bindString(int index, String value) {
+    mDelegate.bindString(index, value);
+  }
+
+  @Override
+  public void bindBlob(int index, byte[] value) {
+    mDelegate.bindBlob(index, value);
+  }
+
+  @Override
+  public void clearBindings() {
+    mDelegate.clearBindings();
+  }
+
+  @Override
+  public void execute() {
+    mDelegate.execute();
+  }
+
+  @Override
+  public long executeInsert() {
+    return mDelegate.executeInsert();
+  }
+
+  @Override
+  public long simpleQueryForLong() {
+    return mDelegate.simpleQueryForLong();
+  }
+
+  @Override
+  public String simpleQueryForString() {
+    return mDelegate.simpleQueryForString();
+  }
+
+  @Override
+  public void close() {
+    mDelegate.close();
+  }
+}
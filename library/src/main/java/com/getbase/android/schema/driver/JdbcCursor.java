@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.List;
+
+/**
+ * {@link Cursor} over the rows already read from the JDBC ResultSet. Unlike
+ * the framework's MatrixCursor it doesn't depend on any Android class, so it
+ * works on the JVM without the Android runtime on the classpath. The values
+ * are converted the same way as by the MatrixCursor.
+ */
+final class JdbcCursor implements Cursor {
+  private final String[] mColumns;
+  private final List<Object[]> mRows;
+  private int mPosition = -1;
+  private boolean mClosed;
+
+  JdbcCursor(String[] columns, List<Object[]> rows) {
+    mColumns = checkNotNull(columns);
+    mRows = checkNotNull(rows);
+  }
+
+  private Object get(int columnIndex) {
+    if (columnIndex < 0 || columnIndex >= mColumns.length) {
+      throw new IndexOutOfBoundsException("Requested column: " + columnIndex + ", # of columns: " + mColumns.length);
+    }
+    if (mPosition < 0 || mPosition >= mRows.size()) {
+      throw new IndexOutOfBoundsException("Index " + mPosition + " requested, with a size of " + mRows.size());
+    }
+    return mRows.get(mPosition)[columnIndex];
+  }
+
+  @Override
+  public int getCount() {
+    return mRows.size();
+  }
+
+  @Override
+  public int getPosition() {
+    return mPosition;
+  }
+
+  @Override
+  public boolean move(int offset) {
+    return moveToPosition(mPosition + offset);
+  }
+
+  @Override
+  public boolean moveToPosition(int position) {
+    if (position >= mRows.size()) {
+      mPosition = mRows.size();
+      return false;
+    }
+    if (position < 0) {
+      mPosition = -1;
+      return false;
+    }
+    mPosition = position;
+    return true;
+  }
+
+  @Override
+  public boolean moveToFirst() {
+    return moveToPosition(0);
+  }
+
+  @Override
+  public boolean moveToLast() {
+    return moveToPosition(mRows.size() - 1);
+  }
+
+  @Override
+  public boolean moveToNext() {
+    return moveToPosition(mPosition + 1);
+  }
+
+  @Override
+  public boolean moveToPrevious() {
+    return moveToPosition(mPosition - 1);
+  }
+
+  @Override
+  public boolean isFirst() {
+    return mPosition == 0 && !mRows.isEmpty();
+  }
+
+  @Override
+  public boolean isLast() {
+    return mPosition == mRows.size() - 1 && !mRows.isEmpty();
+  }
+
+  @Override
+  public boolean isBeforeFirst() {
+    return mRows.isEmpty() || mPosition == -1;
+  }
+
+  @Override
+  public boolean isAfterLast() {
+    return mRows.isEmpty() || mPosition == mRows.size();
+  }
+
+  @Override
+  public int getColumnIndex(String columnName) {
+    // same as the framework's cursors, the table prefix is ignored
+    int dot = columnName.lastIndexOf('.');
+    String column = dot >= 0 ? columnName.substring(dot + 1) : columnName;
+    for (int i = 0; i < mColumns.length; i++) {
+      if (mColumns[i].equalsIgnoreCase(column)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int getColumnIndexOrThrow(String columnName) {
+    int index = getColumnIndex(columnName);
+    if (index < 0) {
+      throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+    }
+    return index;
+  }
+
+  @Override
+  public String getColumnName(int columnIndex) {
+    return mColumns[columnIndex];
+  }
+
+  @Override
+  public String[] getColumnNames() {
+    return mColumns.clone();
+  }
+
+  @Override
+  public int getColumnCount() {
+    return mColumns.length;
+  }
+
+  @Override
+  public byte[] getBlob(int columnIndex) {
+    return (byte[]) get(columnIndex);
+  }
+
+  @Override
+  public String getString(int columnIndex) {
+    Object value = get(columnIndex);
+    return value != null ? value.toString() : null;
+  }
+
+  @Override
+  public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+    String value = getString(columnIndex);
+    if (value == null) {
+      buffer.sizeCopied = 0;
+      return;
+    }
+
+    if (buffer.data == null || buffer.data.length < value.length()) {
+      buffer.data = value.toCharArray();
+    } else {
+      value.getChars(0, value.length(), buffer.data, 0);
+    }
+    buffer.sizeCopied = value.length();
+  }
+
+  @Override
+  public short getShort(int columnIndex) {
+    return (short) getLong(columnIndex);
+  }
+
+  @Override
+  public int getInt(int columnIndex) {
+    return (int) getLong(columnIndex);
+  }
+
+  @Override
+  public long getLong(int columnIndex) {
+    Object value = get(columnIndex);
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    return Long.parseLong(value.toString());
+  }
+
+  @Override
+  public float getFloat(int columnIndex) {
+    return (float) getDouble(columnIndex);
+  }
+
+  @Override
+  public double getDouble(int columnIndex) {
+    Object value = get(columnIndex);
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    return Double.parseDouble(value.toString());
+  }
+
+  @Override
+  public int getType(int columnIndex) {
+    Object value = get(columnIndex);
+    if (value == null) {
+      return FIELD_TYPE_NULL;
+    } else if (value instanceof byte[]) {
+      return FIELD_TYPE_BLOB;
+    } else if (value instanceof Float || value instanceof Double) {
+      return FIELD_TYPE_FLOAT;
+    } else if (value instanceof Number) {
+      return FIELD_TYPE_INTEGER;
+    }
+    return FIELD_TYPE_STRING;
+  }
+
+  @Override
+  public boolean isNull(int columnIndex) {
+    return get(columnIndex) == null;
+  }
+
+  @Override
+  @Deprecated
+  public void deactivate() {
+  }
+
+  @Override
+  @Deprecated
+  public boolean requery() {
+    return !mClosed;
+  }
+
+  @Override
+  public void close() {
+    mClosed = true;
+  }
+
+  @Override
+  public boolean isClosed() {
+    return mClosed;
+  }
+
+  // the rows never change, so there is nothing to observe
+
+  @Override
+  public void registerContentObserver(ContentObserver observer) {
+  }
+
+  @Override
+  public void unregisterContentObserver(ContentObserver observer) {
+  }
+
+  @Override
+  public void registerDataSetObserver(DataSetObserver observer) {
+  }
+
+  @Override
+  public void unregisterDataSetObserver(DataSetObserver observer) {
+  }
+
+  @Override
+  public void setNotificationUri(ContentResolver cr, Uri uri) {
+  }
+
+  @Override
+  public Uri getNotificationUri() {
+    return null;
+  }
+
+  @Override
+  public boolean getWantsAllOnMoveCalls() {
+    return false;
+  }
+
+  @Override
+  public Bundle getExtras() {
+    return Bundle.EMPTY;
+  }
+
+  @Override
+  public Bundle respond(Bundle extras) {
+    return Bundle.EMPTY;
+  }
+}
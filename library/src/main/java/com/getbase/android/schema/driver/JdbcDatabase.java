@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Lists;
+
+import android.database.Cursor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link Database} backed by a JDBC {@link Connection} to SQLite database,
+ * e.g. the org.xerial:sqlite-jdbc driver. Meant for running the migrations on
+ * the JVM, for example in unit tests or at build time.
+ * <p>
+ * The returned cursors and the thrown {@link DatabaseException}s don't depend
+ * on any Android class, so the database can be used on the JVM without the
+ * Android runtime on the classpath, e.g. by the {@link StatementReplayer}.
+ */
+public final class JdbcDatabase implements Database {
+  private final Connection mConnection;
+
+  private int mTransactionDepth;
+  private boolean mTransactionSuccessful;
+  private boolean mChildTransactionFailed;
+
+  public JdbcDatabase(Connection connection) {
+    mConnection = checkNotNull(connection);
+  }
+
+  public static JdbcDatabase open(String url) {
+    try {
+      return new JdbcDatabase(DriverManager.getConnection(url));
+    } catch (SQLException e) {
+      throw propagate(e);
+    }
+  }
+
+  public static JdbcDatabase inMemory() {
+    return open("jdbc:sqlite::memory:");
+  }
+
+  public Connection getConnection() {
+    return mConnection;
+  }
+
+  public void close() {
+    try {
+      mConnection.close();
+    } catch (SQLException e) {
+      throw propagate(e);
+    }
+  }
+
+  @Override
+  public void execSQL(String sql) {
+    try {
+      java.sql.Statement statement = mConnection.createStatement();
+      try {
+        statement.execute(sql);
+      } finally {
+        statement.close();
+      }
+    } catch (SQLException e) {
+      throw propagate(e);
+    }
+  }
+
+  @Override
+  public void execSQL(String sql, Object[] bindArgs) {
+    try {
+      PreparedStatement statement = mConnection.prepareStatement(sql);
+      try {
+        if (bindArgs != null) {
+          for (int i = 0; i < bindArgs.length; i++) {
+            statement.setObject(i + 1, bindArgs[i]);
+          }
+        }
+        statement.execute();
+      } finally {
+        statement.close();
+      }
+    } catch (SQLException e) {
+      throw propagate(e);
+    }
+  }
+
+  @Override
+  public Cursor rawQuery(String sql, String[] selectionArgs) {
+    try {
+      PreparedStatement statement = mConnection.prepareStatement(sql);
+      try {
+        if (selectionArgs != null) {
+          for (int i = 0; i < selectionArgs.length; i++) {
+            statement.setString(i + 1, selectionArgs[i]);
+          }
+        }
+        if (!statement.execute()) {
+          return new JdbcCursor(new String[0], Collections.<Object[]>emptyList());
+        }
+
+        ResultSet resultSet = statement.getResultSet();
+        try {
+          return toCursor(resultSet);
+        } finally {
+          resultSet.close();
+        }
+      } finally {
+        statement.close();
+      }
+    } catch (SQLException e) {
+      throw propagate(e);
+    }
+  }
+
+  private static Cursor toCursor(ResultSet resultSet) throws SQLException {
+    ResultSetMetaData metaData = resultSet.getMetaData();
+
+    String[] columns = new String[metaData.getColumnCount()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = metaData.getColumnLabel(i + 1);
+    }
+
+    List<Object[]> rows = Lists.newArrayList();
+    while (resultSet.next()) {
+      Object[] row = new Object[columns.length];
+      for (int i = 0; i < row.length; i++) {
+        row[i] = resultSet.getObject(i + 1);
+      }
+      rows.add(row);
+    }
+    return new JdbcCursor(columns, rows);
+  }
+
+  @Override
+  public Statement compileStatement(String sql) {
+    try {
+      return new JdbcStatement(mConnection.prepareStatement(sql));
+    } catch (SQLException e) {
+      throw propagate(e);
+    }
+  }
+
+  @Override
+  public void beginTransaction() {
+    if (mTransactionDepth == 0) {
+      try {
+        mConnection.setAutoCommit(false);
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+      mChildTransactionFailed = false;
+    }
+    mTransactionDepth++;
+    mTransactionSuccessful = false;
+  }
+
+  @Override
+  public void setTransactionSuccessful() {
+    checkState(mTransactionDepth > 0, "No transaction in progress");
+    checkState(!mTransactionSuccessful, "setTransactionSuccessful already called for this transaction");
+    mTransactionSuccessful = true;
+  }
+
+  @Override
+  public void endTransaction() {
+    checkState(mTransactionDepth > 0, "No transaction in progress");
+    if (!mTransactionSuccessful) {
+      mChildTransactionFailed = true;
+    }
+    mTransactionSuccessful = false;
+
+    if (--mTransactionDepth == 0) {
+      try {
+        if (mChildTransactionFailed) {
+          mConnection.rollback();
+        } else {
+          mConnection.commit();
+        }
+        mConnection.setAutoCommit(true);
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+  }
+
+  @Override
+  public boolean inTransaction() {
+    return mTransactionDepth > 0;
+  }
+
+  @Override
+  public int getVersion() {
+    Statement statement = compileStatement("PRAGMA user_version");
+    try {
+      return (int) statement.simpleQueryForLong();
+    } finally {
+      statement.close();
+    }
+  }
+
+  @Override
+  public void setVersion(int version) {
+    execSQL("PRAGMA user_version = " + version);
+  }
+
+  private static RuntimeException propagate(SQLException e) {
+    return new DatabaseException(e.getMessage(), e);
+  }
+
+  private class JdbcStatement implements Statement {
+    private final PreparedStatement mStatement;
+
+    JdbcStatement(PreparedStatement statement) {
+      mStatement = statement;
+    }
+
+    @Override
+    public void bindNull(int index) {
+      try {
+        mStatement.setObject(index, null);
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+
+    @Override
+    public void bindLong(int index, long value) {
+      try {
+        mStatement.setLong(index, value);
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+
+    @Override
+    public void bindDouble(int index, double value) {
+      try {
+        mStatement.setDouble(index, value);
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+
+    @Override
+    public void bindString(int index, String value) {
+      try {
+        mStatement.setString(index, checkNotNull(value));
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+
+    @Override
+    public void bindBlob(int index, byte[] value) {
+      try {
+        mStatement.setBytes(index, checkNotNull(value));
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+
+    @Override
+    public void clearBindings() {
+      try {
+        mStatement.clearParameters();
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+
+    @Override
+    public void execute() {
+      try {
+        mStatement.execute();
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+
+    @Override
+    public long executeInsert() {
+      try {
+        if (mStatement.executeUpdate() <= 0) {
+          return -1;
+        }
+        java.sql.Statement statement = mConnection.createStatement();
+        try {
+          ResultSet resultSet = statement.executeQuery("SELECT last_insert_rowid()");
+          try {
+            resultSet.next();
+            return resultSet.getLong(1);
+          } finally {
+            resultSet.close();
+          }
+        } finally {
+          statement.close();
+        }
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+
+    @Override
+    public long simpleQueryForLong() {
+      try {
+        ResultSet resultSet = mStatement.executeQuery();
+        try {
+          if (!resultSet.next()) {
+            throw new DatabaseException("Query returned no rows");
+          }
+          return resultSet.getLong(1);
+        } finally {
+          resultSet.close();
+        }
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+
+    @Override
+    public String simpleQueryForString() {
+      try {
+        ResultSet resultSet = mStatement.executeQuery();
+        try {
+          if (!resultSet.next()) {
+            throw new DatabaseException("Query returned no rows");
+          }
+          return resultSet.getString(1);
+        } finally {
+          resultSet.close();
+        }
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        mStatement.close();
+      } catch (SQLException e) {
+        throw propagate(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+import com.getbase.android.schema.driver.StatementRecording.Entry;
+import com.getbase.android.schema.driver.StatementRecording.Type;
+import com.google.common.collect.ImmutableList;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link Database} which records every statement executed through it, with
+ * the bind args and the execution time. Pass it to
+ * {@link com.getbase.android.schema.Schemas#upgrade(android.content.Context, Database, int, int)},
+ * {@link com.getbase.android.schema.MigrationsHelper#performMigrations(Database, com.getbase.android.schema.MigrationsHelper.TableMigration...)},
+ * {@link com.getbase.android.sqlitemaster.SQLiteMaster} or
+ * {@link com.getbase.android.schema.autoindexer.AutoIndexer#createIndexes(Database, Iterable)}
+ * and replay the {@link #getRecording() recording} with the
+ * {@link StatementReplayer}.
+ * <p>
+ * The cursors returned from {@link #rawQuery(String, String[])} are filled
+ * before returning, so the recorded time includes the query execution.
+ * Plain {@link com.getbase.android.schema.Migration}s are executed directly
+ * on the SQLiteDatabase, so their statements cannot be recorded; the upgrade
+ * records them as {@link Type#UNRECORDED_MIGRATION} entries instead.
+ */
+public class RecordingDatabase extends ForwardingDatabase {
+  private static final List<Object> NO_ARGS = Collections.emptyList();
+
+  private final List<Entry> mEntries = new ArrayList<>();
+
+  public RecordingDatabase(Database delegate) {
+    super(delegate);
+  }
+
+  public synchronized StatementRecording getRecording() {
+    return new StatementRecording(ImmutableList.copyOf(mEntries));
+  }
+
+  public synchronized void clear() {
+    mEntries.clear();
+  }
+
+  /**
+   * Records the migration which was executed bypassing this database, so the
+   * recording shows that it is incomplete.
+   */
+  public synchronized void addUnrecordedMigration(String migration, long durationNanos) {
+    mEntries.add(new Entry(Type.UNRECORDED_MIGRATION, migration, NO_ARGS, durationNanos, false));
+  }
+
+  private synchronized void record(Type type, String sql, List<Object> args, long startNanos, boolean failed) {
+    mEntries.add(new Entry(type, sql, args, System.nanoTime() - startNanos, failed));
+  }
+
+  private static List<Object> normalizeArgs(Object[] args) {
+    if (args == null) {
+      return NO_ARGS;
+    }
+    List<Object> normalizedArgs = new ArrayList<>(args.length);
+    for (Object arg : args) {
+      normalizedArgs.add(StatementRecording.normalizeArg(arg));
+    }
+    return normalizedArgs;
+  }
+
+  @Override
+  public void execSQL(String sql) {
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      super.execSQL(sql);
+      failed = false;
+    } finally {
+      record(Type.EXEC_SQL, sql, NO_ARGS, start, failed);
+    }
+  }
+
+  @Override
+  public void execSQL(String sql, Object[] bindArgs) {
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      super.execSQL(sql, bindArgs);
+      failed = false;
+    } finally {
+      record(Type.EXEC_SQL, sql, normalizeArgs(bindArgs), start, failed);
+    }
+  }
+
+  @Override
+  public Cursor rawQuery(String sql, String[] selectionArgs) {
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      Cursor cursor = super.rawQuery(sql, selectionArgs);
+      if (cursor != null) {
+        cursor.getCount();
+      }
+      failed = false;
+      return cursor;
+    } finally {
+      record(Type.RAW_QUERY, sql, selectionArgs != null ? Arrays.asList((Object[]) selectionArgs) : NO_ARGS, start, failed);
+    }
+  }
+
+  @Override
+  public Statement compileStatement(String sql) {
+    return new RecordingStatement(super.compileStatement(sql), sql);
+  }
+
+  @Override
+  public void beginTransaction() {
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      super.beginTransaction();
+      failed = false;
+    } finally {
+      record(Type.BEGIN_TRANSACTION, null, NO_ARGS, start, failed);
+    }
+  }
+
+  @Override
+  public void setTransactionSuccessful() {
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      super.setTransactionSuccessful();
+      failed = false;
+    } finally {
+      record(Type.SET_TRANSACTION_SUCCESSFUL, null, NO_ARGS, start, failed);
+    }
+  }
+
+  @Override
+  public void endTransaction() {
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      super.endTransaction();
+      failed = false;
+    } finally {
+      record(Type.END_TRANSACTION, null, NO_ARGS, start, failed);
+    }
+  }
+
+  @Override
+  public void setVersion(int version) {
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      super.setVersion(version);
+      failed = false;
+    } finally {
+      record(Type.SET_VERSION, null, Collections.<Object>singletonList((long) version), start, failed);
+    }
+  }
+
+  private class RecordingStatement extends ForwardingStatement {
+    private final String mSql;
+    private final List<Object> mBindings = new ArrayList<>();
+
+    RecordingStatement(Statement delegate, String sql) {
+      super(delegate);
+      mSql = sql;
+    }
+
+    private void bind(int index, Object value) {
+      while (mBindings.size() < index) {
+        mBindings.add(null);
+      }
+      mBindings.set(index - 1, value);
+    }
+
+    @Override
+    public void bindNull(int index) {
+      super.bindNull(index);
+      bind(index, null);
+    }
+
+    @Override
+    public void bindLong(int index, long value) {
+      super.bindLong(index, value);
+      bind(index, value);
+    }
+
+    @Override
+    public void bindDouble(int index, double value) {
+      super.bindDouble(index, value);
+      bind(index, value);
+    }
+
+    @Override
+    public void bindString(int index, String value) {
+      super.bindString(index, value);
+      bind(index, value);
+    }
+
+    @Override
+    public void bindBlob(int index, byte[] value) {
+      super.bindBlob(index, value);
+      bind(index, value.clone());
+    }
+
+    @Override
+    public void clearBindings() {
+      super.clearBindings();
+      mBindings.clear();
+    }
+
+    @Override
+    public void execute() {
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        super.execute();
+        failed = false;
+      } finally {
+        record(Type.EXECUTE, mSql, mBindings, start, failed);
+      }
+    }
+
+    @Override
+    public long executeInsert() {
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        long rowId = super.executeInsert();
+        failed = false;
+        return rowId;
+      } finally {
+        record(Type.EXECUTE_INSERT, mSql, mBindings, start, failed);
+      }
+    }
+
+    @Override
+    public long simpleQueryForLong() {
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        long result = super.simpleQueryForLong();
+        failed = false;
+        return result;
+      } finally {
+        record(Type.SIMPLE_QUERY_FOR_LONG, mSql, mBindings, start, failed);
+      }
+    }
+
+    @Override
+    public String simpleQueryForString() {
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        String result = super.simpleQueryForString();
+        failed = false;
+        return result;
+      } finally {
+        record(Type.SIMPLE_QUERY_FOR_STRING, mSql, mBindings, start, failed);
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+import com.getbase.android.schema.driver.StatementRecording.Entry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recorded and replayed execution times of every statement replayed by the
+ * {@link StatementReplayer}.
+ */
+public final class ReplayReport {
+  public static final class Result {
+    private final Entry mEntry;
+    private final long mReplayNanos;
+
+    Result(Entry entry, long replayNanos) {
+      mEntry = entry;
+      mReplayNanos = replayNanos;
+    }
+
+    public Entry getEntry() {
+      return mEntry;
+    }
+
+    public long getRecordedDuration(TimeUnit unit) {
+      return mEntry.getDuration(unit);
+    }
+
+    public long getReplayDuration(TimeUnit unit) {
+      return unit.convert(mReplayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private static final Ordering<Result> BY_REPLAY_DURATION = new Ordering<Result>() {
+    @Override
+    public int compare(Result left, Result right) {
+      return Long.compare(left.mReplayNanos, right.mReplayNanos);
+    }
+  };
+
+  private final ImmutableList<Result> mResults;
+
+  ReplayReport(ImmutableList<Result> results) {
+    mResults = results;
+  }
+
+  /**
+   * Results in the order of the recording.
+   */
+  public ImmutableList<Result> getResults() {
+    return mResults;
+  }
+
+  public ImmutableList<Result> getSlowest(int count) {
+    return ImmutableList.copyOf(BY_REPLAY_DURATION.greatestOf(mResults, count));
+  }
+
+  public long getTotalRecordedDuration(TimeUnit unit) {
+    long totalNanos = 0;
+    for (Result result : mResults) {
+      totalNanos += result.getRecordedDuration(TimeUnit.NANOSECONDS);
+    }
+    return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public long getTotalReplayDuration(TimeUnit unit) {
+    long totalNanos = 0;
+    for (Result result : mResults) {
+      totalNanos += result.mReplayNanos;
+    }
+    return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the human readable summary with the given number of the slowest
+   * statements.
+   */
+  public String format(int slowestCount) {
+    StringBuilder builder = new StringBuilder();
+    builder.append(String.format(Locale.US, "%d statements, recorded %d ms, replayed %d ms%n",
+        mResults.size(),
+        getTotalRecordedDuration(TimeUnit.MILLISECONDS),
+        getTotalReplayDuration(TimeUnit.MILLISECONDS)));
+    for (Result result : getSlowest(slowestCount)) {
+      Entry entry = result.getEntry();
+      builder.append(String.format(Locale.US, "%10.3f ms replayed %10.3f ms recorded  %s %s%n",
+          result.getReplayDuration(TimeUnit.MICROSECONDS) / 1000.0,
+          result.getRecordedDuration(TimeUnit.MICROSECONDS) / 1000.0,
+          entry.getType(),
+          entry.getSql() != null ? entry.getSql() : entry.getArgs()));
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public String toString() {
+    return format(10);
+  }
+}
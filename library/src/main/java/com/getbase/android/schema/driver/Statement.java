@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+/**
+ * Precompiled statement returned by {@link Database#compileStatement(String)}.
+ * Bind indexes start at 1.
+ */
+public interface Statement {
+  void bindNull(int index);
+
+  void bindLong(int index, long value);
+
+  void bindDouble(int index, double value);
+
+  void bindString(int index, String value);
+
+  void bindBlob(int index, byte[] value);
+
+  void clearBindings();
+
+  void execute();
+
+  long executeInsert();
+
+  long simpleQueryForLong();
+
+  String simpleQueryForString();
+
+  void close();
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statements recorded by the {@link RecordingDatabase}, which can be saved
+ * and replayed with the {@link StatementReplayer}.
+ */
+public final class StatementRecording {
+  private static final int MAGIC = 0x53555352;
+  private static final int FORMAT_VERSION = 2;
+  // version 1 is the same, but without the UNRECORDED_MIGRATION entries
+  private static final int MIN_FORMAT_VERSION = 1;
+
+  private static final byte ARG_NULL = 0;
+  private static final byte ARG_LONG = 1;
+  private static final byte ARG_DOUBLE = 2;
+  private static final byte ARG_STRING = 3;
+  private static final byte ARG_BLOB = 4;
+
+  public enum Type {
+    EXEC_SQL,
+    RAW_QUERY,
+    EXECUTE,
+    EXECUTE_INSERT,
+    SIMPLE_QUERY_FOR_LONG,
+    SIMPLE_QUERY_FOR_STRING,
+    BEGIN_TRANSACTION,
+    SET_TRANSACTION_SUCCESSFUL,
+    END_TRANSACTION,
+    SET_VERSION,
+    /**
+     * The plain {@link com.getbase.android.schema.Migration} applied directly
+     * to the SQLiteDatabase, whose statements are missing from the recording.
+     * The SQL is the description of the migration and the duration is the
+     * duration of the whole migration.
+     */
+    UNRECORDED_MIGRATION
+  }
+
+  public static final class Entry {
+    private final Type mType;
+    private final String mSql;
+    private final List<Object> mArgs;
+    private final long mDurationNanos;
+    private final boolean mFailed;
+
+    Entry(Type type, String sql, List<Object> args, long durationNanos, boolean failed) {
+      mType = checkNotNull(type);
+      mSql = sql;
+      mArgs = Collections.unmodifiableList(new ArrayList<>(args));
+      mDurationNanos = durationNanos;
+      mFailed = failed;
+    }
+
+    public Type getType() {
+      return mType;
+    }
+
+    /**
+     * Returns the executed SQL, or null for the transaction and version
+     * changes.
+     */
+    public String getSql() {
+      return mSql;
+    }
+
+    /**
+     * Returns the bind args, which are null, Long, Double, String or byte[].
+     * For {@link Type#SET_VERSION} the only arg is the version.
+     */
+    public List<Object> getArgs() {
+      return mArgs;
+    }
+
+    public long getDuration(TimeUnit unit) {
+      return unit.convert(mDurationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Whether the recorded call threw an exception, e.g. the simple query
+     * which didn't return any rows.
+     */
+    public boolean isFailed() {
+      return mFailed;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .omitNullValues()
+          .add("type", mType)
+          .add("sql", mSql)
+          .add("args", mArgs.isEmpty() ? null : mArgs)
+          .add("durationUs", getDuration(TimeUnit.MICROSECONDS))
+          .add("failed", mFailed ? true : null)
+          .toString();
+    }
+  }
+
+  private final ImmutableList<Entry> mEntries;
+
+  StatementRecording(ImmutableList<Entry> entries) {
+    mEntries = entries;
+  }
+
+  public ImmutableList<Entry> getEntries() {
+    return mEntries;
+  }
+
+  /**
+   * Returns the descriptions of the migrations whose statements are missing
+   * from the recording, see {@link Type#UNRECORDED_MIGRATION}.
+   */
+  public ImmutableList<String> getUnrecordedMigrations() {
+    ImmutableList.Builder<String> migrations = ImmutableList.builder();
+    for (Entry entry : mEntries) {
+      if (entry.mType == Type.UNRECORDED_MIGRATION) {
+        migrations.add(entry.mSql);
+      }
+    }
+    return migrations.build();
+  }
+
+  public long getTotalDuration(TimeUnit unit) {
+    long totalNanos = 0;
+    for (Entry entry : mEntries) {
+      totalNanos += entry.mDurationNanos;
+    }
+    return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void writeTo(OutputStream outputStream) throws IOException {
+    DataOutputStream out = new DataOutputStream(outputStream);
+
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(mEntries.size());
+    for (Entry entry : mEntries) {
+      out.writeByte(entry.mType.ordinal());
+      out.writeBoolean(entry.mSql != null);
+      if (entry.mSql != null) {
+        writeString(out, entry.mSql);
+      }
+      out.writeInt(entry.mArgs.size());
+      for (Object arg : entry.mArgs) {
+        writeArg(out, arg);
+      }
+      out.writeLong(entry.mDurationNanos);
+      out.writeBoolean(entry.mFailed);
+    }
+
+    out.flush();
+  }
+
+  public static StatementRecording readFrom(InputStream inputStream) throws IOException {
+    DataInputStream in = new DataInputStream(inputStream);
+
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a statement recording");
+    }
+    int formatVersion = in.readInt();
+    if (formatVersion < MIN_FORMAT_VERSION || formatVersion > FORMAT_VERSION) {
+      throw new IOException("Unsupported statement recording format version " + formatVersion);
+    }
+
+    ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+    for (int entriesCount = in.readInt(); entriesCount > 0; --entriesCount) {
+      int typeOrdinal = in.readByte();
+      if (typeOrdinal < 0 || typeOrdinal >= Type.values().length) {
+        throw new IOException("Unknown statement type " + typeOrdinal);
+      }
+      Type type = Type.values()[typeOrdinal];
+      String sql = in.readBoolean() ? readString(in) : null;
+      List<Object> args = new ArrayList<>();
+      for (int argsCount = in.readInt(); argsCount > 0; --argsCount) {
+        args.add(readArg(in));
+      }
+      entries.add(new Entry(type, sql, args, in.readLong(), in.readBoolean()));
+    }
+    return new StatementRecording(entries.build());
+  }
+
+  /**
+   * Converts the bind arg to one of the types supported by the SQLite.
+   */
+  static Object normalizeArg(Object arg) {
+    if (arg == null || arg instanceof Long || arg instanceof Double || arg instanceof String || arg instanceof byte[]) {
+      return arg;
+    } else if (arg instanceof Float) {
+      return ((Float) arg).doubleValue();
+    } else if (arg instanceof Number) {
+      return ((Number) arg).longValue();
+    } else if (arg instanceof Boolean) {
+      return (Boolean) arg ? 1L : 0L;
+    } else {
+      return arg.toString();
+    }
+  }
+
+  private static void writeArg(DataOutputStream out, Object arg) throws IOException {
+    if (arg == null) {
+      out.writeByte(ARG_NULL);
+    } else if (arg instanceof Long) {
+      out.writeByte(ARG_LONG);
+      out.writeLong((Long) arg);
+    } else if (arg instanceof Double) {
+      out.writeByte(ARG_DOUBLE);
+      out.writeDouble((Double) arg);
+    } else if (arg instanceof String) {
+      out.writeByte(ARG_STRING);
+      writeString(out, (String) arg);
+    } else {
+      byte[] blob = (byte[]) arg;
+      out.writeByte(ARG_BLOB);
+      out.writeInt(blob.length);
+      out.write(blob);
+    }
+  }
+
+  private static Object readArg(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case ARG_NULL:
+        return null;
+      case ARG_LONG:
+        return in.readLong();
+      case ARG_DOUBLE:
+        return in.readDouble();
+      case ARG_STRING:
+        return readString(in);
+      case ARG_BLOB:
+        byte[] blob = new byte[in.readInt()];
+        in.readFully(blob);
+        return blob;
+      default:
+        throw new IOException("Unknown bind arg type " + type);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+}
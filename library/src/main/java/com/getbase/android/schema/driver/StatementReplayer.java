@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema.driver;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.getbase.android.schema.driver.ReplayReport.Result;
+import com.getbase.android.schema.driver.StatementRecording.Entry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import android.database.Cursor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays the {@link StatementRecording} against the given {@link Database}
+ * and measures every statement. The entry point replays the recording on the
+ * JVM against a copy of the database file:
+ *
+ * <pre>
+ * StatementReplayer &lt;recording file&gt; &lt;database file&gt; [&lt;number of slowest statements to print&gt;]
+ * </pre>
+ *
+ * The copy is opened using the SQLite JDBC driver, which has to be on the
+ * classpath, e.g. org.xerial:sqlite-jdbc. The replay doesn't call any Android
+ * code, so the android.jar from the SDK is enough on the classpath. The
+ * compiled statements are reused between the schema changes, so like the
+ * recorded times, the replayed times of the compiled statements mostly don't
+ * include the compilation.
+ */
+public final class StatementReplayer {
+  private StatementReplayer() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    checkArgument(args.length == 2 || args.length == 3, "Usage: StatementReplayer <recording file> <database file> [<number of slowest statements to print>]");
+
+    StatementRecording recording;
+    InputStream inputStream = new FileInputStream(args[0]);
+    try {
+      recording = StatementRecording.readFrom(inputStream);
+    } finally {
+      inputStream.close();
+    }
+
+    if (!recording.getUnrecordedMigrations().isEmpty()) {
+      System.err.println("Statements of the following migrations were not recorded and won't be replayed: " + recording.getUnrecordedMigrations());
+    }
+
+    File copy = File.createTempFile("replay", ".db");
+    try {
+      Files.copy(new File(args[1]), copy);
+
+      JdbcDatabase database = JdbcDatabase.open("jdbc:sqlite:" + copy.getAbsolutePath());
+      try {
+        ReplayReport report = replay(recording, database);
+        System.out.print(report.format(args.length == 3 ? Integer.parseInt(args[2]) : 20));
+      } finally {
+        database.close();
+      }
+    } finally {
+      if (!copy.delete()) {
+        copy.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * Replays the recording. The statements which failed during the recording
+   * are expected to fail during the replay as well, and their exceptions are
+   * ignored. The {@link StatementRecording.Type#UNRECORDED_MIGRATION} entries
+   * cannot be replayed and are skipped.
+   */
+  public static ReplayReport replay(StatementRecording recording, Database database) {
+    ImmutableList.Builder<Result> results = ImmutableList.builder();
+    Map<String, Statement> statements = Maps.newHashMap();
+    try {
+      for (Entry entry : recording.getEntries()) {
+        long start = System.nanoTime();
+        try {
+          replay(entry, database, statements);
+        } catch (RuntimeException e) {
+          if (!entry.isFailed()) {
+            throw e;
+          }
+        }
+        results.add(new Result(entry, System.nanoTime() - start));
+      }
+    } finally {
+      closeAll(statements);
+    }
+    return new ReplayReport(results.build());
+  }
+
+  /**
+   * The compiled statements are closed before every execSQL, which might
+   * change the schema they were compiled against.
+   */
+  private static void closeAll(Map<String, Statement> statements) {
+    for (Statement statement : statements.values()) {
+      statement.close();
+    }
+    statements.clear();
+  }
+
+  private static void replay(Entry entry, Database database, Map<String, Statement> statements) {
+    List<Object> args = entry.getArgs();
+    switch (entry.getType()) {
+      case EXEC_SQL:
+        closeAll(statements);
+        if (args.isEmpty()) {
+          database.execSQL(entry.getSql());
+        } else {
+          database.execSQL(entry.getSql(), args.toArray());
+        }
+        break;
+      case RAW_QUERY:
+        Cursor cursor = database.rawQuery(entry.getSql(), args.isEmpty() ? null : args.toArray(new String[args.size()]));
+        if (cursor != null) {
+          cursor.getCount();
+          cursor.close();
+        }
+        break;
+      case EXECUTE:
+        bind(entry, database, statements).execute();
+        break;
+      case EXECUTE_INSERT:
+        bind(entry, database, statements).executeInsert();
+        break;
+      case SIMPLE_QUERY_FOR_LONG:
+        bind(entry, database, statements).simpleQueryForLong();
+        break;
+      case SIMPLE_QUERY_FOR_STRING:
+        bind(entry, database, statements).simpleQueryForString();
+        break;
+      case BEGIN_TRANSACTION:
+        database.beginTransaction();
+        break;
+      case SET_TRANSACTION_SUCCESSFUL:
+        database.setTransactionSuccessful();
+        break;
+      case END_TRANSACTION:
+        database.endTransaction();
+        break;
+      case SET_VERSION:
+        database.setVersion(((Long) args.get(0)).intValue());
+        break;
+      case UNRECORDED_MIGRATION:
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown statement type " + entry.getType());
+    }
+  }
+
+  private static Statement bind(Entry entry, Database database, Map<String, Statement> statements) {
+    Statement statement = statements.get(entry.getSql());
+    if (statement == null) {
+      statement = database.compileStatement(entry.getSql());
+      statements.put(entry.getSql(), statement);
+    }
+
+    statement.clearBindings();
+    List<Object> args = entry.getArgs();
+    for (int i = 0; i < args.size(); i++) {
+      Object arg = args.get(i);
+      if (arg == null) {
+        statement.bindNull(i + 1);
+      } else if (arg instanceof Long) {
+        statement.bindLong(i + 1, (Long) arg);
+      } else if (arg instanceof Double) {
+        statement.bindDouble(i + 1, (Double) arg);
+      } else if (arg instanceof String) {
+        statement.bindString(i + 1, (String) arg);
+      } else {
+        statement.bindBlob(i + 1, (byte[]) arg);
+      }
+    }
+    return statement;
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.getbase.android.sqlitemaster;
 
+import com.getbase.android.schema.driver.Database;
+
 import android.database.Cursor;
 import android.database.sqlite.SQLiteCursor;
 import android.database.sqlite.SQLiteCursorDriver;
@@ -80,6 +82,24 @@ public final class SQLiteMaster {
     );
   }
 
+  public static List<SQLiteSchemaPart> getSQLiteSchemaParts(Database db, SQLiteSchemaPartType partType) {
+    return getSQLiteSchemaParts(
+        db.rawQuery(
+            "SELECT * FROM " + SQLITE_MASTER_TABLE + " WHERE " + SqliteMasterColumns.TYPE + "= ? ORDER BY " + SqliteMasterColumns.NAME,
+            new String[] { partType.getTypeName() }
+        )
+    );
+  }
+
+  public static List<SQLiteSchemaPart> getSQLiteSchemaParts(Database db) {
+    return getSQLiteSchemaParts(
+        db.rawQuery(
+            "SELECT * FROM " + SQLITE_MASTER_TABLE + " ORDER BY " + SqliteMasterColumns.NAME,
+            null
+        )
+    );
+  }
+
   private static List<SQLiteSchemaPart> getSQLiteSchemaParts(Cursor c) {
     List<SQLiteSchemaPart> result = new ArrayList<>();
     if (c != null) {
@@ -119,4 +139,24 @@ public final class SQLiteMaster {
       db.execSQL("DROP VIEW IF EXISTS " + view.name);
     }
   }
+
+  public static void dropTriggers(Database db) {
+    for (SQLiteSchemaPart trigger : getSQLiteSchemaParts(db, SQLiteSchemaPartType.TRIGGER)) {
+      db.execSQL("DROP TRIGGER IF EXISTS " + trigger.name);
+    }
+  }
+
+  public static void dropIndexes(Database db) {
+    for (SQLiteSchemaPart index : getSQLiteSchemaParts(db, SQLiteSchemaPartType.INDEX)) {
+      if (!index.name.startsWith("sqlite_")) {
+        db.execSQL("DROP INDEX IF EXISTS " + index.name);
+      }
+    }
+  }
+
+  public static void dropViews(Database db) {
+    for (SQLiteSchemaPart view : getSQLiteSchemaParts(db, SQLiteSchemaPartType.VIEW)) {
+      db.execSQL("DROP VIEW IF EXISTS " + view.name);
+    }
+  }
 }
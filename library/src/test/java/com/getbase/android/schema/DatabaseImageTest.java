@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.DatabaseSettings.AutoVacuum;
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DatabaseImageTest {
+
+  private static final String DB_NAME = "image.db";
+
+  @After
+  public void tearDown() throws Exception {
+    Robolectric.application.deleteDatabase(DB_NAME);
+  }
+
+  @Test
+  public void shouldCopyImageWhenDatabaseDoesNotExist() throws Exception {
+    byte[] image = new byte[3 * 1024 * 1024 + 17];
+    Arrays.fill(image, (byte) 42);
+
+    assertThat(DatabaseImage.install(Robolectric.application, DB_NAME, ByteSource.wrap(image))).isTrue();
+
+    File database = Robolectric.application.getDatabasePath(DB_NAME);
+    assertThat(Arrays.equals(Files.toByteArray(database), image)).isTrue();
+  }
+
+  @Test
+  public void shouldNotOverwriteExistingDatabase() throws Exception {
+    DatabaseImage.install(Robolectric.application, DB_NAME, ByteSource.wrap(new byte[] { 1 }));
+
+    assertThat(DatabaseImage.install(Robolectric.application, DB_NAME, ByteSource.wrap(new byte[] { 2 }))).isFalse();
+
+    File database = Robolectric.application.getDatabasePath(DB_NAME);
+    assertThat(Arrays.equals(Files.toByteArray(database), new byte[] { 1 })).isTrue();
+  }
+
+  @Test
+  public void shouldInstallGeneratedImage() throws Exception {
+    Schemas schemas = Builder
+        .currentSchema(7,
+            new TableDefinition("Deals",
+                new AddColumn("id", "INTEGER PRIMARY KEY"),
+                new AddColumn("contact_id", "INTEGER REFERENCES Contacts(id)")
+            ),
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER PRIMARY KEY"),
+                new AddColumn("name", "TEXT")
+            )
+        )
+        .build();
+
+    File image = File.createTempFile("image", ".db");
+    try {
+      DatabaseImageGenerator.write(schemas, CreateOptions.builder()
+          .withIndexStatements("CREATE INDEX deals_contact_id ON Deals(contact_id)")
+          .build(), image);
+
+      assertThat(DatabaseImage.install(Robolectric.application, DB_NAME, Files.asByteSource(image))).isTrue();
+    } finally {
+      image.delete();
+    }
+
+    File database = Robolectric.application.getDatabasePath(DB_NAME);
+    Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath());
+    try {
+      Statement statement = connection.createStatement();
+      try {
+        assertThat(queryStrings(statement, "SELECT name FROM sqlite_master WHERE type='table' ORDER BY rowid")).containsExactly("Contacts", "Deals").inOrder();
+        assertThat(queryStrings(statement, "SELECT name FROM sqlite_master WHERE type='index'")).containsExactly("deals_contact_id");
+        assertThat(queryStrings(statement, "SELECT sql FROM sqlite_master WHERE name='Deals'")).containsExactly(schemas.getCurrentSchema().getCreateTableStatement("Deals"));
+        assertThat(queryStrings(statement, "PRAGMA user_version")).containsExactly("7");
+      } finally {
+        statement.close();
+      }
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void shouldGenerateImageWithDeclaredSettings() throws Exception {
+    Schemas schemas = Builder
+        .currentSchema(1,
+            DatabaseSettings.builder()
+                .pageSize(8192)
+                .autoVacuum(AutoVacuum.INCREMENTAL)
+                .build(),
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER PRIMARY KEY")
+            )
+        )
+        .build();
+
+    File image = File.createTempFile("image", ".db");
+    try {
+      DatabaseImageGenerator.write(schemas, CreateOptions.DEFAULT, image);
+
+      Connection connection = DriverManager.getConnection("jdbc:sqlite:" + image.getAbsolutePath());
+      try {
+        Statement statement = connection.createStatement();
+        try {
+          assertThat(queryStrings(statement, "PRAGMA page_size")).containsExactly("8192");
+          assertThat(queryStrings(statement, "PRAGMA auto_vacuum")).containsExactly("2");
+        } finally {
+          statement.close();
+        }
+      } finally {
+        connection.close();
+      }
+    } finally {
+      image.delete();
+    }
+  }
+
+  private static List<String> queryStrings(Statement statement, String sql) throws Exception {
+    List<String> result = Lists.newArrayList();
+    ResultSet resultSet = statement.executeQuery(sql);
+    try {
+      while (resultSet.next()) {
+        result.add(resultSet.getString(1));
+      }
+    } finally {
+      resultSet.close();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DatabaseRebuilderTest {
+
+  private static final Schemas SCHEMAS = Builder
+      .currentSchema(2,
+          new TableDefinition("Contacts",
+              new AddColumn("id", "INTEGER PRIMARY KEY AUTOINCREMENT"),
+              new AddColumn("name", "TEXT"),
+              new AddColumn("email", "TEXT")
+          ),
+          new TableDefinition("Deals",
+              new AddColumn("id", "INTEGER"),
+              new AddColumn("contact_id", "INTEGER REFERENCES Contacts(id)")
+          ),
+          new TableDefinition("Notes",
+              new AddColumn("id", "INTEGER"),
+              new AddColumn("content", "TEXT")
+          )
+      )
+      .downgradeTo(1,
+          new TableDowngrade("Contacts", new DropColumn("email")),
+          new TableDowngrade("Notes", new AddColumn("obsolete", "TEXT")),
+          new TableDowngrade("Leads", new AddColumn("id", "INTEGER"))
+      )
+      .build();
+
+  private File mDatabaseFile;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabaseFile = Robolectric.application.getDatabasePath("rebuilt.db");
+    mDatabaseFile.getParentFile().mkdirs();
+    mDatabaseFile.delete();
+
+    SQLiteDatabase db = SQLiteDatabase.openDatabase(mDatabaseFile.getPath(), null, SQLiteDatabase.CREATE_IF_NECESSARY);
+    SCHEMAS.getSchema(1).createAll(db);
+    db.execSQL("CREATE INDEX deals_contact_id ON Deals(contact_id)");
+    db.execSQL("CREATE INDEX notes_content ON Notes(content)");
+    db.execSQL("CREATE TABLE Cache(key TEXT)");
+    for (int i = 0; i < 10; i++) {
+      db.execSQL("INSERT INTO Contacts (name) VALUES (?)", new Object[] { "John " + i });
+      db.execSQL("INSERT INTO Deals (id, contact_id) VALUES (?, ?)", new Object[] { i, i + 1 });
+      db.execSQL("INSERT INTO Notes (id, content, obsolete) VALUES (?, 'note', 'x')", new Object[] { i });
+    }
+    db.execSQL("DELETE FROM Contacts WHERE id=10");
+    db.execSQL("INSERT INTO Cache (key) VALUES ('k')");
+    db.setVersion(1);
+    db.close();
+  }
+
+  @Test
+  public void shouldRebuildDatabaseWithCurrentSchema() throws Exception {
+    assertThat(DatabaseRebuilder.rebuild(mDatabaseFile, SCHEMAS, 0.5f)).isTrue();
+
+    SQLiteDatabase db = SQLiteDatabase.openDatabase(mDatabaseFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+    try {
+      assertThat(db.getVersion()).isEqualTo(2);
+      assertThat(MigrationsHelper.getColumns(db, "Contacts")).containsExactly("id", "name", "email");
+      assertThat(MigrationsHelper.getColumns(db, "Notes")).containsExactly("id", "content");
+      assertThat(DatabaseUtils.queryNumEntries(db, "Contacts")).isEqualTo(9L);
+      assertThat(DatabaseUtils.queryNumEntries(db, "Deals")).isEqualTo(10L);
+      assertThat(DatabaseUtils.queryNumEntries(db, "Cache")).isEqualTo(1L);
+      assertThat(DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name='Leads'", null)).isEqualTo(0L);
+
+      // indexes of the unmodified tables are kept, those of the rebuilt tables are dropped
+      assertThat(DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name='deals_contact_id'", null)).isEqualTo(1L);
+      assertThat(DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name='notes_content'", null)).isEqualTo(0L);
+
+      // AUTOINCREMENT doesn't reuse the ids of the deleted rows
+      db.execSQL("INSERT INTO Contacts (name) VALUES ('Jane')");
+      assertThat(DatabaseUtils.longForQuery(db, "SELECT MAX(id) FROM Contacts", null)).isEqualTo(11L);
+    } finally {
+      db.close();
+    }
+    assertThat(new File(mDatabaseFile.getPath() + ".rebuild").exists()).isFalse();
+  }
+
+  @Test
+  public void shouldNotRebuildWhenFewTablesAreModified() throws Exception {
+    assertThat(DatabaseRebuilder.rebuild(mDatabaseFile, SCHEMAS, 0.9f)).isFalse();
+
+    SQLiteDatabase db = SQLiteDatabase.openDatabase(mDatabaseFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+    try {
+      assertThat(db.getVersion()).isEqualTo(1);
+    } finally {
+      db.close();
+    }
+  }
+}
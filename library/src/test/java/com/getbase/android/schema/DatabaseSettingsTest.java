@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.DatabaseSettings.Action;
+import com.getbase.android.schema.DatabaseSettings.AutoVacuum;
+import com.getbase.android.schema.DatabaseSettings.Report;
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DatabaseSettingsTest {
+
+  private final Schemas mSchemas = Builder
+      .currentSchema(3,
+          DatabaseSettings.builder()
+              .pageSize(8192)
+              .autoVacuum(AutoVacuum.INCREMENTAL)
+              .build(),
+          new TableDefinition("Contacts",
+              new AddColumn("id", "INTEGER"),
+              new AddColumn("name", "TEXT")
+          )
+      )
+      .downgradeTo(2,
+          DatabaseSettings.builder()
+              .autoVacuum(AutoVacuum.NONE)
+              .build(),
+          new TableDowngrade("Contacts", new DropColumn("name"))
+      )
+      .downgradeTo(1,
+          DatabaseSettings.builder()
+              .pageSize(4096)
+              .build()
+      )
+      .build();
+
+  private SQLiteDatabase mDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+    mDatabase.execSQL(mSchemas.getSchema(1).getCreateTableStatement("Contacts"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldInheritUndeclaredSettingsFromNewerRevisions() throws Exception {
+    assertThat(mSchemas.getSettings(3)).isEqualTo(DatabaseSettings.builder().pageSize(8192).autoVacuum(AutoVacuum.INCREMENTAL).build());
+    assertThat(mSchemas.getSettings(2)).isEqualTo(DatabaseSettings.builder().pageSize(8192).autoVacuum(AutoVacuum.NONE).build());
+    assertThat(mSchemas.getSchema(1).getSettings()).isEqualTo(DatabaseSettings.builder().pageSize(4096).autoVacuum(AutoVacuum.NONE).build());
+  }
+
+  @Test
+  public void shouldVacuumWhenAutoVacuumIsEnabled() throws Exception {
+    assertThat(DatabaseSettings.builder().autoVacuum(AutoVacuum.FULL).build().apply(mDatabase).getPerformedActions())
+        .containsExactly(Action.AUTO_VACUUM, Action.VACUUM);
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "PRAGMA auto_vacuum", null)).isEqualTo(1L);
+  }
+
+  @Test
+  public void shouldSwitchAutoVacuumModeWithoutVacuum() throws Exception {
+    DatabaseSettings.builder().autoVacuum(AutoVacuum.FULL).build().apply(mDatabase);
+
+    assertThat(DatabaseSettings.builder().autoVacuum(AutoVacuum.INCREMENTAL).build().apply(mDatabase).getPerformedActions())
+        .containsExactly(Action.AUTO_VACUUM);
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "PRAGMA auto_vacuum", null)).isEqualTo(2L);
+  }
+
+  @Test
+  public void shouldNotVacuumInsideTransaction() throws Exception {
+    mDatabase.beginTransaction();
+    try {
+      Report report = DatabaseSettings.builder().autoVacuum(AutoVacuum.FULL).build().apply(mDatabase);
+      assertThat(report.getPerformedActions()).isEmpty();
+      assertThat(report.getSkippedActions()).containsExactly(Action.AUTO_VACUUM, Action.VACUUM);
+    } finally {
+      mDatabase.endTransaction();
+    }
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "PRAGMA auto_vacuum", null)).isEqualTo(0L);
+  }
+
+  @Test
+  public void shouldApplySettingsAtTheEndOfUpgrade() throws Exception {
+    mSchemas.upgrade(Robolectric.application, mDatabase, 1, 3);
+
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "PRAGMA auto_vacuum", null)).isEqualTo(2L);
+    assertThat(mSchemas.applySettings(mDatabase).getPerformedActions()).doesNotContain(Action.AUTO_VACUUM);
+  }
+
+  @Test
+  public void shouldApplySettingsBeforeCreatingTables() throws Exception {
+    // without the android_metadata table the database is still empty
+    SQLiteDatabase database = SQLiteDatabase.openDatabase(":memory:", null, SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+    try {
+      mSchemas.getCurrentSchema().createAll(database);
+
+      assertThat(DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null)).isEqualTo(2L);
+      assertThat(mSchemas.applySettings(database).getPerformedActions()).doesNotContain(Action.AUTO_VACUUM);
+    } finally {
+      database.close();
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.getbase.android.schema.driver.AndroidDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ForeignKeyMigrationTest {
+
+  private final Schemas mSchemas = Builder
+      .currentSchema(2,
+          new TableDefinition("Children",
+              new AddColumn("id", "INTEGER PRIMARY KEY"),
+              new AddColumn("parent_id", "INTEGER REFERENCES Parents(id)"),
+              new AddColumn("note", "TEXT")
+          ),
+          new TableDefinition("Parents",
+              new AddColumn("id", "INTEGER PRIMARY KEY"),
+              new AddColumn("name", "TEXT"),
+              new AddColumn("email", "TEXT")
+          )
+      )
+      .downgradeTo(1,
+          new TableDowngrade("Children", new DropColumn("note")),
+          new TableDowngrade("Parents", new DropColumn("email"))
+      )
+      .build();
+
+  private SQLiteDatabase mDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+    mDatabase.execSQL(mSchemas.getSchema(1).getCreateTableStatement("Parents"));
+    mDatabase.execSQL(mSchemas.getSchema(1).getCreateTableStatement("Children"));
+    mDatabase.execSQL("INSERT INTO Parents (id, name) VALUES (1, 'John')");
+    mDatabase.execSQL("INSERT INTO Children (id, parent_id) VALUES (1, 1)");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldRebuildReferencedTablesWithForeignKeysEnabled() throws Exception {
+    assumeTrue(canDeferForeignKeys());
+    mDatabase.execSQL("PRAGMA foreign_keys=ON");
+
+    upgradeInTransaction();
+
+    assertThat(DatabaseUtils.stringForQuery(mDatabase, "SELECT sql FROM sqlite_master WHERE name='Children'", null))
+        .contains("REFERENCES Parents(id)");
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "SELECT parent_id FROM Children WHERE id=1", null)).isEqualTo(1L);
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Parents")).containsExactly("id", "name", "email");
+
+    try {
+      mDatabase.execSQL("INSERT INTO Children (id, parent_id) VALUES (2, 2)");
+      fail("Expected the foreign key to be enforced after the upgrade");
+    } catch (SQLiteException expected) {
+    }
+  }
+
+  @Test
+  public void shouldReportForeignKeyViolationsInAffectedTables() throws Exception {
+    assumeTrue(canDeferForeignKeys());
+    mDatabase.execSQL("INSERT INTO Children (id, parent_id) VALUES (2, 2)");
+    mDatabase.execSQL("PRAGMA foreign_keys=ON");
+
+    try {
+      upgradeInTransaction();
+      fail("Expected the foreign key check to fail");
+    } catch (IllegalStateException expected) {
+      assertThat(expected.getMessage()).contains("Children");
+    }
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Parents")).containsExactly("id", "name");
+  }
+
+  @Test
+  public void shouldNotRebuildTablesReferencedWithDeleteActionsWithForeignKeysEnabled() throws Exception {
+    mDatabase.execSQL("CREATE TABLE Pets (id INTEGER PRIMARY KEY, owner_id INTEGER REFERENCES Parents(id) ON DELETE CASCADE)");
+    mDatabase.execSQL("INSERT INTO Pets (id, owner_id) VALUES (1, 1)");
+    mDatabase.execSQL("PRAGMA foreign_keys=ON");
+
+    try {
+      upgradeInTransaction();
+      fail("Expected the rebuild to be rejected");
+    } catch (IllegalStateException expected) {
+      assertThat(expected.getMessage()).contains("Pets");
+      assertThat(expected.getMessage()).contains("CASCADE");
+    }
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "SELECT COUNT(*) FROM Pets", null)).isEqualTo(1L);
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Parents")).containsExactly("id", "name");
+  }
+
+  @Test
+  public void shouldKeepReferencesToRebuiltTablesOutsideOfTransaction() throws Exception {
+    mDatabase.execSQL("CREATE TABLE Pets (id INTEGER PRIMARY KEY, owner_id INTEGER REFERENCES Parents(id) ON DELETE CASCADE)");
+    mDatabase.execSQL("INSERT INTO Pets (id, owner_id) VALUES (1, 1)");
+    mDatabase.execSQL("PRAGMA foreign_keys=ON");
+
+    mSchemas.upgrade(Robolectric.application, mDatabase, 1, 2);
+
+    assertThat(DatabaseUtils.stringForQuery(mDatabase, "SELECT sql FROM sqlite_master WHERE name='Pets'", null))
+        .contains("REFERENCES Parents(id)");
+    assertThat(DatabaseUtils.stringForQuery(mDatabase, "SELECT sql FROM sqlite_master WHERE name='Children'", null))
+        .contains("REFERENCES Parents(id)");
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "SELECT owner_id FROM Pets WHERE id=1", null)).isEqualTo(1L);
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Parents")).containsExactly("id", "name", "email");
+  }
+
+  @Test
+  public void shouldRejectRebuildOfReferencedTablesWhenForeignKeysCannotBeDeferred() throws Exception {
+    assumeFalse(canDeferForeignKeys());
+    mDatabase.execSQL("PRAGMA foreign_keys=ON");
+
+    try {
+      upgradeInTransaction();
+      fail("Expected the rebuild to be rejected");
+    } catch (IllegalStateException expected) {
+      assertThat(expected.getMessage()).contains("Parents");
+    }
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "SELECT COUNT(*) FROM Children", null)).isEqualTo(1L);
+  }
+
+  @Test
+  public void shouldReportForeignKeyViolationsOutsideOfTransaction() throws Exception {
+    mDatabase.execSQL("INSERT INTO Children (id, parent_id) VALUES (2, 2)");
+    mDatabase.execSQL("PRAGMA foreign_keys=ON");
+
+    try {
+      mSchemas.upgrade(Robolectric.application, mDatabase, 1, 2);
+      fail("Expected the foreign key check to fail");
+    } catch (IllegalStateException expected) {
+      assertThat(expected.getMessage()).contains("Children");
+    }
+  }
+
+  private boolean canDeferForeignKeys() {
+    return SQLiteVersion.isAtLeast(AndroidDatabase.wrap(mDatabase), SQLiteVersion.DEFER_FOREIGN_KEYS);
+  }
+
+  private void upgradeInTransaction() {
+    mDatabase.beginTransaction();
+    try {
+      mSchemas.upgrade(Robolectric.application, mDatabase, 1, 2);
+      mDatabase.setTransactionSuccessful();
+    } finally {
+      mDatabase.endTransaction();
+    }
+  }
+}
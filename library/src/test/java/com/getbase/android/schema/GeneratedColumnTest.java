@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.AddGeneratedColumn;
+import com.getbase.android.schema.Schemas.AddGeneratedColumn.Storage;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.getbase.android.schema.driver.JdbcDatabase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeneratedColumnTest {
+
+  private final Schemas mSchemas = Builder
+      .currentSchema(3,
+          new TableDefinition("Contacts",
+              new AddColumn("name", "TEXT"),
+              new AddGeneratedColumn("name_key", "TEXT", "lower(trim(name))", Storage.STORED)
+          )
+      )
+      .downgradeTo(2,
+          new TableDowngrade("Contacts", new AddGeneratedColumn("name_key", "TEXT", "lower(name)", Storage.VIRTUAL))
+      )
+      .downgradeTo(1,
+          new TableDowngrade("Contacts", new DropColumn("name_key"))
+      )
+      .build();
+
+  @Test
+  public void shouldBuildGeneratedColumnDefinition() throws Exception {
+    assertThat(mSchemas.getSchema(3).getCreateTableStatement("Contacts"))
+        .contains("name_key TEXT GENERATED ALWAYS AS (lower(trim(name))) STORED");
+    assertThat(mSchemas.getSchema(2).getCreateTableStatement("Contacts"))
+        .contains("name_key TEXT GENERATED ALWAYS AS (lower(name)) VIRTUAL");
+    assertThat(mSchemas.getSchema(1).getCreateTableStatement("Contacts"))
+        .isEqualTo("CREATE TABLE Contacts(name TEXT)");
+  }
+
+  @Test
+  public void shouldTreatGeneratedColumnsAsColumns() throws Exception {
+    assertThat(mSchemas.getSchema(3).getColumns("Contacts")).containsExactly("name", "name_key");
+    assertThat(mSchemas.getSchema(1).getColumns("Contacts")).containsExactly("name");
+    assertThat(mSchemas.getTablesModifiedInRevision(3)).containsExactly("Contacts");
+  }
+
+  @Test
+  public void shouldNotAlterTableWithStoredGeneratedColumn() throws Exception {
+    String current = MigrationsHelper.normalizeStatement("CREATE TABLE Contacts (name TEXT)");
+
+    assertThat(MigrationsHelper.getAppendedColumnDefinitions(current, MigrationsHelper.normalizeStatement(
+        "CREATE TABLE Contacts (name TEXT, name_key TEXT GENERATED ALWAYS AS (lower(name)) VIRTUAL)"
+    ))).containsExactly("name_key TEXT GENERATED ALWAYS AS(lower(name))VIRTUAL");
+    assertThat(MigrationsHelper.getAppendedColumnDefinitions(current, MigrationsHelper.normalizeStatement(
+        "CREATE TABLE Contacts (name TEXT, name_key TEXT GENERATED ALWAYS AS (lower(name)) STORED)"
+    ))).isNull();
+  }
+
+  @Test
+  public void shouldRebuildTableWithGeneratedColumns() throws Exception {
+    JdbcDatabase database = JdbcDatabase.inMemory();
+    try {
+      database.execSQL(mSchemas.getSchema(1).getCreateTableStatement("Contacts"));
+      database.execSQL("INSERT INTO Contacts (name) VALUES (?)", new Object[] { " John " });
+
+      mSchemas.upgrade(Robolectric.application, database, 1, 2);
+
+      assertThat(MigrationsHelper.getGeneratedColumns(database, "Contacts")).containsExactly("name_key");
+      assertThat(database.compileStatement("SELECT name_key FROM Contacts").simpleQueryForString()).isEqualTo(" john ");
+
+      mSchemas.upgrade(Robolectric.application, database, 2, 3);
+
+      assertThat(database.compileStatement("SELECT sql FROM sqlite_master WHERE name='Contacts'").simpleQueryForString())
+          .contains("name_key TEXT GENERATED ALWAYS AS (lower(trim(name))) STORED");
+      assertThat(database.compileStatement("SELECT name_key FROM Contacts").simpleQueryForString()).isEqualTo("john");
+
+      database.execSQL("INSERT INTO Contacts (name) VALUES (?)", new Object[] { " Jane" });
+      assertThat(database.compileStatement("SELECT group_concat(name_key) FROM Contacts").simpleQueryForString()).isEqualTo("john,jane");
+    } finally {
+      database.close();
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.getbase.android.schema.TestUtils.EMPTY_MIGRATION;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.getbase.android.schema.driver.DatabaseException;
+import com.getbase.android.schema.driver.JdbcDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class JdbcDatabaseTest {
+
+  private static final Schemas SCHEMAS = Builder
+      .currentSchema(2,
+          new TableDefinition("Contacts",
+              new AddColumn("id", "INTEGER"),
+              new AddColumn("name", "TEXT")
+          )
+      )
+      .downgradeTo(1,
+          new TableDowngrade("Contacts", new DropColumn("name"))
+      )
+      .build();
+
+  private JdbcDatabase mDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = JdbcDatabase.inMemory();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldPerformAutoMigration() throws Exception {
+    mDatabase.execSQL(SCHEMAS.getSchema(1).getCreateTableStatement("Contacts"));
+    mDatabase.execSQL("INSERT INTO Contacts (id) VALUES (?)", new Object[] { 42 });
+
+    SCHEMAS.upgrade(Robolectric.application, mDatabase, 1, 2);
+
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Contacts")).containsExactly("id", "name");
+    assertThat(mDatabase.compileStatement("SELECT id FROM Contacts").simpleQueryForLong()).isEqualTo(42L);
+  }
+
+  @Test
+  public void shouldRollbackTransactionWhenNestedTransactionFails() throws Exception {
+    mDatabase.execSQL("CREATE TABLE Deals (id INTEGER)");
+
+    mDatabase.beginTransaction();
+    try {
+      mDatabase.beginTransaction();
+      try {
+        mDatabase.execSQL("INSERT INTO Deals (id) VALUES (1)");
+      } finally {
+        mDatabase.endTransaction();
+      }
+      mDatabase.setTransactionSuccessful();
+    } finally {
+      mDatabase.endTransaction();
+    }
+
+    assertThat(mDatabase.inTransaction()).isFalse();
+    assertThat(mDatabase.compileStatement("SELECT COUNT(*) FROM Deals").simpleQueryForLong()).isEqualTo(0L);
+  }
+
+  @Test
+  public void shouldReturnCursorWithoutAndroidRuntime() throws Exception {
+    mDatabase.execSQL("CREATE TABLE Deals (id INTEGER, value REAL, name TEXT, data BLOB)");
+    mDatabase.execSQL("INSERT INTO Deals VALUES (?, ?, ?, ?)", new Object[] { 1, 2.5, "Big deal", new byte[] { 42 } });
+    mDatabase.execSQL("INSERT INTO Deals (id) VALUES (2)");
+
+    Cursor cursor = mDatabase.rawQuery("SELECT * FROM Deals ORDER BY id", null);
+    try {
+      assertThat(cursor.getCount()).isEqualTo(2);
+      assertThat(cursor.getColumnIndexOrThrow("Deals.name")).isEqualTo(2);
+      assertThat(cursor.isBeforeFirst()).isTrue();
+
+      assertThat(cursor.moveToFirst()).isTrue();
+      assertThat(cursor.getType(0)).isEqualTo(Cursor.FIELD_TYPE_INTEGER);
+      assertThat(cursor.getLong(0)).isEqualTo(1L);
+      assertThat(cursor.getDouble(1)).isEqualTo(2.5);
+      assertThat(cursor.getString(2)).isEqualTo("Big deal");
+      assertThat(Arrays.equals(cursor.getBlob(3), new byte[] { 42 })).isTrue();
+
+      assertThat(cursor.moveToNext()).isTrue();
+      assertThat(cursor.isLast()).isTrue();
+      assertThat(cursor.isNull(2)).isTrue();
+      assertThat(cursor.getType(2)).isEqualTo(Cursor.FIELD_TYPE_NULL);
+      assertThat(cursor.moveToNext()).isFalse();
+      assertThat(cursor.isAfterLast()).isTrue();
+    } finally {
+      cursor.close();
+    }
+    assertThat(cursor.isClosed()).isTrue();
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void shouldThrowDatabaseExceptionForInvalidStatement() throws Exception {
+    mDatabase.execSQL("CREATE TABLE");
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void shouldThrowDatabaseExceptionForEmptySimpleQuery() throws Exception {
+    mDatabase.execSQL("CREATE TABLE Deals (id INTEGER)");
+    mDatabase.compileStatement("SELECT id FROM Deals").simpleQueryForLong();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectMigrationWhichRequiresSQLiteDatabase() throws Exception {
+    Schemas schemas = Builder
+        .currentSchema(2)
+        .upgradeTo(2, EMPTY_MIGRATION)
+        .build();
+
+    schemas.upgrade(Robolectric.application, mDatabase, 1, 2);
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.getbase.android.schema.MigrationsHelper.TableMigration;
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MigrationListenerTest {
+
+  private final Schemas mSchemas = Builder
+      .currentSchema(3,
+          new TableDefinition("Contacts",
+              new AddColumn("id", "INTEGER"),
+              new AddColumn("name", "TEXT"),
+              new AddColumn("email", "TEXT")
+          )
+      )
+      .downgradeTo(2,
+          new TableDowngrade("Contacts", new DropColumn("email"))
+      )
+      .downgradeTo(1,
+          new TableDowngrade("Contacts", new AddColumn("obsolete", "TEXT"))
+      )
+      .build();
+
+  private SQLiteDatabase mDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+    mDatabase.execSQL(mSchemas.getSchema(1).getCreateTableStatement("Contacts"));
+    for (int i = 0; i < 10; i++) {
+      mDatabase.execSQL("INSERT INTO Contacts (id, name) VALUES (?, 'John')", new Object[] { i });
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldReportRevisionsAndTableMigrations() throws Exception {
+    MigrationReport report = new MigrationReport();
+    mSchemas.upgrade(Robolectric.application, mDatabase, 1, 3,
+        UpgradeOptions.builder()
+            .migrationListener(report)
+            .inPlaceMigrations(true)
+            .build()
+    );
+
+    JSONArray revisions = report.toJson().getJSONArray("revisions");
+    assertThat(revisions.length()).isEqualTo(2);
+
+    JSONObject revision2 = revisions.getJSONObject(0);
+    assertThat(revision2.getInt("revision")).isEqualTo(2);
+    assertThat(revision2.getJSONArray("migrations").length()).isEqualTo(1);
+    JSONObject rebuiltTable = revision2.getJSONArray("tables").getJSONObject(0);
+    assertThat(rebuiltTable.getString("table")).isEqualTo("Contacts");
+    assertThat(rebuiltTable.getString("strategy")).isEqualTo("REBUILD");
+    assertThat(rebuiltTable.getLong("rows")).isEqualTo(10L);
+    assertThat(rebuiltTable.getLong("statements") > 0).isTrue();
+
+    JSONObject alteredTable = revisions.getJSONObject(1).getJSONArray("tables").getJSONObject(0);
+    assertThat(alteredTable.getString("strategy")).isEqualTo("ALTER");
+    assertThat(alteredTable.getLong("rows")).isEqualTo(0L);
+
+    JSONObject tableTotals = report.toJson().getJSONObject("tables").getJSONObject("Contacts");
+    assertThat(tableTotals.getInt("migrations")).isEqualTo(2);
+    assertThat(tableTotals.getLong("rows")).isEqualTo(10L);
+
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Contacts")).containsExactly("id", "name", "email");
+    assertThat(mDatabase.rawQuery("SELECT * FROM Contacts", null).getCount()).isEqualTo(10);
+  }
+
+  @Test
+  public void shouldReportUnknownStatementCountOfPlainMigration() throws Exception {
+    Schemas schemas = Builder
+        .currentSchema(2,
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER"),
+                new AddColumn("name", "TEXT")
+            )
+        )
+        .upgradeTo(2,
+            new Migration() {
+              @Override
+              public void apply(int version, SQLiteDatabase database, Schemas schemas, Context context) {
+                database.execSQL("UPDATE Contacts SET name='Jane'");
+              }
+            },
+            Migrations.auto()
+        )
+        .downgradeTo(1,
+            new TableDowngrade("Contacts", new AddColumn("obsolete", "TEXT"))
+        )
+        .build();
+
+    MigrationReport report = new MigrationReport();
+    schemas.upgrade(Robolectric.application, mDatabase, 1, 2,
+        UpgradeOptions.builder()
+            .migrationListener(report)
+            .build()
+    );
+
+    JSONObject revision = report.toJson().getJSONArray("revisions").getJSONObject(0);
+    assertThat(revision.getLong("statements")).isEqualTo(MigrationListener.UNKNOWN_STATEMENT_COUNT);
+    JSONArray migrations = revision.getJSONArray("migrations");
+    assertThat(migrations.getJSONObject(0).getLong("statements")).isEqualTo(MigrationListener.UNKNOWN_STATEMENT_COUNT);
+    assertThat(migrations.getJSONObject(1).getLong("statements") > 0).isTrue();
+  }
+
+  @Test
+  public void shouldSkipTableWithRequestedDefinition() throws Exception {
+    MigrationReport report = new MigrationReport();
+    MigrationsHelper helper = MigrationsHelper.builder()
+        .listener(report)
+        .inPlaceMigrations(true)
+        .build();
+
+    helper.performMigrations(mDatabase, TableMigration
+        .of("Contacts")
+        .to(mSchemas.getSchema(1).getCreateTableStatement("Contacts"))
+        .build()
+    );
+
+    JSONObject tableMigration = report.toJson().getJSONArray("tableMigrations").getJSONObject(0);
+    assertThat(tableMigration.getString("strategy")).isEqualTo("SKIPPED");
+    assertThat(mDatabase.rawQuery("SELECT * FROM Contacts", null).getCount()).isEqualTo(10);
+  }
+
+  @Test
+  public void shouldAlterTableStoredWithQuotedName() throws Exception {
+    // SQLite before 3.25 stores the definition of the renamed table like this
+    mDatabase.execSQL("DROP TABLE Contacts");
+    mDatabase.execSQL("CREATE TABLE \"Contacts\" (id INTEGER, name TEXT, obsolete TEXT)");
+
+    MigrationReport report = new MigrationReport();
+    MigrationsHelper helper = MigrationsHelper.builder()
+        .listener(report)
+        .inPlaceMigrations(true)
+        .build();
+
+    helper.performMigrations(mDatabase, TableMigration
+        .of("Contacts")
+        .to("CREATE TABLE Contacts (id INTEGER, name TEXT, obsolete TEXT, email TEXT)")
+        .build()
+    );
+
+    JSONObject tableMigration = report.toJson().getJSONArray("tableMigrations").getJSONObject(0);
+    assertThat(tableMigration.getString("strategy")).isEqualTo("ALTER");
+    assertThat(MigrationsHelper.unquoteTableName("CREATE TABLE \"Contacts\" (id INTEGER)")).isEqualTo("CREATE TABLE Contacts (id INTEGER)");
+  }
+
+  @Test
+  public void shouldRebuildTableWhenColumnCannotBeAdded() throws Exception {
+    MigrationReport report = new MigrationReport();
+    MigrationsHelper helper = MigrationsHelper.builder()
+        .listener(report)
+        .inPlaceMigrations(true)
+        .build();
+
+    helper.performMigrations(mDatabase, TableMigration
+        .of("Contacts")
+        .to("CREATE TABLE Contacts (id INTEGER, name TEXT, obsolete TEXT, email TEXT UNIQUE)")
+        .build()
+    );
+
+    JSONObject tableMigration = report.toJson().getJSONArray("tableMigrations").getJSONObject(0);
+    assertThat(tableMigration.getString("strategy")).isEqualTo("REBUILD");
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Contacts")).containsExactly("id", "name", "obsolete", "email");
+  }
+
+  @Test
+  public void shouldPreserveRowIdsWhenRebuildingTable() throws Exception {
+    mDatabase.execSQL("DELETE FROM Contacts WHERE id % 3 = 0");
+    mDatabase.execSQL("UPDATE Contacts SET rowid = rowid + 100 WHERE id = 5");
+
+    MigrationsHelper helper = MigrationsHelper.builder()
+        .inPlaceMigrations(true)
+        .build();
+
+    helper.performMigrations(mDatabase, TableMigration
+        .of("Contacts")
+        .to("CREATE TABLE Contacts (id INTEGER, name TEXT, obsolete TEXT, email TEXT UNIQUE)")
+        .build()
+    );
+
+    assertThat(DatabaseUtils.stringForQuery(mDatabase, "SELECT group_concat(rowid || ':' || id) FROM Contacts", null))
+        .isEqualTo("2:1,3:2,5:4,8:7,9:8,106:5");
+  }
+
+  @Test
+  public void shouldRewriteDefinitionWhenOnlyConstraintsChange() throws Exception {
+    MigrationReport report = new MigrationReport();
+    MigrationsHelper helper = MigrationsHelper.builder()
+        .listener(report)
+        .inPlaceMigrations(true)
+        .build();
+
+    String createTableStatement = "CREATE TABLE Contacts (id INT NOT NULL CHECK (id >= 0), name TEXT, obsolete VARCHAR(10))";
+    helper.performMigrations(mDatabase, TableMigration
+        .of("Contacts")
+        .to(createTableStatement)
+        .build()
+    );
+
+    JSONObject tableMigration = report.toJson().getJSONArray("tableMigrations").getJSONObject(0);
+    assertThat(tableMigration.getString("strategy")).isEqualTo("SCHEMA_REWRITE");
+    assertThat(mDatabase.rawQuery("SELECT * FROM Contacts", null).getCount()).isEqualTo(10);
+
+    assertThat(MigrationsHelper.unquoteTableName(DatabaseUtils.stringForQuery(mDatabase, "SELECT sql FROM sqlite_master WHERE name='Contacts'", null))).isEqualTo(createTableStatement);
+
+    try {
+      mDatabase.execSQL("INSERT INTO Contacts (id) VALUES (-1)");
+      fail("Expected the rewritten CHECK constraint to be enforced");
+    } catch (SQLiteException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void shouldRebuildTableWhenDefaultChanges() throws Exception {
+    MigrationReport report = new MigrationReport();
+    MigrationsHelper helper = MigrationsHelper.builder()
+        .listener(report)
+        .inPlaceMigrations(true)
+        .build();
+
+    // the existing rows don't store the added column and read its DEFAULT from the schema
+    helper.performMigrations(mDatabase, TableMigration
+        .of("Contacts")
+        .to("CREATE TABLE Contacts (id INTEGER, name TEXT, obsolete TEXT, status TEXT DEFAULT 'new')")
+        .build()
+    );
+
+    String createTableStatement = "CREATE TABLE Contacts (id INTEGER, name TEXT, obsolete TEXT, status TEXT DEFAULT 'archived')";
+    helper.performMigrations(mDatabase, TableMigration
+        .of("Contacts")
+        .to(createTableStatement)
+        .build()
+    );
+
+    JSONArray tableMigrations = report.toJson().getJSONArray("tableMigrations");
+    assertThat(tableMigrations.getJSONObject(0).getString("strategy")).isEqualTo("ALTER");
+    assertThat(tableMigrations.getJSONObject(1).getString("strategy")).isEqualTo("REBUILD");
+
+    assertThat(MigrationsHelper.unquoteTableName(DatabaseUtils.stringForQuery(mDatabase, "SELECT sql FROM sqlite_master WHERE name='Contacts'", null))).isEqualTo(createTableStatement);
+    assertThat(DatabaseUtils.stringForQuery(mDatabase, "SELECT group_concat(DISTINCT status) FROM Contacts", null)).isEqualTo("new");
+
+    mDatabase.execSQL("INSERT INTO Contacts (id) VALUES (10)");
+    assertThat(DatabaseUtils.stringForQuery(mDatabase, "SELECT status FROM Contacts WHERE id=10", null)).isEqualTo("archived");
+  }
+
+  @Test
+  public void shouldRebuildTableWhenTypeAffinityChanges() throws Exception {
+    MigrationReport report = new MigrationReport();
+    MigrationsHelper helper = MigrationsHelper.builder()
+        .listener(report)
+        .inPlaceMigrations(true)
+        .build();
+
+    helper.performMigrations(mDatabase, TableMigration
+        .of("Contacts")
+        .to("CREATE TABLE Contacts (id TEXT, name TEXT, obsolete TEXT)")
+        .build()
+    );
+
+    JSONObject tableMigration = report.toJson().getJSONArray("tableMigrations").getJSONObject(0);
+    assertThat(tableMigration.getString("strategy")).isEqualTo("REBUILD");
+    assertThat(DatabaseUtils.stringForQuery(mDatabase, "SELECT typeof(id) FROM Contacts LIMIT 1", null)).isEqualTo("text");
+  }
+
+  @Test
+  public void shouldNotRewriteDefinitionWhenRowsViolateAddedConstraint() throws Exception {
+    MigrationsHelper helper = MigrationsHelper.builder()
+        .inPlaceMigrations(true)
+        .build();
+
+    mDatabase.beginTransaction();
+    try {
+      helper.performMigrations(mDatabase, TableMigration
+          .of("Contacts")
+          .to("CREATE TABLE Contacts (id INTEGER, name TEXT, obsolete TEXT NOT NULL)")
+          .build()
+      );
+      fail("Expected the rebuild to fail on the rows with NULL obsolete column");
+    } catch (SQLiteException e) {
+      // expected
+    } finally {
+      mDatabase.endTransaction();
+    }
+
+    assertThat(DatabaseUtils.stringForQuery(mDatabase, "SELECT sql FROM sqlite_master WHERE name='Contacts'", null))
+        .isEqualTo(mSchemas.getSchema(1).getCreateTableStatement("Contacts"));
+  }
+}
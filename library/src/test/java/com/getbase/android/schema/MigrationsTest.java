@@ -23,6 +23,8 @@ import com.getbase.android.schema.Schemas.Builder;
 import com.getbase.android.schema.Schemas.DropColumn;
 import com.getbase.android.schema.Schemas.TableDefinition;
 import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.getbase.android.schema.driver.Database;
+import com.google.common.base.Predicate;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -31,6 +33,8 @@ import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 @RunWith(RobolectricTestRunner.class)
@@ -84,6 +88,104 @@ public class MigrationsTest {
     getDb(SCHEMAS, 4).close();
   }
 
+  @Test
+  public void shouldKeepDataWhenTableIsRebuiltInConsecutiveRevisions() throws Exception {
+    Schemas schemas = Builder
+        .currentSchema(3,
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER"),
+                new AddColumn("email", "TEXT"),
+                new AddColumn("name", "TEXT")
+            )
+        )
+        .downgradeTo(2,
+            new TableDowngrade("Contacts", new DropColumn("name"))
+        )
+        .upgradeTo(2,
+            Migrations.auto(),
+            new AbstractDatabaseMigration() {
+              @Override
+              public void apply(int version, Database database, Schemas schemas, Context context) {
+                database.execSQL("UPDATE Contacts SET email='e'");
+              }
+            }
+        )
+        .downgradeTo(1,
+            new TableDowngrade("Contacts", new DropColumn("email"))
+        )
+        .build();
+
+    SQLiteDatabase db = SQLiteDatabase.create(null);
+    try {
+      db.execSQL(schemas.getSchema(1).getCreateTableStatement("Contacts"));
+      db.execSQL("INSERT INTO Contacts (id) VALUES (1)");
+
+      schemas.upgrade(Robolectric.application, db, 1, 3);
+
+      assertThat(MigrationsHelper.getDeclaredColumns(db, "Contacts")).containsExactly("id", "email", "name");
+      assertThat(db.compileStatement("SELECT email FROM Contacts WHERE id=1").simpleQueryForString()).isEqualTo("e");
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void shouldPerformMigrationWithRowTransformAndFilter() throws Exception {
+    Schemas schemas = Builder
+        .currentSchema(2,
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER PRIMARY KEY"),
+                new AddColumn("first_name", "TEXT"),
+                new AddColumn("last_name", "TEXT"),
+                new AddColumn("full_name", "TEXT")
+            )
+        )
+        .upgradeTo(2,
+            SimpleTableMigration
+                .of("Contacts")
+                .withTransform(new RowTransformer() {
+                  @Override
+                  public void transform(Cursor oldRow, TransformedRow newRow) {
+                    newRow.put("full_name",
+                        oldRow.getString(oldRow.getColumnIndexOrThrow("first_name")) + " " +
+                        oldRow.getString(oldRow.getColumnIndexOrThrow("last_name")));
+                  }
+                }, "full_name")
+                .withFilter(new Predicate<Cursor>() {
+                  @Override
+                  public boolean apply(Cursor oldRow) {
+                    return oldRow.getLong(oldRow.getColumnIndexOrThrow("id")) != 3;
+                  }
+                })
+                .withBatchSize(2)
+                .using(MIGRATIONS_HELPER)
+        )
+        .downgradeTo(1,
+            new TableDowngrade("Contacts", new DropColumn("full_name"))
+        )
+        .build();
+
+    SQLiteDatabase v1 = getDb(schemas, 1);
+    for (int i = 1; i <= 5; i++) {
+      v1.execSQL("INSERT INTO Contacts (id, first_name, last_name) VALUES (?, ?, ?)", new Object[] { i, "John", "Doe " + i });
+    }
+    v1.close();
+
+    SQLiteDatabase v2 = getDb(schemas, 2);
+    Cursor cursor = v2.rawQuery("SELECT id, first_name, full_name FROM Contacts ORDER BY id", null);
+    try {
+      assertThat(cursor.getCount()).isEqualTo(4);
+      while (cursor.moveToNext()) {
+        assertThat(cursor.getLong(0)).isNotEqualTo(3L);
+        assertThat(cursor.getString(1)).isEqualTo("John");
+        assertThat(cursor.getString(2)).isEqualTo("John Doe " + cursor.getLong(0));
+      }
+    } finally {
+      cursor.close();
+    }
+    v2.close();
+  }
+
   private SQLiteDatabase getDb(Schemas schemas, int version) {
     return new TestDatabase(Robolectric.application, schemas, version).getReadableDatabase();
   }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MultiDatabaseUpgraderTest {
+
+  private static final Schemas SCHEMAS = Builder
+      .currentSchema(3,
+          new TableDefinition("Contacts",
+              new AddColumn("id", "INTEGER"),
+              new AddColumn("name", "TEXT")
+          )
+      )
+      .downgradeTo(2,
+          new TableDowngrade("Contacts", new DropColumn("name"))
+      )
+      .build();
+
+  @Test
+  public void shouldUpgradeAllDatabases() throws Exception {
+    List<File> databases = Lists.newArrayList();
+    for (int i = 0; i < 5; i++) {
+      databases.add(createDatabase("account_" + i + ".db", i % 3));
+    }
+
+    ImmutableMap<File, Throwable> failures = MultiDatabaseUpgrader.builder(SCHEMAS)
+        .parallelism(3)
+        .ioConcurrency(2)
+        .build()
+        .upgrade(Robolectric.application, databases);
+
+    assertThat(failures).isEmpty();
+    for (File database : databases) {
+      SQLiteDatabase db = SQLiteDatabase.openDatabase(database.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+      assertThat(db.getVersion()).isEqualTo(3);
+      assertThat(MigrationsHelper.getColumns(db, "Contacts")).containsExactly("id", "name");
+      db.close();
+    }
+  }
+
+  @Test
+  public void shouldReportFailedDatabases() throws Exception {
+    File valid = createDatabase("valid.db", 2);
+    File tooNew = createDatabase("too_new.db", 4);
+
+    final List<File> failed = Lists.newArrayList();
+    ImmutableMap<File, Throwable> failures = MultiDatabaseUpgrader.builder(SCHEMAS)
+        .listener(new MultiDatabaseUpgrader.Listener() {
+          @Override
+          public void onStarted(File database, int fromVersion, int toVersion) {
+          }
+
+          @Override
+          public void onFinished(File database, int fromVersion, int toVersion, long durationMillis) {
+          }
+
+          @Override
+          public void onFailed(File database, Throwable error) {
+            failed.add(database);
+          }
+        })
+        .build()
+        .upgrade(Robolectric.application, ImmutableList.of(valid, tooNew));
+
+    assertThat(failures.keySet()).containsExactly(tooNew);
+    assertThat(failed).containsExactly(tooNew);
+  }
+
+  @Test
+  public void shouldOpenDatabasesWithOpener() throws Exception {
+    File first = createDatabase("first.db", 2);
+    File second = createDatabase("second.db", 0);
+
+    final List<File> opened = Lists.newArrayList();
+    final List<Boolean> foreignKeysEnabled = Lists.newArrayList();
+    ImmutableMap<File, Throwable> failures = MultiDatabaseUpgrader.builder(SCHEMAS)
+        .parallelism(1)
+        .opener(new MultiDatabaseUpgrader.Opener() {
+          @Override
+          public SQLiteDatabase open(File database) {
+            opened.add(database);
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(database.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+            db.execSQL("PRAGMA foreign_keys=ON");
+            foreignKeysEnabled.add(DatabaseUtils.longForQuery(db, "PRAGMA foreign_keys", null) == 1);
+            return db;
+          }
+        })
+        .build()
+        .upgrade(Robolectric.application, ImmutableList.of(first, second));
+
+    assertThat(failures).isEmpty();
+    assertThat(opened).containsExactly(first, second);
+    assertThat(foreignKeysEnabled).containsExactly(true, true);
+  }
+
+  private static File createDatabase(String name, int version) {
+    File file = Robolectric.application.getDatabasePath(name);
+    file.getParentFile().mkdirs();
+    file.delete();
+
+    SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+    if (version > 0) {
+      db.execSQL(SCHEMAS.getSchema(Math.min(version, 3)).getCreateTableStatement("Contacts"));
+      db.setVersion(version);
+    }
+    db.close();
+    return file;
+  }
+}
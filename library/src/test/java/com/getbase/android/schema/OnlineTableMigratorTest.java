@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.getbase.android.schema.MigrationsHelper.TableMigration;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.List;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class OnlineTableMigratorTest {
+
+  private SQLiteDatabase mDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+    mDatabase.execSQL("CREATE TABLE Contacts (id INTEGER PRIMARY KEY, name TEXT, obsolete TEXT)");
+    for (int i = 1; i <= 25; i++) {
+      mDatabase.execSQL("INSERT INTO Contacts (id, name, obsolete) VALUES (?, ?, 'x')", new Object[] { i, "name " + i });
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldMigrateTableInChunks() throws Exception {
+    OnlineTableMigrator.builder()
+        .chunkSize(10)
+        .build()
+        .migrate(mDatabase, TableMigration
+            .of("Contacts")
+            .to("CREATE TABLE Contacts (id INTEGER PRIMARY KEY, name TEXT, email TEXT)")
+            .withMapping("email", "'unknown'")
+            .build()
+        );
+
+    assertThat(MigrationsHelper.getDeclaredColumns(mDatabase, "Contacts")).containsExactly("id", "name", "email");
+
+    Cursor cursor = mDatabase.rawQuery("SELECT id, name, email FROM Contacts ORDER BY id", null);
+    try {
+      assertThat(cursor.getCount()).isEqualTo(25);
+      while (cursor.moveToNext()) {
+        assertThat(cursor.getString(1)).isEqualTo("name " + cursor.getLong(0));
+        assertThat(cursor.getString(2)).isEqualTo("unknown");
+      }
+    } finally {
+      cursor.close();
+    }
+
+    Cursor leftovers = mDatabase.rawQuery("SELECT name FROM sqlite_master WHERE name LIKE '_online%' UNION ALL SELECT name FROM sqlite_temp_master", null);
+    try {
+      assertThat(leftovers.getCount()).isEqualTo(0);
+    } finally {
+      leftovers.close();
+    }
+  }
+
+  @Test
+  public void shouldReplayWritesMadeBetweenChunks() throws Exception {
+    final int[] chunks = { 0 };
+    OnlineTableMigrator.builder()
+        .chunkSize(10)
+        .listener(new OnlineTableMigrator.Listener() {
+          @Override
+          public void onChunkCommitted(String table) {
+            if (++chunks[0] == 1) {
+              // rows 1-10 are already copied, rows 11-20 are not
+              mDatabase.execSQL("UPDATE Contacts SET name='updated' WHERE id IN (5, 15)");
+              mDatabase.execSQL("DELETE FROM Contacts WHERE id IN (3, 13)");
+              mDatabase.execSQL("UPDATE Contacts SET id=100 WHERE id=7");
+              mDatabase.execSQL("INSERT INTO Contacts (id, name) VALUES (7, 'reinserted')");
+            }
+          }
+        })
+        .build()
+        .migrate(mDatabase, TableMigration
+            .of("Contacts")
+            .to("CREATE TABLE Contacts (id INTEGER PRIMARY KEY, name TEXT)")
+            .build()
+        );
+
+    assertThat(chunks[0]).isGreaterThan(1);
+    assertThat(queryNames("SELECT name FROM Contacts WHERE id IN (5, 15) ORDER BY id")).containsExactly("updated", "updated").inOrder();
+    assertThat(queryNames("SELECT name FROM Contacts WHERE id IN (3, 13)")).isEmpty();
+    assertThat(queryNames("SELECT name FROM Contacts WHERE id=100")).containsExactly("name 7");
+    assertThat(queryNames("SELECT name FROM Contacts WHERE id=7")).containsExactly("reinserted");
+    assertThat(queryNames("SELECT name FROM Contacts")).hasSize(24);
+  }
+
+  @Test
+  public void shouldCatchUpWithWritesInReplayRounds() throws Exception {
+    final Map<Long, String> expectedNames = Maps.newTreeMap();
+    for (long id = 1; id <= 25; id++) {
+      expectedNames.put(id, "name " + id);
+    }
+
+    final int[] callbacks = { 0 };
+    OnlineTableMigrator.builder()
+        .chunkSize(2)
+        .maxReplayRounds(3)
+        .listener(new OnlineTableMigrator.Listener() {
+          @Override
+          public void onChunkCommitted(String table) {
+            callbacks[0]++;
+            for (long id = callbacks[0]; id < callbacks[0] + 3; id++) {
+              String name = "callback " + callbacks[0];
+              mDatabase.execSQL("UPDATE Contacts SET name=? WHERE id=?", new Object[] { name, id });
+              expectedNames.put(id, name);
+            }
+          }
+        })
+        .build()
+        .migrate(mDatabase, TableMigration
+            .of("Contacts")
+            .to("CREATE TABLE Contacts (id INTEGER PRIMARY KEY, name TEXT)")
+            .build()
+        );
+
+    // 13 chunks and 3 replay rounds, each of them leaving more than a chunk of changes
+    assertThat(callbacks[0]).isEqualTo(16);
+    assertThat(queryNames("SELECT name FROM Contacts ORDER BY id")).isEqualTo(Lists.newArrayList(expectedNames.values()));
+  }
+
+  @Test
+  public void shouldNotCascadeToReferencingTables() throws Exception {
+    mDatabase.execSQL("PRAGMA foreign_keys=ON");
+    mDatabase.execSQL("CREATE TABLE Deals (id INTEGER PRIMARY KEY, contact_id INTEGER REFERENCES Contacts(id) ON DELETE CASCADE)");
+    mDatabase.execSQL("CREATE TABLE Notes (id INTEGER PRIMARY KEY, contact_id INTEGER REFERENCES Contacts(id) ON DELETE SET NULL)");
+    mDatabase.execSQL("CREATE VIEW ContactNames AS SELECT name FROM Contacts");
+    mDatabase.execSQL("INSERT INTO Deals (id, contact_id) VALUES (1, 1)");
+    mDatabase.execSQL("INSERT INTO Notes (id, contact_id) VALUES (1, 2)");
+
+    OnlineTableMigrator.builder()
+        .chunkSize(10)
+        .build()
+        .migrate(mDatabase, TableMigration
+            .of("Contacts")
+            .to("CREATE TABLE Contacts (id INTEGER PRIMARY KEY, name TEXT)")
+            .build()
+        );
+
+    assertThat(queryNames("SELECT contact_id FROM Deals")).containsExactly("1");
+    assertThat(queryNames("SELECT contact_id FROM Notes")).containsExactly("2");
+    assertThat(queryNames("SELECT name FROM ContactNames")).hasSize(25);
+    assertThat(queryNames("PRAGMA foreign_keys")).containsExactly("1");
+  }
+
+  @Test
+  public void shouldFailSwapWhenReferencingRowsWouldBeOrphaned() throws Exception {
+    mDatabase.execSQL("PRAGMA foreign_keys=ON");
+    mDatabase.execSQL("CREATE TABLE Deals (id INTEGER PRIMARY KEY, contact_id INTEGER REFERENCES Contacts(id) ON DELETE CASCADE)");
+    mDatabase.execSQL("INSERT INTO Deals (id, contact_id) VALUES (1, 1)");
+
+    try {
+      OnlineTableMigrator.builder()
+          .build()
+          .migrate(mDatabase, TableMigration
+              .of("Contacts")
+              .to("CREATE TABLE Contacts (id INTEGER PRIMARY KEY, name TEXT)")
+              .withMapping("id", "id + 1000")
+              .build()
+          );
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException expected) {
+    }
+
+    assertThat(MigrationsHelper.getDeclaredColumns(mDatabase, "Contacts")).containsExactly("id", "name", "obsolete");
+    assertThat(queryNames("SELECT contact_id FROM Deals")).containsExactly("1");
+    assertThat(queryNames("PRAGMA foreign_keys")).containsExactly("1");
+  }
+
+  @Test
+  public void shouldRenameTableInCreateStatement() throws Exception {
+    assertThat(OnlineTableMigrator.renameCreateTableStatement("CREATE TABLE Contacts(id INTEGER)", "Contacts", "Shadow"))
+        .isEqualTo("CREATE TABLE Shadow(id INTEGER)");
+    assertThat(OnlineTableMigrator.renameCreateTableStatement("create table if not exists \"Contacts\" (id INTEGER)", "Contacts", "Shadow"))
+        .isEqualTo("create table if not exists \"Shadow\" (id INTEGER)");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectMigrationInsideTransaction() throws Exception {
+    mDatabase.beginTransaction();
+    try {
+      OnlineTableMigrator.builder().build().migrate(mDatabase, TableMigration
+          .of("Contacts")
+          .to("CREATE TABLE Contacts (id INTEGER PRIMARY KEY)")
+          .build()
+      );
+    } finally {
+      mDatabase.endTransaction();
+    }
+  }
+
+  private List<String> queryNames(String query) {
+    List<String> names = Lists.newArrayList();
+    Cursor cursor = mDatabase.rawQuery(query, null);
+    try {
+      while (cursor.moveToNext()) {
+        names.add(cursor.getString(0));
+      }
+    } finally {
+      cursor.close();
+    }
+    return names;
+  }
+}
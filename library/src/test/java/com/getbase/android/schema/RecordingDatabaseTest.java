@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.getbase.android.schema.driver.AndroidDatabase;
+import com.getbase.android.schema.driver.JdbcDatabase;
+import com.getbase.android.schema.driver.RecordingDatabase;
+import com.getbase.android.schema.driver.ReplayReport;
+import com.getbase.android.schema.driver.Statement;
+import com.getbase.android.schema.driver.StatementRecording;
+import com.getbase.android.schema.driver.StatementRecording.Type;
+import com.getbase.android.schema.driver.StatementReplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RecordingDatabaseTest {
+
+  private static final Schemas SCHEMAS = Builder
+      .currentSchema(2,
+          new TableDefinition("Contacts",
+              new AddColumn("id", "INTEGER"),
+              new AddColumn("name", "TEXT")
+          )
+      )
+      .downgradeTo(1,
+          new TableDowngrade("Contacts", new DropColumn("name"))
+      )
+      .build();
+
+  private SQLiteDatabase mDatabase;
+  private JdbcDatabase mReplayDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+    mReplayDatabase = JdbcDatabase.inMemory();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+    mReplayDatabase.close();
+  }
+
+  @Test
+  public void shouldRecordAndReplayUpgrade() throws Exception {
+    RecordingDatabase recorder = new RecordingDatabase(AndroidDatabase.wrap(mDatabase));
+    recorder.execSQL(SCHEMAS.getSchema(1).getCreateTableStatement("Contacts"));
+    recorder.execSQL("INSERT INTO Contacts (id) VALUES (?)", new Object[] { 42 });
+    SCHEMAS.upgrade(Robolectric.application, recorder, 1, 2);
+
+    StatementRecording recording = recorder.getRecording();
+    assertThat(recording.getEntries().get(1).getType()).isEqualTo(Type.EXEC_SQL);
+    assertThat(recording.getEntries().get(1).getArgs()).containsExactly(42L);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    recording.writeTo(out);
+    StatementRecording readRecording = StatementRecording.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    assertThat(readRecording.getEntries().size()).isEqualTo(recording.getEntries().size());
+
+    ReplayReport report = StatementReplayer.replay(readRecording, mReplayDatabase);
+
+    assertThat(report.getResults().size()).isEqualTo(recording.getEntries().size());
+    assertThat(MigrationsHelper.getColumns(mReplayDatabase, "Contacts")).containsExactly("id", "name");
+    assertThat(mReplayDatabase.compileStatement("SELECT id FROM Contacts").simpleQueryForLong()).isEqualTo(42L);
+  }
+
+  @Test
+  public void shouldRecordCompiledStatementBindings() throws Exception {
+    RecordingDatabase recorder = new RecordingDatabase(AndroidDatabase.wrap(mDatabase));
+    recorder.execSQL("CREATE TABLE Deals (id INTEGER, name TEXT)");
+
+    Statement insert = recorder.compileStatement("INSERT INTO Deals (id, name) VALUES (?, ?)");
+    insert.bindLong(1, 1);
+    insert.bindString(2, "Deal");
+    insert.executeInsert();
+    insert.close();
+
+    StatementRecording.Entry entry = recorder.getRecording().getEntries().get(1);
+    assertThat(entry.getType()).isEqualTo(Type.EXECUTE_INSERT);
+    assertThat(entry.getArgs()).containsExactly(1L, "Deal").inOrder();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.getbase.android.schema.driver.Database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ResumableUpgradeTest {
+
+  private static final UpgradeOptions RESUMABLE = UpgradeOptions.builder().resumable(true).build();
+
+  private SQLiteDatabase mDatabase;
+
+  private int mRevision2MigrationsCount;
+  private boolean mFailRevision3;
+
+  private final Schemas mSchemas = Builder
+      .currentSchema(3,
+          new TableDefinition("Contacts",
+              new AddColumn("id", "INTEGER"),
+              new AddColumn("name", "TEXT"),
+              new AddColumn("email", "TEXT")
+          )
+      )
+      .upgradeTo(3,
+          Migrations.auto(),
+          new AbstractDatabaseMigration() {
+            @Override
+            public void apply(int version, Database database, Schemas schemas, Context context) {
+              if (mFailRevision3) {
+                throw new IllegalStateException("Killed");
+              }
+            }
+          }
+      )
+      .downgradeTo(2,
+          new TableDowngrade("Contacts", new DropColumn("email"))
+      )
+      .upgradeTo(2,
+          Migrations.auto(),
+          new AbstractDatabaseMigration() {
+            @Override
+            public void apply(int version, Database database, Schemas schemas, Context context) {
+              mRevision2MigrationsCount++;
+            }
+          }
+      )
+      .downgradeTo(1,
+          new TableDowngrade("Contacts", new DropColumn("name"))
+      )
+      .build();
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+    mDatabase.execSQL(mSchemas.getSchema(1).getCreateTableStatement("Contacts"));
+    mDatabase.setVersion(1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldResumeInterruptedUpgrade() throws Exception {
+    mFailRevision3 = true;
+    try {
+      mSchemas.upgrade(Robolectric.application, mDatabase, 1, 3, RESUMABLE);
+    } catch (IllegalStateException expected) {
+    }
+    assertThat(MigrationsHelper.getDeclaredColumns(mDatabase, "Contacts")).containsExactly("id", "name");
+    assertThat(mDatabase.getVersion()).isEqualTo(1);
+
+    mFailRevision3 = false;
+    mSchemas.upgrade(Robolectric.application, mDatabase, 1, 3, RESUMABLE);
+
+    assertThat(mRevision2MigrationsCount).isEqualTo(1);
+    assertThat(MigrationsHelper.getDeclaredColumns(mDatabase, "Contacts")).containsExactly("id", "name", "email");
+    assertThat(mDatabase.getVersion()).isEqualTo(3);
+    assertThat(mDatabase.rawQuery("SELECT * FROM sqlite_master WHERE name = ?", new String[] { UpgradeProgress.TABLE }).getCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldRestoreTablesLeftByInterruptedMigration() throws Exception {
+    mDatabase.execSQL("INSERT INTO Contacts (id) VALUES (1)");
+    mDatabase.execSQL("ALTER TABLE Contacts RENAME TO _migration_old_Contacts");
+    mDatabase.execSQL("CREATE TABLE _migration_new_Contacts (id INTEGER, name TEXT)");
+
+    mSchemas.upgrade(Robolectric.application, mDatabase, 1, 3, RESUMABLE);
+
+    assertThat(MigrationsHelper.getDeclaredColumns(mDatabase, "Contacts")).containsExactly("id", "name", "email");
+    assertThat(mDatabase.rawQuery("SELECT * FROM Contacts", null).getCount()).isEqualTo(1);
+  }
+}
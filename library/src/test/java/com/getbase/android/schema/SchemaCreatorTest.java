@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.autoindexer.SQLiteIndex;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SchemaCreatorTest {
+
+  private final Schemas mSchemas = Builder
+      .currentSchema(1,
+          new TableDefinition("Notes",
+              new AddColumn("id", "INTEGER PRIMARY KEY"),
+              new AddColumn("deal_id", "INTEGER REFERENCES Deals(id)")
+          ),
+          new TableDefinition("Deals",
+              new AddColumn("id", "INTEGER PRIMARY KEY"),
+              new AddColumn("contact_id", "INTEGER REFERENCES Contacts(id)")
+          ),
+          new TableDefinition("Contacts",
+              new AddColumn("id", "INTEGER PRIMARY KEY"),
+              new AddColumn("name", "TEXT")
+          )
+      )
+      .build();
+
+  private SQLiteDatabase mDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldCreateReferencedTablesFirst() throws Exception {
+    CreateReport report = mSchemas.getCurrentSchema().createAll(mDatabase);
+
+    assertThat(report.getTables()).isEqualTo(ImmutableList.of("Contacts", "Deals", "Notes"));
+    assertThat(DatabaseUtils.stringForQuery(mDatabase, "SELECT group_concat(name) FROM (SELECT name FROM sqlite_master WHERE type='table' AND name NOT IN ('android_metadata') AND name NOT LIKE 'sqlite_%' ORDER BY rowid)", null))
+        .isEqualTo("Contacts,Deals,Notes");
+  }
+
+  @Test
+  public void shouldCreateIndexesAndTriggersAfterTables() throws Exception {
+    CreateReport report = mSchemas.getCurrentSchema().createAll(mDatabase, CreateOptions.builder()
+        .withIndexes(ImmutableList.of(new SQLiteIndex("Deals", "contact_id")))
+        .withIndexStatements("CREATE INDEX notes_deal_id ON Notes(deal_id)")
+        .withTriggerStatements("CREATE TRIGGER contacts_delete AFTER DELETE ON Contacts BEGIN DELETE FROM Deals WHERE contact_id=OLD.id; END")
+        .build()
+    );
+
+    assertThat(report.getIndexCount()).isEqualTo(2);
+    assertThat(report.getTriggerCount()).isEqualTo(1);
+    assertThat(report.getTotalTime(TimeUnit.NANOSECONDS) >= report.getTablesTime(TimeUnit.NANOSECONDS)).isTrue();
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM sqlite_master WHERE type='index'", null)).isEqualTo(2L);
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM sqlite_master WHERE type='trigger'", null)).isEqualTo(1L);
+  }
+
+  @Test
+  public void shouldCreateTablesInCallerTransaction() throws Exception {
+    mDatabase.beginTransaction();
+    try {
+      mSchemas.getCurrentSchema().createAll(mDatabase, CreateOptions.builder()
+          .inTransaction(false)
+          .build()
+      );
+    } finally {
+      mDatabase.endTransaction();
+    }
+
+    assertThat(DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM sqlite_master WHERE type='table' AND name NOT IN ('android_metadata') AND name NOT LIKE 'sqlite_%'", null)).isEqualTo(0L);
+  }
+}
@@ -0,0 +1,145 @@
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.io.ByteSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SchemaSnapshotTest {
+
+  private static final Schemas SCHEMAS = Builder
+      .currentSchema(10,
+          new TableDefinition("Contacts",
+              new AddColumn("id", "INTEGER"),
+              new AddColumn("name", "TEXT")
+          ),
+          new TableDefinition("Deals",
+              new AddColumn("id", "INTEGER")
+          )
+      )
+      .downgradeTo(5,
+          new TableDowngrade("Contacts", new DropColumn("name"))
+      )
+      .build();
+
+  @Test
+  public void shouldReadTheSnapshotItWrote() throws Exception {
+    SchemaSnapshot snapshot = SchemaSnapshot.of(SCHEMAS);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    snapshot.writeTo(out);
+    SchemaSnapshot readSnapshot = SchemaSnapshot.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+    assertThat(readSnapshot).isEqualTo(snapshot);
+    assertThat(readSnapshot.getRevision()).isEqualTo(10);
+    assertThat(readSnapshot.getCreateTableStatement("Deals")).isEqualTo(SCHEMAS.getCurrentSchema().getCreateTableStatement("Deals"));
+    assertThat(readSnapshot.getColumns("Contacts")).containsExactly("id", "name");
+    assertThat(readSnapshot.getTablesModifiedInRevision(6)).containsExactly("Contacts");
+    assertThat(readSnapshot.getTablesModifiedInRevision(7)).isEmpty();
+  }
+
+  @Test
+  public void shouldNotBuildSchemaHistoryWhenQueryingCurrentSchema() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.of(SCHEMAS).writeTo(out);
+
+    final int[] historyBuilds = { 0 };
+    PrecompiledSchemas schemas = new PrecompiledSchemas(ByteSource.wrap(out.toByteArray()), new Supplier<Schemas>() {
+      @Override
+      public Schemas get() {
+        historyBuilds[0]++;
+        return SCHEMAS;
+      }
+    });
+
+    assertThat(schemas.getCurrentRevisionNumber()).isEqualTo(10);
+    assertThat(schemas.getTables()).containsExactly("Contacts", "Deals");
+    assertThat(schemas.getColumns("Deals")).containsExactly("id");
+    assertThat(historyBuilds[0]).isEqualTo(0);
+
+    assertThat(schemas.getSchemas()).isSameAs(SCHEMAS);
+    assertThat(historyBuilds[0]).isEqualTo(1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectOutdatedSnapshot() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.of(Builder.currentSchema(9).build()).writeTo(out);
+
+    PrecompiledSchemas schemas = new PrecompiledSchemas(ByteSource.wrap(out.toByteArray()), new Supplier<Schemas>() {
+      @Override
+      public Schemas get() {
+        return SCHEMAS;
+      }
+    });
+
+    schemas.getSchemas();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectSnapshotWithOutdatedStatementsOnCreate() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.of(Builder
+        .currentSchema(10,
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER")
+            )
+        )
+        .build()
+    ).writeTo(out);
+
+    PrecompiledSchemas schemas = new PrecompiledSchemas(ByteSource.wrap(out.toByteArray()), new Supplier<Schemas>() {
+      @Override
+      public Schemas get() {
+        return SCHEMAS;
+      }
+    }, true);
+
+    schemas.createAll(SQLiteDatabase.create(null));
+  }
+
+  @Test
+  public void shouldVerifyUpToDateSnapshot() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.of(SCHEMAS).writeTo(out);
+
+    new PrecompiledSchemas(ByteSource.wrap(out.toByteArray()), new Supplier<Schemas>() {
+      @Override
+      public Schemas get() {
+        return SCHEMAS;
+      }
+    }).verify();
+  }
+
+  @Test(expected = IOException.class)
+  public void shouldRejectModifiedSnapshot() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SchemaSnapshot.of(SCHEMAS).writeTo(out);
+
+    byte[] bytes = out.toByteArray();
+    String content = new String(bytes, Charsets.ISO_8859_1);
+    int index = content.indexOf("INTEGER");
+    bytes[index] = 'X';
+
+    SchemaSnapshot.readFrom(new ByteArrayInputStream(bytes));
+  }
+}
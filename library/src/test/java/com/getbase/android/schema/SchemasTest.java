@@ -4,7 +4,14 @@ import static com.getbase.android.schema.TestUtils.is;
 import static com.getbase.android.schema.TestUtils.release;
 import static com.google.common.truth.Truth.assertThat;
 
+import com.getbase.android.schema.Schemas.AddColumn;
 import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -15,6 +22,13 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 @RunWith(RobolectricTestRunner.class)
 @Config(reportSdk = 10, manifest = Config.NONE)
 public class SchemasTest {
@@ -66,4 +80,160 @@ public class SchemasTest {
 
     db.getSchema(2900);
   }
+
+  @Test
+  public void shouldRebuildRevisionFromNearestCheckpoint() throws Exception {
+    Schemas db = Schemas.Builder
+        .currentSchema(100,
+            new TableDefinition("Deals",
+                new AddColumn("id", "INTEGER"),
+                new AddColumn("name", "TEXT")))
+        .downgradeTo(50,
+            new TableDowngrade("Deals", new DropColumn("name")))
+        .revisionCachePolicy(RevisionCachePolicy.builder()
+            .maxMaterializedRevisions(1)
+            .checkpointEvery(10)
+            .build())
+        .build();
+
+    assertThat(db.getSchema(5).getColumns("Deals")).containsExactly("id");
+    assertThat(db.getRevisionCacheStats().getRebuildCount()).isEqualTo(95L);
+
+    assertThat(db.getSchema(7).getColumns("Deals")).containsExactly("id");
+    assertThat(db.getRevisionCacheStats().getRebuildCount()).isEqualTo(98L);
+
+    assertThat(db.getSchema(70).getColumns("Deals")).containsExactly("id", "name");
+    assertThat(db.getRevisionCacheStats().getRebuildCount()).isEqualTo(98L);
+    assertThat(db.getRevisionCacheStats().getHitCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void shouldBuildRevisionsInLinearTimeDuringUpgrade() throws Exception {
+    Schemas db = Schemas.Builder
+        .currentSchema(200,
+            new TableDefinition("Deals",
+                new AddColumn("id", "INTEGER"),
+                new AddColumn("name", "TEXT")))
+        .downgradeTo(100,
+            new TableDowngrade("Deals", new DropColumn("name")))
+        .build();
+
+    // the auto migration asks for the revision and the previous one
+    for (int version = 2; version <= 200; version++) {
+      db.getSchema(version);
+      db.getSchema(version - 1);
+    }
+
+    // every miss walks at most one checkpoint interval and caches the
+    // revisions built on the way, so each revision is built a few times
+    // at most, instead of once per every later revision in the interval
+    assertThat(db.getRevisionCacheStats().getRebuildCount() <= 3L * 200).isTrue();
+  }
+
+  @Test
+  public void shouldKeepReleaseRevisionsAsCheckpoints() throws Exception {
+    Schemas db = Schemas.Builder
+        .currentSchema(10)
+        .release(release(1500))
+        .revisionCachePolicy(RevisionCachePolicy.builder()
+            .maxMaterializedRevisions(0)
+            .checkpointEvery(0)
+            .build())
+        .build();
+
+    db.getSchema(1400);
+    db.getSchema(1500);
+
+    assertThat(db.getRevisionCacheStats().getMissCount()).isEqualTo(1L);
+    assertThat(db.getRevisionCacheStats().getHitCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void shouldReuseSchemaInstancesAndMemoizeTableMetadata() throws Exception {
+    Schemas db = buildSchemasWithLongHistory();
+
+    assertThat(db.getSchema(120)).isSameAs(db.getSchema(120));
+    assertThat(db.getCurrentSchema()).isSameAs(db.getSchema(200));
+
+    Schemas.Schema schema = db.getSchema(120);
+    assertThat(schema.getColumns("Deals")).isSameAs(schema.getColumns("Deals"));
+    assertThat(schema.getCreateTableStatement("Deals")).isSameAs(schema.getCreateTableStatement("Deals"));
+  }
+
+  @Test
+  public void shouldShareMemoizedTableMetadataBetweenRevisionsWithoutChanges() throws Exception {
+    Schemas db = buildSchemasWithLongHistory();
+
+    assertThat(db.getSchema(120).getColumns("Deals")).isSameAs(db.getSchema(110).getColumns("Deals"));
+    assertThat(db.getSchema(120).getCreateTableStatement("Deals")).isSameAs(db.getSchema(110).getCreateTableStatement("Deals"));
+  }
+
+  @Test
+  public void shouldShareTableMetadataBetweenSchemasWithIdenticalHistories() throws Exception {
+    Schemas first = buildSchemasWithLongHistory();
+    Schemas second = buildSchemasWithLongHistory();
+
+    assertThat(first.getSchema(120).getColumns("Deals")).isSameAs(second.getSchema(120).getColumns("Deals"));
+    assertThat(first.getSchema(120).getCreateTableStatement("Deals")).isSameAs(second.getSchema(120).getCreateTableStatement("Deals"));
+    assertThat(first.getSchema(200).getCreateTableStatement("Contacts")).isSameAs(second.getSchema(120).getCreateTableStatement("Contacts"));
+  }
+
+  private static Schemas buildSchemasWithLongHistory() {
+    return Schemas.Builder
+        .currentSchema(200,
+            new TableDefinition("Deals",
+                new AddColumn("id", "INTEGER"),
+                new AddColumn("name", "TEXT"),
+                new AddColumn("value", "INTEGER")),
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER"),
+                new AddColumn("email", "TEXT")))
+        .downgradeTo(150,
+            new TableDowngrade("Deals", new DropColumn("value")))
+        .downgradeTo(100,
+            new TableDowngrade("Contacts", new DropColumn("email")))
+        .downgradeTo(50,
+            new TableDowngrade("Deals", new DropColumn("name")))
+        .revisionCachePolicy(RevisionCachePolicy.builder()
+            .maxMaterializedRevisions(4)
+            .checkpointEvery(25)
+            .build())
+        .build();
+  }
+
+  @Test
+  public void shouldBuildTheSameStatementsWhenQueriedConcurrently() throws Exception {
+    Schemas reference = buildSchemasWithLongHistory();
+    final Map<Integer, String> expected = Maps.newHashMap();
+    for (int version = 0; version <= 200; version++) {
+      expected.put(version, reference.getSchema(version).getCreateTableStatement("Deals") + reference.getSchema(version).getColumns("Contacts"));
+    }
+
+    final Schemas schemas = buildSchemasWithLongHistory();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = Lists.newArrayList();
+      for (int thread = 0; thread < 8; thread++) {
+        final int seed = thread;
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            boolean consistent = true;
+            for (int i = 0; i < 500; i++) {
+              int version = (i * 37 + seed * 11) % 201;
+              Schemas.Schema schema = schemas.getSchema(version);
+              consistent &= expected.get(version).equals(schema.getCreateTableStatement("Deals") + schema.getColumns("Contacts"));
+            }
+            return consistent;
+          }
+        }));
+      }
+
+      for (Future<Boolean> result : results) {
+        assertThat(result.get()).isTrue();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }
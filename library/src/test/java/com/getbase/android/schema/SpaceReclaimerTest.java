@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.getbase.android.schema.SpaceReclaimer.Action;
+import com.getbase.android.schema.SpaceReclaimer.Listener;
+import com.getbase.android.schema.SpaceReclaimer.Report;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SpaceReclaimerTest {
+
+  private final List<Report> mReports = Lists.newArrayList();
+
+  private final Listener mListener = new Listener() {
+    @Override
+    public void onSpaceReclaimed(Report report) {
+      mReports.add(report);
+    }
+  };
+
+  private SQLiteDatabase mDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldVacuumWhenFreePagesExceedThreshold() throws Exception {
+    createAndDropTable();
+    assertThat(SpaceReclaimer.SpaceUsage.measure(mDatabase).getFreePages() > 0).isTrue();
+
+    Report report = SpaceReclaimer.builder()
+        .vacuumThreshold(0.1f)
+        .build()
+        .reclaim(mDatabase);
+
+    assertThat(report.getActions()).containsExactly(Action.VACUUM);
+    assertThat(report.getAfter().getFreePages()).isEqualTo(0L);
+  }
+
+  @Test
+  public void shouldNotVacuumInsideTransaction() throws Exception {
+    createAndDropTable();
+
+    mDatabase.beginTransaction();
+    try {
+      Report report = SpaceReclaimer.builder()
+          .vacuumThreshold(0.1f)
+          .build()
+          .reclaim(mDatabase);
+      assertThat(report.getActions()).isEmpty();
+      assertThat(report.getAfter().getFreePages()).isEqualTo(report.getBefore().getFreePages());
+    } finally {
+      mDatabase.endTransaction();
+    }
+  }
+
+  @Test
+  public void shouldReleaseFreePagesWithIncrementalVacuum() throws Exception {
+    mDatabase.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+    // changing auto_vacuum of the database with tables requires VACUUM
+    mDatabase.execSQL("VACUUM");
+    createAndDropTable();
+
+    SpaceReclaimer reclaimer = SpaceReclaimer.builder()
+        .incrementalVacuumPages(10)
+        .build();
+
+    Report report = reclaimer.reclaim(mDatabase);
+    assertThat(report.getActions()).containsExactly(Action.INCREMENTAL_VACUUM);
+    assertThat(report.getBefore().getFreePages() > 10).isTrue();
+    assertThat(report.getAfter().getFreePages()).isEqualTo(report.getBefore().getFreePages() - 10);
+
+    while (report.getAfter().getFreePages() > 0) {
+      report = reclaimer.reclaim(mDatabase);
+      assertThat(report.getActions()).containsExactly(Action.INCREMENTAL_VACUUM);
+    }
+  }
+
+  @Test
+  public void shouldPassReportOfReclaimAfterUpgradeToListener() throws Exception {
+    Schemas schemas = Builder
+        .currentSchema(2,
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER"),
+                new AddColumn("name", "TEXT")
+            )
+        )
+        .downgradeTo(1,
+            new TableDowngrade("Contacts", new DropColumn("name"))
+        )
+        .build();
+    mDatabase.execSQL(schemas.getSchema(1).getCreateTableStatement("Contacts"));
+    createAndDropTable();
+
+    schemas.upgrade(Robolectric.application, mDatabase, 1, 2, UpgradeOptions.builder()
+        .spaceReclaimer(SpaceReclaimer.builder()
+            .vacuumThreshold(0.1f)
+            .listener(mListener)
+            .build())
+        .build());
+
+    assertThat(mReports.size()).isEqualTo(1);
+    assertThat(mReports.get(0).getActions()).containsExactly(Action.VACUUM);
+    assertThat(mReports.get(0).getAfter().getFreePages()).isEqualTo(0L);
+  }
+
+  private void createAndDropTable() {
+    mDatabase.execSQL("CREATE TABLE Blobs(data TEXT)");
+    for (int i = 0; i < 200; i++) {
+      mDatabase.execSQL("INSERT INTO Blobs(data) VALUES (?)", new Object[] { String.format("%1000d", i) });
+    }
+    mDatabase.execSQL("DROP TABLE Blobs");
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TableDependenciesTest {
+
+  @Test
+  public void shouldFindReferencedTables() throws Exception {
+    assertThat(TableDependencies.getReferencedTables(
+        "CREATE TABLE Deals (id INTEGER, contact_id INTEGER REFERENCES Contacts(id), user_id INTEGER REFERENCES \"Users\"(id))"
+    )).containsExactly("Contacts", "Users");
+  }
+
+  @Test
+  public void shouldOrderReferencedTablesFirst() throws Exception {
+    ImmutableMap<String, String> statements = ImmutableMap.of(
+        "A", "CREATE TABLE A (id INTEGER, c_id INTEGER REFERENCES C(id))",
+        "B", "CREATE TABLE B (id INTEGER, a_id INTEGER REFERENCES a(id), parent_id INTEGER REFERENCES B(id))",
+        "C", "CREATE TABLE C (id INTEGER, x_id INTEGER REFERENCES X(id))"
+    );
+
+    assertThat(TableDependencies.sortByDependencies(statements)).containsExactly("C", "A", "B").inOrder();
+  }
+
+  @Test
+  public void shouldAppendTablesWithCircularReferences() throws Exception {
+    ImmutableMap<String, String> statements = ImmutableMap.of(
+        "A", "CREATE TABLE A (id INTEGER, b_id INTEGER REFERENCES B(id))",
+        "B", "CREATE TABLE B (id INTEGER, a_id INTEGER REFERENCES A(id))",
+        "C", "CREATE TABLE C (id INTEGER)"
+    );
+
+    assertThat(TableDependencies.sortByDependencies(statements)).containsExactly("C", "A", "B").inOrder();
+  }
+}
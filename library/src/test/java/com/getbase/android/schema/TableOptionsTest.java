@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.getbase.android.schema.MigrationsHelper.TableMigration;
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropTableOption;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.getbase.android.schema.driver.JdbcDatabase;
+import com.google.common.base.Predicates;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TableOptionsTest {
+
+  private final Schemas mSchemas = Builder
+      .currentSchema(2,
+          new TableDefinition("Settings",
+              new AddColumn("key", "TEXT PRIMARY KEY"),
+              new AddColumn("value", "TEXT"),
+              Schemas.withoutRowId()
+          )
+      )
+      .downgradeTo(1,
+          new TableDowngrade("Settings", new DropTableOption("without  rowid"))
+      )
+      .build();
+
+  @Test
+  public void shouldAppendTableOptionsToCreateTableStatement() throws Exception {
+    assertThat(mSchemas.getSchema(2).getCreateTableStatement("Settings").endsWith(") WITHOUT ROWID")).isTrue();
+    assertThat(mSchemas.getSchema(1).getCreateTableStatement("Settings").endsWith(")")).isTrue();
+    assertThat(mSchemas.getTablesModifiedInRevision(2)).containsExactly("Settings");
+  }
+
+  @Test
+  public void shouldSortMultipleTableOptions() throws Exception {
+    Schemas schemas = Builder
+        .currentSchema(1,
+            new TableDefinition("Settings",
+                new AddColumn("key", "TEXT PRIMARY KEY"),
+                Schemas.withoutRowId(),
+                Schemas.strict()
+            )
+        )
+        .build();
+
+    assertThat(schemas.getSchema(1).getCreateTableStatement("Settings"))
+        .isEqualTo("CREATE TABLE Settings(key TEXT PRIMARY KEY) STRICT, WITHOUT ROWID");
+  }
+
+  @Test
+  public void shouldRebuildTableWhenTableOptionIsAdded() throws Exception {
+    // WITHOUT ROWID needs SQLite 3.8.2+, newer than the SQLite of Robolectric
+    JdbcDatabase database = JdbcDatabase.inMemory();
+    try {
+      database.execSQL(mSchemas.getSchema(1).getCreateTableStatement("Settings"));
+      database.execSQL("INSERT INTO Settings (key, value) VALUES ('b', '2')");
+      database.execSQL("INSERT INTO Settings (key, value) VALUES ('a', '1')");
+
+      mSchemas.upgrade(Robolectric.application, database, 1, 2);
+
+      assertThat(database.compileStatement("SELECT sql FROM sqlite_master WHERE name='Settings'").simpleQueryForString().endsWith("WITHOUT ROWID")).isTrue();
+      assertThat(database.compileStatement("SELECT group_concat(key || '=' || value) FROM Settings").simpleQueryForString()).isEqualTo("a=1,b=2");
+    } finally {
+      database.close();
+    }
+  }
+
+  @Test
+  public void shouldRejectFilteringRowsOfTableWithoutRowId() throws Exception {
+    JdbcDatabase database = JdbcDatabase.inMemory();
+    try {
+      database.execSQL(mSchemas.getSchema(2).getCreateTableStatement("Settings"));
+      database.execSQL("INSERT INTO Settings (key, value) VALUES ('a', '1')");
+
+      try {
+        new MigrationsHelper().performMigrations(database, TableMigration
+            .of("Settings")
+            .to("CREATE TABLE Settings (key TEXT PRIMARY KEY, value TEXT, modified INTEGER) WITHOUT ROWID")
+            .withFilter(Predicates.<Cursor>alwaysTrue())
+            .build()
+        );
+        fail("Expected the filtered migration of the WITHOUT ROWID table to be rejected");
+      } catch (IllegalStateException e) {
+        assertThat(e.getMessage()).contains("WITHOUT ROWID");
+      }
+
+      assertThat(database.compileStatement("SELECT sql FROM sqlite_master WHERE name='Settings'").simpleQueryForString())
+          .isEqualTo(mSchemas.getSchema(2).getCreateTableStatement("Settings"));
+    } finally {
+      database.close();
+    }
+  }
+}
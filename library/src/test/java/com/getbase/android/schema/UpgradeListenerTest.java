@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class UpgradeListenerTest {
+
+  private final Schemas mSchemas = Builder
+      .currentSchema(3,
+          new TableDefinition("Contacts",
+              new AddColumn("id", "INTEGER"),
+              new AddColumn("name", "TEXT"),
+              new AddColumn("email", "TEXT")
+          )
+      )
+      .downgradeTo(2,
+          new TableDowngrade("Contacts", new DropColumn("email"))
+      )
+      .downgradeTo(1,
+          new TableDowngrade("Contacts", new DropColumn("name"))
+      )
+      .build();
+
+  private final List<String> mEvents = Lists.newArrayList();
+  private final List<Float> mFractions = Lists.newArrayList();
+  private long mLastEstimate;
+
+  private final UpgradeListener mListener = new UpgradeListener() {
+    @Override
+    public void onRevisionStarted(int revision) {
+      mEvents.add("started " + revision);
+    }
+
+    @Override
+    public void onTableMigrated(int revision, String table) {
+      mEvents.add("migrated " + table + " in " + revision);
+    }
+
+    @Override
+    public void onRevisionFinished(int revision) {
+      mEvents.add("finished " + revision);
+    }
+
+    @Override
+    public void onProgress(float fraction, long estimatedRemainingMillis) {
+      mFractions.add(fraction);
+      mLastEstimate = estimatedRemainingMillis;
+    }
+  };
+
+  private SQLiteDatabase mDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+    mDatabase.execSQL(mSchemas.getSchema(1).getCreateTableStatement("Contacts"));
+    for (int i = 0; i < 10; i++) {
+      mDatabase.execSQL("INSERT INTO Contacts (id) VALUES (?)", new Object[] { i });
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldReportUpgradeProgress() throws Exception {
+    ListenableFuture<Void> future = mSchemas.upgradeAsync(Robolectric.application, mDatabase, 1, 3,
+        UpgradeOptions.builder().resumable(true).listener(mListener).build(),
+        MoreExecutors.directExecutor()
+    );
+    future.get();
+
+    assertThat(mEvents).containsExactly(
+        "started 2",
+        "migrated Contacts in 2",
+        "finished 2",
+        "started 3",
+        "migrated Contacts in 3",
+        "finished 3"
+    ).inOrder();
+
+    assertThat(mFractions).isNotEmpty();
+    for (int i = 1; i < mFractions.size(); i++) {
+      assertThat(mFractions.get(i) >= mFractions.get(i - 1)).isTrue();
+    }
+    assertThat(mFractions.get(mFractions.size() - 1)).isEqualTo(1.0f);
+    assertThat(mLastEstimate).isEqualTo(0L);
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Contacts")).containsExactly("id", "name", "email");
+    assertThat(mDatabase.getVersion()).isEqualTo(3);
+  }
+
+  @Test
+  public void shouldEstimateProgressFromAnalyzedTables() throws Exception {
+    // the range of the rowids is much larger than the rows count
+    mDatabase.execSQL("UPDATE Contacts SET _rowid_=1000 WHERE id=9");
+    mDatabase.execSQL("ANALYZE");
+
+    mSchemas.upgrade(Robolectric.application, mDatabase, 1, 3,
+        UpgradeOptions.builder().listener(mListener).build()
+    );
+
+    // 2 revisions, each with one modified table weighing 1 + 10 rows
+    assertThat(mFractions.get(0)).isEqualTo(11f / 24);
+    assertThat(mFractions.get(mFractions.size() - 1)).isEqualTo(1.0f);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNonResumableAsyncUpgrade() throws Exception {
+    mSchemas.upgradeAsync(Robolectric.application, mDatabase, 1, 3,
+        UpgradeOptions.builder().listener(mListener).build(),
+        MoreExecutors.directExecutor()
+    );
+  }
+
+  @Test(expected = ExecutionException.class)
+  public void shouldReportFailureThroughFuture() throws Exception {
+    mDatabase.execSQL("DROP TABLE Contacts");
+
+    mSchemas.upgradeAsync(Robolectric.application, mDatabase, 1, 3,
+        UpgradeOptions.builder().resumable(true).listener(mListener).build(),
+        MoreExecutors.directExecutor()
+    ).get();
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.getbase.android.schema.driver.StatementRecording;
+import com.getbase.android.schema.driver.StatementRecording.Entry;
+import com.getbase.android.schema.driver.StatementRecording.Type;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class UpgradeRehearsalTest {
+
+  private SQLiteDatabase mDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+    mDatabase.execSQL("CREATE TABLE Contacts(id INTEGER)");
+    mDatabase.execSQL("INSERT INTO Contacts (id) VALUES (1)");
+    mDatabase.setVersion(1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldRecordUpgradePlanWithoutModifyingDatabase() throws Exception {
+    StatementRecording plan = schemas("'John'").rehearse(Robolectric.application, mDatabase, 1, 2);
+
+    boolean createsContacts = false;
+    for (Entry entry : plan.getEntries()) {
+      if (entry.getSql() != null && entry.getSql().startsWith("CREATE TABLE Contacts")) {
+        createsContacts = true;
+      }
+    }
+    assertThat(createsContacts).isTrue();
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Contacts")).containsExactly("id");
+  }
+
+  @Test
+  public void shouldFailBeforeTouchingData() throws Exception {
+    try {
+      schemas("no_such_column").upgrade(Robolectric.application, mDatabase, 1, 2,
+          UpgradeOptions.builder().rehearsal(true).build()
+      );
+      fail();
+    } catch (IllegalStateException expected) {
+      assertThat(expected.getMessage()).contains("Rehearsal");
+    }
+
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Contacts")).containsExactly("id");
+    assertThat(mDatabase.rawQuery("SELECT * FROM sqlite_master WHERE name LIKE '_migration%'", null).getCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldPerformUpgradeAfterSuccessfulRehearsal() throws Exception {
+    schemas("'John'").upgrade(Robolectric.application, mDatabase, 1, 2,
+        UpgradeOptions.builder().rehearsal(true).build()
+    );
+
+    assertThat(MigrationsHelper.getColumns(mDatabase, "Contacts")).containsExactly("id", "name");
+    assertThat(mDatabase.compileStatement("SELECT name FROM Contacts").simpleQueryForString()).isEqualTo("John");
+  }
+
+  @Test
+  public void shouldListPlainMigrationsWhichWereNotRecorded() throws Exception {
+    Schemas schemas = Builder
+        .currentSchema(2,
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER"),
+                new AddColumn("name", "TEXT")
+            )
+        )
+        .upgradeTo(2,
+            Migrations.auto(),
+            new Migration() {
+              @Override
+              public void apply(int version, SQLiteDatabase database, Schemas schemas, Context context) {
+                database.execSQL("UPDATE Contacts SET name='John'");
+              }
+
+              @Override
+              public String toString() {
+                return "FillNames";
+              }
+            }
+        )
+        .downgradeTo(1,
+            new TableDowngrade("Contacts", new DropColumn("name"))
+        )
+        .build();
+
+    StatementRecording plan = schemas.rehearse(Robolectric.application, mDatabase, 1, 2);
+
+    assertThat(plan.getUnrecordedMigrations()).hasSize(1);
+    assertThat(plan.getUnrecordedMigrations().get(0)).contains("FillNames");
+
+    Entry unrecordedEntry = null;
+    for (Entry entry : plan.getEntries()) {
+      if (entry.getType() == Type.UNRECORDED_MIGRATION) {
+        unrecordedEntry = entry;
+      }
+    }
+    assertThat(unrecordedEntry).isNotNull();
+    assertThat(unrecordedEntry.getSql()).contains("revision 2");
+  }
+
+  private static Schemas schemas(String nameMapping) {
+    return Builder
+        .currentSchema(2,
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER"),
+                new AddColumn("name", "TEXT")
+            )
+        )
+        .upgradeTo(2,
+            SimpleTableMigration
+                .of("Contacts")
+                .withMapping("name", nameMapping)
+                .using(new MigrationsHelper())
+        )
+        .downgradeTo(1,
+            new TableDowngrade("Contacts", new DropColumn("name"))
+        )
+        .build();
+  }
+}
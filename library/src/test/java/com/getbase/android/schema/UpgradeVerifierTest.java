@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 Jerzy Chalupski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.getbase.android.schema;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.getbase.android.schema.Schemas.AddColumn;
+import com.getbase.android.schema.Schemas.Builder;
+import com.getbase.android.schema.Schemas.DropColumn;
+import com.getbase.android.schema.Schemas.TableDefinition;
+import com.getbase.android.schema.Schemas.TableDowngrade;
+import com.getbase.android.schema.UpgradeVerifier.TableVerification;
+import com.google.common.base.Predicate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class UpgradeVerifierTest {
+
+  private SQLiteDatabase mDatabase;
+
+  @Before
+  public void setUp() throws Exception {
+    mDatabase = SQLiteDatabase.create(null);
+    mDatabase.execSQL("CREATE TABLE Contacts(id INTEGER, name TEXT, obsolete TEXT)");
+    for (int i = 0; i < 10; i++) {
+      mDatabase.execSQL("INSERT INTO Contacts (id, name, obsolete) VALUES (?, ?, 'x')", new Object[] { i, "John " + i });
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mDatabase.close();
+  }
+
+  @Test
+  public void shouldCompareRowCountsAndChecksumsOfRebuiltTable() throws Exception {
+    UpgradeVerifier verifier = UpgradeVerifier.builder()
+        .checksumSampleSize(5)
+        .build();
+
+    schemas(null).upgrade(Robolectric.application, mDatabase, 1, 2,
+        UpgradeOptions.builder().verifier(verifier).build()
+    );
+
+    assertThat(verifier.getTableVerifications()).hasSize(1);
+    TableVerification verification = verifier.getTableVerifications().get(0);
+    assertThat(verification.getTable()).isEqualTo("Contacts");
+    assertThat(verification.getOldRowCount()).isEqualTo(10L);
+    assertThat(verification.getNewRowCount()).isEqualTo(10L);
+    assertThat(verification.getSampledRows()).isEqualTo(5);
+    assertThat(verification.isChecksumMatching()).isTrue();
+    assertThat(verifier.isOk()).isTrue();
+  }
+
+  @Test
+  public void shouldNotCompareFilteredRows() throws Exception {
+    UpgradeVerifier verifier = UpgradeVerifier.builder()
+        .checksumSampleSize(5)
+        .build();
+
+    schemas(new Predicate<Cursor>() {
+      @Override
+      public boolean apply(Cursor oldRow) {
+        return oldRow.getLong(oldRow.getColumnIndexOrThrow("id")) % 2 == 0;
+      }
+    }).upgrade(Robolectric.application, mDatabase, 1, 2,
+        UpgradeOptions.builder().verifier(verifier).build()
+    );
+
+    TableVerification verification = verifier.getTableVerifications().get(0);
+    assertThat(verification.isFiltered()).isTrue();
+    assertThat(verification.getOldRowCount()).isEqualTo(10L);
+    assertThat(verification.getNewRowCount()).isEqualTo(5L);
+    assertThat(verification.getSampledRows()).isEqualTo(0);
+    assertThat(verifier.isOk()).isTrue();
+  }
+
+  private static Schemas schemas(Predicate<Cursor> filter) {
+    SimpleTableMigration.Builder migration = SimpleTableMigration.of("Contacts");
+    if (filter != null) {
+      migration.withFilter(filter);
+    }
+
+    return Builder
+        .currentSchema(2,
+            new TableDefinition("Contacts",
+                new AddColumn("id", "INTEGER"),
+                new AddColumn("name", "TEXT")
+            )
+        )
+        .upgradeTo(2, migration.using(new MigrationsHelper()))
+        .downgradeTo(1,
+            new TableDowngrade("Contacts", new AddColumn("obsolete", "TEXT"))
+        )
+        .build();
+  }
+}